@@ -96,6 +96,10 @@
 // substituted with the current host.
 "gadgets.osDataUri" : "http://%host%${CONTEXT_ROOT}/rpc",
 
+// Time, in milliseconds, a render waits for the preloads of a gadget. Preloads
+// still running then are cancelled and reported as failed. 0 waits for all.
+"gadgets.preload.deadline" : 5000,
+
 // Uncomment these to switch to a secure version
 //
 //"gadgets.securityTokenType" : "secure",
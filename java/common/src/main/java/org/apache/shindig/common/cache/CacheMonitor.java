@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * Exposes a named cache and its statistics as a standard MBean.
+ */
+public class CacheMonitor implements CacheMonitorMBean {
+  private final String name;
+  private final Cache<?, ?> cache;
+
+  public CacheMonitor(String name, Cache<?, ?> cache) {
+    this.name = name;
+    this.cache = cache;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getSize() {
+    return cache.getSize();
+  }
+
+  public long getCapacity() {
+    return cache.getCapacity();
+  }
+
+  public long getWeight() {
+    if (cache instanceof WeightedLruCache<?, ?>) {
+      return ((WeightedLruCache<?, ?>) cache).getWeight();
+    }
+    return -1;
+  }
+
+  public long getHitCount() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getHitCount();
+  }
+
+  public long getMissCount() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getMissCount();
+  }
+
+  public long getPutCount() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getPutCount();
+  }
+
+  public long getEvictionCount() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getEvictionCount();
+  }
+
+  public double getHitRate() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getHitRate();
+  }
+
+  public double getAverageLoadPenaltyMillis() {
+    CacheStats stats = CacheStatsUtil.getStats(cache);
+    return stats == null ? -1 : stats.getAverageLoadPenalty() / 1000000.0;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * An immutable snapshot of the activity of an {@link InstrumentedCache}.
+ */
+public class CacheStats {
+  private final long hitCount;
+  private final long missCount;
+  private final long putCount;
+  private final long evictionCount;
+  private final long loadCount;
+  private final long totalLoadTime;
+
+  public CacheStats(long hitCount, long missCount, long putCount, long evictionCount,
+      long loadCount, long totalLoadTime) {
+    this.hitCount = hitCount;
+    this.missCount = missCount;
+    this.putCount = putCount;
+    this.evictionCount = evictionCount;
+    this.loadCount = loadCount;
+    this.totalLoadTime = totalLoadTime;
+  }
+
+  /**
+   * @return The number of lookups that found a value.
+   */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /**
+   * @return The number of lookups that found nothing.
+   */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /**
+   * @return The number of values stored.
+   */
+  public long getPutCount() {
+    return putCount;
+  }
+
+  /**
+   * @return The number of values removed by the cache to make room for others, or because they
+   *     expired.
+   */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * @return The number of loads reported after a miss.
+   */
+  public long getLoadCount() {
+    return loadCount;
+  }
+
+  /**
+   * @return The total time, in nanoseconds, spent loading values after a miss.
+   */
+  public long getTotalLoadTime() {
+    return totalLoadTime;
+  }
+
+  /**
+   * @return The ratio of hits to lookups, or 1.0 if there have been no lookups.
+   */
+  public double getHitRate() {
+    long requests = hitCount + missCount;
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+
+  /**
+   * @return The average time, in nanoseconds, spent loading a value after a miss.
+   */
+  public double getAverageLoadPenalty() {
+    return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheStats[hits=" + hitCount + ", misses=" + missCount + ", puts=" + putCount
+        + ", evictions=" + evictionCount + ", loads=" + loadCount + ", totalLoadTime="
+        + totalLoadTime + ']';
+  }
+}
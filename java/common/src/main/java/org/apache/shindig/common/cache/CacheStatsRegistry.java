@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.MapMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tracks the named caches created by a {@link CacheProvider} so that their sizes and statistics
+ * can be reported, and optionally exports each one over JMX as
+ * org.apache.shindig:type=Cache,name=<cache name>.
+ *
+ * Other components may register keyed statistics of their own, such as per-origin fetch counts.
+ * These are reported alongside the caches and exported as org.apache.shindig:type=Stats,name=<type>.
+ */
+@Singleton
+public class CacheStatsRegistry {
+  private static final Logger LOG = Logger.getLogger(CacheStatsRegistry.class.getName());
+  static final String JMX_DOMAIN = "org.apache.shindig";
+
+  private final ConcurrentMap<String, Cache<?, ?>> caches = new MapMaker().makeMap();
+  private final ConcurrentMap<String, Supplier<? extends Map<String, ?>>> stats =
+      new MapMaker().makeMap();
+  private boolean jmxEnabled = false;
+
+  @Inject(optional = true)
+  public void setJmxEnabled(@Named("shindig.cache.stats.jmx.enabled") boolean jmxEnabled) {
+    this.jmxEnabled = jmxEnabled;
+  }
+
+  /**
+   * Adds a cache to the registry, replacing any previous cache of the same name.
+   */
+  public void register(String name, Cache<?, ?> cache) {
+    caches.put(name, cache);
+    if (jmxEnabled) {
+      registerMBean("Cache", name, new CacheMonitor(name, cache));
+    }
+  }
+
+  /**
+   * Adds a source of statistics, replacing any previous source of the same type. The source
+   * returns a snapshot keyed by whatever it measures, with beans as values.
+   */
+  public void registerStats(String type, Supplier<? extends Map<String, ?>> source) {
+    stats.put(type, source);
+    if (jmxEnabled) {
+      registerMBean("Stats", type, new StatsMonitor(type, source));
+    }
+  }
+
+  /**
+   * @return All registered caches, ordered by name.
+   */
+  public Map<String, Cache<?, ?>> getCaches() {
+    return ImmutableSortedMap.copyOf(caches);
+  }
+
+  /**
+   * @return A snapshot of every registered source of statistics, ordered by type.
+   */
+  public Map<String, Map<String, ?>> getStats() {
+    ImmutableSortedMap.Builder<String, Map<String, ?>> snapshot = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Supplier<? extends Map<String, ?>>> entry : stats.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot.build();
+  }
+
+  private void registerMBean(String type, String name, Object mbean) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName =
+          new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      server.registerMBean(mbean, objectName);
+    } catch (JMException e) {
+      if (LOG.isLoggable(Level.WARNING)) {
+        LOG.log(Level.WARNING, "Unable to export " + type + ' ' + name + " over JMX", e);
+      }
+    }
+  }
+}
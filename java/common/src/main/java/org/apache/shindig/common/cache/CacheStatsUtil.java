@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * Helpers for reporting to caches that may or may not be instrumented.
+ */
+public final class CacheStatsUtil {
+  private CacheStatsUtil() {}
+
+  /**
+   * Reports the time taken to load a missing value, if the cache keeps statistics.
+   *
+   * @param cache The cache that missed.
+   * @param startNanos The value of {@link System#nanoTime()} when the load started.
+   */
+  public static void recordLoad(Cache<?, ?> cache, long startNanos) {
+    if (cache instanceof InstrumentedCache<?, ?>) {
+      ((InstrumentedCache<?, ?>) cache).recordLoad(System.nanoTime() - startNanos);
+    }
+  }
+
+  /**
+   * @return The statistics of the cache, or null if the cache doesn't keep any.
+   */
+  public static CacheStats getStats(Cache<?, ?> cache) {
+    if (cache instanceof InstrumentedCache<?, ?>) {
+      return ((InstrumentedCache<?, ?>) cache).getStats();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Preconditions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A lock-striped LRU cache.
+ *
+ * Keys are spread over a fixed number of segments, each of which is an access-ordered map guarded
+ * by its own lock. Threads touching different segments never contend, so cache hits do not
+ * serialize on a single monitor the way they do with {@link LruCache}.
+ *
+ * Eviction is least-recently-used within a segment, which approximates global LRU order. The
+ * total number of entries never exceeds the configured capacity.
+ */
+public class ConcurrentLruCache<K, V> implements InstrumentedCache<K, V> {
+  public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  final int capacity;
+  private final Segment<K, V>[] segments;
+  private final StatsCounter stats = new StatsCounter();
+
+  public ConcurrentLruCache(int capacity) {
+    this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  @SuppressWarnings("unchecked")
+  public ConcurrentLruCache(int capacity, int concurrencyLevel) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    Preconditions.checkArgument(concurrencyLevel > 0, "concurrencyLevel must be positive");
+    this.capacity = capacity;
+
+    // Never create a segment that can't hold at least one entry.
+    int count = Math.min(capacity, concurrencyLevel);
+    segments = new Segment[count];
+    for (int i = 0; i < count; ++i) {
+      int segmentCapacity = capacity / count + (i < capacity % count ? 1 : 0);
+      segments[i] = new Segment<K, V>(segmentCapacity, stats);
+    }
+  }
+
+  private Segment<K, V> segmentFor(Object key) {
+    // Supplemental hash, as used by java.util.HashMap, to defend against poor hashCode()s.
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return segments[(h & 0x7fffffff) % segments.length];
+  }
+
+  public V getElement(K key) {
+    Segment<K, V> segment = segmentFor(key);
+    V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    stats.recordLookup(value);
+    return value;
+  }
+
+  public void addElement(K key, V value) {
+    Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+    stats.recordPut();
+  }
+
+  public V removeElement(K key) {
+    Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.remove(key);
+    }
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public long getSize() {
+    long size = 0;
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public CacheStats getStats() {
+    return stats.snapshot();
+  }
+
+  public void recordLoad(long loadTimeNanos) {
+    stats.recordLoad(loadTimeNanos);
+  }
+
+  /**
+   * A single stripe of the cache. All access must hold the segment's monitor.
+   */
+  private static class Segment<K, V> extends LinkedHashMap<K, V> {
+    private final int capacity;
+    private final StatsCounter stats;
+
+    Segment(int capacity, StatsCounter stats) {
+      super(capacity, 0.75f, true);
+      this.capacity = capacity;
+      this.stats = stats;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() > capacity) {
+        stats.recordEviction();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A rough estimator of the retained size of common cache values.
+ *
+ * {@link Weighable} values report their own size. Strings, byte arrays, DOM trees, collections
+ * and maps are estimated structurally. Anything else is assigned a fixed weight.
+ */
+public class DefaultWeigher implements Weigher {
+  /** Approximate header plus reference overhead of a small object. */
+  static final long OBJECT_OVERHEAD = 16;
+
+  /** Approximate cost of a DOM node exclusive of its text. */
+  static final long NODE_OVERHEAD = 64;
+
+  /** Weight given to values of a type we can't estimate. */
+  static final long UNKNOWN_WEIGHT = 1024;
+
+  public long weigh(Object key, Object value) {
+    return weighObject(key) + weighObject(value);
+  }
+
+  protected long weighObject(Object obj) {
+    if (obj == null) {
+      return 0;
+    }
+    if (obj instanceof Weighable) {
+      return ((Weighable) obj).getWeight();
+    }
+    if (obj instanceof CharSequence) {
+      return weighString((CharSequence) obj);
+    }
+    if (obj instanceof byte[]) {
+      return OBJECT_OVERHEAD + ((byte[]) obj).length;
+    }
+    if (obj instanceof Node) {
+      return weighNode((Node) obj);
+    }
+    if (obj instanceof Collection<?>) {
+      long weight = OBJECT_OVERHEAD;
+      for (Object item : (Collection<?>) obj) {
+        weight += OBJECT_OVERHEAD + weighObject(item);
+      }
+      return weight;
+    }
+    if (obj instanceof Map<?, ?>) {
+      long weight = OBJECT_OVERHEAD;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+        weight += 2 * OBJECT_OVERHEAD + weighObject(entry.getKey()) + weighObject(entry.getValue());
+      }
+      return weight;
+    }
+    if (obj instanceof Number || obj instanceof Boolean) {
+      return OBJECT_OVERHEAD;
+    }
+    return UNKNOWN_WEIGHT;
+  }
+
+  public static long weighString(CharSequence str) {
+    return str == null ? 0 : weighChars(str.length());
+  }
+
+  /**
+   * @return The estimated weight of a string of the given length, for values that will only
+   *     build the string later.
+   */
+  public static long weighChars(long length) {
+    return 2 * OBJECT_OVERHEAD + 2L * length;
+  }
+
+  private long weighNode(Node root) {
+    long weight = 0;
+    // Walk iteratively; parsed documents can be deep enough to make recursion risky.
+    Node node = root;
+    while (node != null) {
+      weight += NODE_OVERHEAD + weighString(node.getNodeName()) + weighString(node.getNodeValue());
+      NamedNodeMap attributes = node.getAttributes();
+      if (attributes != null) {
+        for (int i = 0; i < attributes.getLength(); ++i) {
+          Node attr = attributes.item(i);
+          weight += NODE_OVERHEAD + weighString(attr.getNodeName())
+              + weighString(attr.getNodeValue());
+        }
+      }
+
+      if (node.getFirstChild() != null) {
+        node = node.getFirstChild();
+      } else {
+        while (node != root && node.getNextSibling() == null) {
+          node = node.getParentNode();
+        }
+        node = node == root ? null : node.getNextSibling();
+      }
+    }
+    return weight;
+  }
+}
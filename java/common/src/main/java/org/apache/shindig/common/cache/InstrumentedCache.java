@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * A cache that keeps statistics about its use.
+ *
+ * Hits, misses, puts and evictions are counted by the cache itself. Since caches don't load
+ * values, the time spent producing a value after a miss must be reported by the caller through
+ * {@link #recordLoad(long)}; {@link CacheStatsUtil#recordLoad} does this for any cache.
+ */
+public interface InstrumentedCache<K, V> extends Cache<K, V> {
+  /**
+   * @return A snapshot of the statistics collected since the cache was created.
+   */
+  CacheStats getStats();
+
+  /**
+   * Records the time taken to produce a value that was not found in the cache.
+   *
+   * @param loadTimeNanos The load time, in nanoseconds.
+   */
+  void recordLoad(long loadTimeNanos);
+}
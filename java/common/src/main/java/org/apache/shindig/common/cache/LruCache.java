@@ -24,8 +24,9 @@ import java.util.Map;
 /**
  * A basic LRU cache. Prefer using EhCache for most purposes to this class.
  */
-public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
+public class LruCache<K, V> extends LinkedHashMap<K, V> implements InstrumentedCache<K, V> {
   final int capacity;
+  private final StatsCounter stats = new StatsCounter();
 
   public LruCache(int capacity) {
     super(capacity, 0.75f, true);
@@ -33,10 +34,13 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
   }
 
   public synchronized V getElement(K key) {
-    return super.get(key);
+    V value = super.get(key);
+    stats.recordLookup(value);
+    return value;
   }
 
   public synchronized void addElement(K key, V value) {
+    stats.recordPut();
     super.put(key, value);
   }
 
@@ -52,8 +56,20 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
     return size();
   }
 
+  public CacheStats getStats() {
+    return stats.snapshot();
+  }
+
+  public void recordLoad(long loadTimeNanos) {
+    stats.recordLoad(loadTimeNanos);
+  }
+
   @Override
   protected synchronized boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-    return size() > capacity;
+    if (size() > capacity) {
+      stats.recordEviction();
+      return true;
+    }
+    return false;
   }
 }
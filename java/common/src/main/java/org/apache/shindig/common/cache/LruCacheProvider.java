@@ -51,6 +51,7 @@ public class LruCacheProvider implements CacheProvider {
   private final int defaultCapacity;
   private final Injector injector;
   private final Map<String, Cache<?, ?>> caches = new MapMaker().makeMap();
+  private CacheStatsRegistry statsRegistry;
 
   @Inject
   public LruCacheProvider(Injector injector,
@@ -63,6 +64,11 @@ public class LruCacheProvider implements CacheProvider {
     this(null, capacity);
   }
 
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    this.statsRegistry = statsRegistry;
+  }
+
   private int getCapacity(String name) {
     if (injector != null && name != null) {
       String key = "shindig.cache.lru." + name + ".capacity";
@@ -89,6 +95,17 @@ public class LruCacheProvider implements CacheProvider {
     return defaultCapacity;
   }
 
+  /**
+   * Creates the cache instance backing a newly requested named cache. Subclasses may override to
+   * supply a different LRU implementation while reusing the capacity configuration.
+   *
+   * @param capacity The configured capacity for the cache.
+   * @return A new, empty cache.
+   */
+  protected <K, V> Cache<K, V> newCache(int capacity) {
+    return new LruCache<K, V>(capacity);
+  }
+
   @SuppressWarnings("unchecked")
   public <K, V> Cache<K, V> createCache(String name) {
     int capacity = getCapacity(Preconditions.checkNotNull(name));
@@ -97,8 +114,11 @@ public class LruCacheProvider implements CacheProvider {
       if (LOG.isLoggable(Level.FINE)) {
         LOG.fine("Creating cache named " + name);
       }
-      cache = new LruCache<K, V>(capacity);
+      cache = newCache(capacity);
       caches.put(name, cache);
+      if (statsRegistry != null) {
+        statsRegistry.register(name, cache);
+      }
     }
     return cache;
   }
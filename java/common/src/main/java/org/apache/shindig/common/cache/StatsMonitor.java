@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes a keyed source of statistics as a read-only dynamic MBean. Each getter of each value is
+ * an attribute named <key>.<property>, so the attributes follow the keys the source reports.
+ */
+class StatsMonitor implements DynamicMBean {
+  private final String type;
+  private final Supplier<? extends Map<String, ?>> source;
+
+  StatsMonitor(String type, Supplier<? extends Map<String, ?>> source) {
+    this.type = type;
+    this.source = source;
+  }
+
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = Lists.newArrayList();
+    for (Map.Entry<String, ?> entry : source.get().entrySet()) {
+      for (Map.Entry<String, Method> getter : getGetters(entry.getValue()).entrySet()) {
+        Class<?> returnType = getter.getValue().getReturnType();
+        String attributeType = isOpenType(returnType) ? returnType.getName() : String.class.getName();
+        attributes.add(new MBeanAttributeInfo(entry.getKey() + '.' + getter.getKey(),
+            attributeType, getter.getKey() + " of " + entry.getKey(), true, false, false));
+      }
+    }
+    return new MBeanInfo(getClass().getName(), "Statistics for " + type,
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+  }
+
+  public Object getAttribute(String attribute)
+      throws AttributeNotFoundException, MBeanException, ReflectionException {
+    int dot = attribute.lastIndexOf('.');
+    Object value = dot == -1 ? null : source.get().get(attribute.substring(0, dot));
+    Method getter = value == null ? null : getGetters(value).get(attribute.substring(dot + 1));
+    if (getter == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    try {
+      Object result = getter.invoke(value);
+      return result == null || isOpenType(result.getClass()) ? result : result.toString();
+    } catch (IllegalAccessException e) {
+      throw new ReflectionException(e);
+    } catch (InvocationTargetException e) {
+      throw new ReflectionException(e);
+    }
+  }
+
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      try {
+        list.add(new Attribute(attribute, getAttribute(attribute)));
+      } catch (JMException e) {
+        // Keys come and go; the spec has missing attributes left out of the list.
+      }
+    }
+    return list;
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException(attribute.getName() + " is read only");
+  }
+
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName));
+  }
+
+  private static Map<String, Method> getGetters(Object value) {
+    Map<String, Method> getters = Maps.newTreeMap();
+    for (Method method : value.getClass().getMethods()) {
+      String name = method.getName();
+      if (method.getParameterTypes().length > 0 || Modifier.isStatic(method.getModifiers())
+          || method.getDeclaringClass() == Object.class) {
+        continue;
+      }
+      if (name.startsWith("get") && name.length() > 3) {
+        getters.put(Character.toLowerCase(name.charAt(3)) + name.substring(4), method);
+      } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+        getters.put(Character.toLowerCase(name.charAt(2)) + name.substring(3), method);
+      }
+    }
+    return getters;
+  }
+
+  private static boolean isOpenType(Class<?> clazz) {
+    return clazz.isPrimitive() || Number.class.isAssignableFrom(clazz)
+        || clazz == Boolean.class || clazz == String.class;
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LRU cache bounded by the estimated size of its entries instead of their number.
+ *
+ * Each entry is sized once, on insertion, by a {@link Weigher}. Like {@link ConcurrentLruCache},
+ * keys are striped over independently locked segments, each kept in access order. The byte budget
+ * applies to the cache as a whole: an insertion that exceeds it evicts the least recently used
+ * entries of its own segment first and then those of the others in turn, so recency is only
+ * approximate across segments. An entry heavier than the whole budget is never cached.
+ */
+public class WeightedLruCache<K, V> implements InstrumentedCache<K, V> {
+  final long maxWeight;
+  private final Weigher weigher;
+  private final Segment<K, V>[] segments;
+  private final AtomicLong weight = new AtomicLong();
+  private final StatsCounter stats = new StatsCounter();
+
+  public WeightedLruCache(long maxWeight, Weigher weigher) {
+    this(maxWeight, weigher, ConcurrentLruCache.DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  @SuppressWarnings("unchecked")
+  public WeightedLruCache(long maxWeight, Weigher weigher, int concurrencyLevel) {
+    Preconditions.checkArgument(maxWeight > 0, "maxWeight must be positive");
+    Preconditions.checkArgument(concurrencyLevel > 0, "concurrencyLevel must be positive");
+    this.maxWeight = maxWeight;
+    this.weigher = Preconditions.checkNotNull(weigher);
+
+    segments = new Segment[concurrencyLevel];
+    for (int i = 0; i < concurrencyLevel; ++i) {
+      segments[i] = new Segment<K, V>(weight, stats);
+    }
+  }
+
+  private Segment<K, V> segmentFor(Object key) {
+    int h = key.hashCode();
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    return segments[(h & 0x7fffffff) % segments.length];
+  }
+
+  public V getElement(K key) {
+    Segment<K, V> segment = segmentFor(key);
+    V value;
+    synchronized (segment) {
+      Weighted<V> entry = segment.get(key);
+      value = entry == null ? null : entry.value;
+    }
+    stats.recordLookup(value);
+    return value;
+  }
+
+  public void addElement(K key, V value) {
+    // Weigh outside the lock; estimating a large value may walk a whole DOM.
+    long entryWeight = Math.max(0, weigher.weigh(key, value));
+    Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      if (entryWeight > maxWeight) {
+        // Too big to ever fit; make sure we don't keep serving an older value for the key.
+        segment.remove(key);
+      } else {
+        segment.put(key, new Weighted<V>(value, entryWeight));
+      }
+    }
+    stats.recordPut();
+    evictToFit(segment);
+  }
+
+  /**
+   * Evicts entries until the cache is back within its budget, starting with the least recently
+   * used entries of the segment just written, but sparing its newest entry.
+   */
+  private void evictToFit(Segment<K, V> written) {
+    synchronized (written) {
+      while (weight.get() > maxWeight && written.entries.size() > 1) {
+        written.evictEldest();
+      }
+    }
+    // Segments are locked one at a time, so concurrent writers can't deadlock.
+    boolean evicted = true;
+    while (weight.get() > maxWeight && evicted) {
+      evicted = false;
+      for (Segment<K, V> segment : segments) {
+        if (weight.get() <= maxWeight) {
+          return;
+        }
+        if (segment != written) {
+          synchronized (segment) {
+            evicted |= segment.evictEldest();
+          }
+        }
+      }
+    }
+  }
+
+  public V removeElement(K key) {
+    Segment<K, V> segment = segmentFor(key);
+    synchronized (segment) {
+      Weighted<V> entry = segment.remove(key);
+      return entry == null ? null : entry.value;
+    }
+  }
+
+  /**
+   * @return -1, since this cache is bounded by weight rather than by number of entries. See
+   *     {@link #getMaxWeight()}.
+   */
+  public long getCapacity() {
+    return -1;
+  }
+
+  public long getSize() {
+    long size = 0;
+    for (Segment<K, V> segment : segments) {
+      synchronized (segment) {
+        size += segment.entries.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return The byte budget of the cache.
+   */
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   * @return The estimated number of bytes currently held by the cache.
+   */
+  public long getWeight() {
+    return weight.get();
+  }
+
+  public CacheStats getStats() {
+    return stats.snapshot();
+  }
+
+  public void recordLoad(long loadTimeNanos) {
+    stats.recordLoad(loadTimeNanos);
+  }
+
+  private static class Weighted<V> {
+    final V value;
+    final long weight;
+
+    Weighted(V value, long weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * A single stripe of the cache. All access must hold the segment's monitor.
+   */
+  private static class Segment<K, V> {
+    private final LinkedHashMap<K, Weighted<V>> entries =
+        new LinkedHashMap<K, Weighted<V>>(16, 0.75f, true);
+    // The weight of the whole cache, shared by all segments.
+    private final AtomicLong weight;
+    private final StatsCounter stats;
+
+    Segment(AtomicLong weight, StatsCounter stats) {
+      this.weight = weight;
+      this.stats = stats;
+    }
+
+    Weighted<V> get(K key) {
+      return entries.get(key);
+    }
+
+    void put(K key, Weighted<V> entry) {
+      Weighted<V> old = entries.put(key, entry);
+      weight.addAndGet(entry.weight - (old == null ? 0 : old.weight));
+    }
+
+    Weighted<V> remove(K key) {
+      Weighted<V> old = entries.remove(key);
+      if (old != null) {
+        weight.addAndGet(-old.weight);
+      }
+      return old;
+    }
+
+    /**
+     * @return false if the segment was empty.
+     */
+    boolean evictEldest() {
+      Iterator<Map.Entry<K, Weighted<V>>> eldest = entries.entrySet().iterator();
+      if (!eldest.hasNext()) {
+        return false;
+      }
+      weight.addAndGet(-eldest.next().getValue().weight);
+      eldest.remove();
+      stats.recordEviction();
+      return true;
+    }
+  }
+}
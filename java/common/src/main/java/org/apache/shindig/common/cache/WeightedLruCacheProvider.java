@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import com.google.inject.ConfigurationException;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache provider that produces memory-budgeted {@link WeightedLruCache}s.
+ *
+ * Byte budgets can be configured per cache by specifying property names in the form
+ *
+ * shindig.cache.weighted.<cache name>.max-bytes=foo
+ *
+ * The default value is expected under shindig.cache.weighted.default.max-bytes
+ *
+ * Bind {@link CacheProvider} to this class to use it in place of the default provider.
+ */
+public class WeightedLruCacheProvider implements CacheProvider {
+  private static final Logger LOG = Logger.getLogger(WeightedLruCacheProvider.class.getName());
+  private final long defaultMaxBytes;
+  private final Weigher weigher;
+  private final Injector injector;
+  private final ConcurrentMap<String, WeightedLruCache<?, ?>> caches = new MapMaker().makeMap();
+  private CacheStatsRegistry statsRegistry;
+
+  @Inject
+  public WeightedLruCacheProvider(Injector injector, Weigher weigher,
+      @Named("shindig.cache.weighted.default.max-bytes") long defaultMaxBytes) {
+    this.injector = injector;
+    this.weigher = weigher;
+    this.defaultMaxBytes = defaultMaxBytes;
+  }
+
+  public WeightedLruCacheProvider(long maxBytes) {
+    this(null, new DefaultWeigher(), maxBytes);
+  }
+
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    this.statsRegistry = statsRegistry;
+  }
+
+  private long getMaxBytes(String name) {
+    if (injector != null) {
+      String key = "shindig.cache.weighted." + name + ".max-bytes";
+      Key<String> guiceKey = Key.get(String.class, Names.named(key));
+      try {
+        if (injector.getBinding(guiceKey) != null) {
+          String value = injector.getInstance(guiceKey);
+          try {
+            return Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            if (LOG.isLoggable(Level.WARNING)) {
+              LOG.warning("Invalid " + key + " value: " + value + ", using default");
+            }
+          }
+        }
+      } catch (ConfigurationException e) {
+        return defaultMaxBytes;
+      }
+    }
+    return defaultMaxBytes;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <K, V> Cache<K, V> createCache(String name) {
+    Preconditions.checkNotNull(name);
+    WeightedLruCache<K, V> cache = (WeightedLruCache<K, V>) caches.get(name);
+    if (cache == null) {
+      long maxBytes = getMaxBytes(name);
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Creating cache named " + name + " with a budget of " + maxBytes + " bytes");
+      }
+      if (caches.putIfAbsent(name, new WeightedLruCache<K, V>(maxBytes, weigher)) == null
+          && statsRegistry != null) {
+        statsRegistry.register(name, caches.get(name));
+      }
+      cache = (WeightedLruCache<K, V>) caches.get(name);
+    }
+    return cache;
+  }
+
+  /**
+   * @return The estimated number of bytes held by each named cache created by this provider.
+   */
+  public Map<String, Long> getUsage() {
+    ImmutableMap.Builder<String, Long> usage = ImmutableMap.builder();
+    for (Map.Entry<String, WeightedLruCache<?, ?>> entry : caches.entrySet()) {
+      usage.put(entry.getKey(), entry.getValue().getWeight());
+    }
+    return usage.build();
+  }
+}
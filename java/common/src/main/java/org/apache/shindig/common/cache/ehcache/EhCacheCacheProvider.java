@@ -21,6 +21,7 @@ package org.apache.shindig.common.cache.ehcache;
 import com.google.common.base.Preconditions;
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsRegistry;
 import org.apache.shindig.common.servlet.GuiceServletContextListener;
 import org.apache.shindig.common.util.ResourceLoader;
 
@@ -48,6 +49,7 @@ public class EhCacheCacheProvider implements CacheProvider, GuiceServletContextL
   private static final Logger LOG = Logger.getLogger(EhCacheCacheProvider.class.getName());
   private final CacheManager cacheManager;
   private final ConcurrentMap<String, Cache<?, ?>> caches = new MapMaker().makeMap();
+  private CacheStatsRegistry statsRegistry;
 
   @Inject
   public EhCacheCacheProvider(@Named("shindig.cache.ehcache.config") String configPath,
@@ -60,6 +62,11 @@ public class EhCacheCacheProvider implements CacheProvider, GuiceServletContextL
     cleanupHandler.register(this);
   }
 
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    this.statsRegistry = statsRegistry;
+  }
+
   /**
    * Read the cache configuration from the specified resource.
    * This function is intended to be overrideable to allow for programmatic
@@ -94,7 +101,10 @@ public class EhCacheCacheProvider implements CacheProvider, GuiceServletContextL
       if (LOG.isLoggable(Level.FINE)) {
         LOG.fine("Creating cache named " + name);
       }
-      caches.putIfAbsent(name, new EhConfiguredCache<K, V>(name, cacheManager));
+      if (caches.putIfAbsent(name, new EhConfiguredCache<K, V>(name, cacheManager)) == null
+          && statsRegistry != null) {
+        statsRegistry.register(name, caches.get(name));
+      }
     }
     return (Cache<K, V>) caches.get(Preconditions.checkNotNull(name));
   }
@@ -19,18 +19,26 @@
 package org.apache.shindig.common.cache.ehcache;
 
 import com.google.common.base.Preconditions;
-import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheStats;
+import org.apache.shindig.common.cache.InstrumentedCache;
+import org.apache.shindig.common.cache.StatsCounter;
 
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.event.RegisteredEventListeners;
 
 
 /**
- * Produces a cache configured from ehcache.
+ * Produces a cache configured from ehcache. Every instance for the same underlying cache shares
+ * one set of statistics, so evictions are counted once however many instances wrap it.
  */
-public class EhConfiguredCache<K, V> implements Cache<K, V> {
+public class EhConfiguredCache<K, V> implements InstrumentedCache<K, V> {
 
   private net.sf.ehcache.Cache cache;
+  private final StatsCounter stats;
 
   public EhConfiguredCache(String cacheName, CacheManager cacheManager) {
     synchronized (cacheManager) {
@@ -42,29 +50,54 @@ public class EhConfiguredCache<K, V> implements Cache<K, V> {
           throw new RuntimeException("Failed to create Cache with name " + cacheName);
         }
       }
+      stats = getEvictionCounter(cache).stats;
     }
   }
 
+  /**
+   * @return The listener counting evictions from cache, registered by the first instance to wrap
+   *     it. Caches preconfigured in ehcacheConfig.xml already exist, so this can't be left to the
+   *     instance that adds the cache.
+   */
+  private static EvictionCounter getEvictionCounter(Ehcache cache) {
+    RegisteredEventListeners listeners = cache.getCacheEventNotificationService();
+    for (CacheEventListener listener : listeners.getCacheEventListeners()) {
+      if (listener instanceof EvictionCounter) {
+        return (EvictionCounter) listener;
+      }
+    }
+    EvictionCounter counter = new EvictionCounter();
+    listeners.registerListener(counter);
+    return counter;
+  }
+
   public void addElement(K key, V value) {
+    stats.recordPut();
     cache.put(new Element(key, value));
   }
 
   @SuppressWarnings("unchecked")
   public V getElement(K key) {
-    Element cacheElement = cache.get(key);
-    if (cacheElement != null) {
-      return (V) cacheElement.getObjectValue();
-    }
-    return null;
+    V value = (V) getValue(key);
+    stats.recordLookup(value);
+    return value;
   }
 
   @SuppressWarnings("unchecked")
   public V removeElement(K key) {
-    Object value = getElement(key);
+    Object value = getValue(key);
     cache.remove(key);
     return (V) value;
   }
 
+  private Object getValue(K key) {
+    Element cacheElement = cache.get(key);
+    if (cacheElement != null) {
+      return cacheElement.getObjectValue();
+    }
+    return null;
+  }
+
   public long getCapacity() {
     return cache.getCacheConfiguration().getMaxElementsInMemory() +
         cache.getCacheConfiguration().getMaxElementsOnDisk();
@@ -79,4 +112,26 @@ public class EhConfiguredCache<K, V> implements Cache<K, V> {
   public long getSize() {
     return cache.getMemoryStoreSize() + cache.getDiskStoreSize();
   }
+
+  public CacheStats getStats() {
+    return stats.snapshot();
+  }
+
+  public void recordLoad(long loadTimeNanos) {
+    stats.recordLoad(loadTimeNanos);
+  }
+
+  static class EvictionCounter extends CacheEventListenerAdapter {
+    private final StatsCounter stats = new StatsCounter();
+
+    @Override
+    public void notifyElementEvicted(Ehcache ehcache, Element element) {
+      stats.recordEviction();
+    }
+
+    @Override
+    public void notifyElementExpired(Ehcache ehcache, Element element) {
+      stats.recordEviction();
+    }
+  }
 }
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.servlet;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+
+import org.apache.shindig.common.JsonSerializer;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheMonitor;
+import org.apache.shindig.common.cache.CacheStatsRegistry;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the size and statistics of every registered cache as a JSON object keyed by cache
+ * name, under "caches", followed by every other registered source of statistics under its type.
+ * Intended for operators sizing caches; map it to an access-controlled path.
+ */
+public class CacheStatsServlet extends InjectedServlet {
+  private static final long serialVersionUID = -3370232839541958318L;
+
+  private CacheStatsRegistry statsRegistry;
+
+  @Inject
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    checkInitialized();
+    this.statsRegistry = statsRegistry;
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    Map<String, CacheMonitor> monitors = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Cache<?, ?>> entry : statsRegistry.getCaches().entrySet()) {
+      monitors.put(entry.getKey(), new CacheMonitor(entry.getKey(), entry.getValue()));
+    }
+    Map<String, Object> report = Maps.newLinkedHashMap();
+    report.put("caches", monitors);
+    report.putAll(statsRegistry.getStats());
+
+    HttpUtil.setNoCache(resp);
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    resp.getWriter().write(JsonSerializer.serialize(report));
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import com.google.common.base.Strings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utilities for gzip content encoding.
+ */
+public final class GzipUtil {
+  private GzipUtil() {}
+
+  /**
+   * Bodies shorter than this rarely shrink enough to be worth compressing.
+   */
+  public static final int MIN_COMPRESSIBLE_LENGTH = 256;
+
+  /**
+   * @param data The bytes to compress.
+   * @return The gzip encoding of data.
+   */
+  public static byte[] gzip(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 32);
+    try {
+      GZIPOutputStream gzip = new GZIPOutputStream(out);
+      gzip.write(data);
+      gzip.close();
+    } catch (IOException e) {
+      // Can't happen when writing to memory.
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @param data The bytes to compress.
+   * @return The gzip encoding of data, or null if data is too short or compressing it doesn't
+   *     make it any smaller.
+   */
+  public static byte[] gzipIfSmaller(byte[] data) {
+    if (data == null || data.length < MIN_COMPRESSIBLE_LENGTH) {
+      return null;
+    }
+    byte[] compressed = gzip(data);
+    return compressed.length < data.length ? compressed : null;
+  }
+
+  /**
+   * @param acceptEncoding The value of an Accept-Encoding request header.
+   * @return True if the header allows a gzip encoded response. An explicit gzip or x-gzip entry
+   *     takes precedence over a "*" entry, whatever their order.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (Strings.isNullOrEmpty(acceptEncoding)) {
+      return false;
+    }
+    Boolean wildcard = null;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if ("gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+        return !isZeroQuality(parts);
+      }
+      if ("*".equals(name) && wildcard == null) {
+        wildcard = !isZeroQuality(parts);
+      }
+    }
+    return wildcard != null && wildcard;
+  }
+
+  private static boolean isZeroQuality(String[] parts) {
+    for (int i = 1; i < parts.length; ++i) {
+      String param = parts[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          return Double.parseDouble(param.substring(2).trim()) <= 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+}
@@ -267,38 +267,44 @@ public class JsonRpcServlet extends ApiServlet {
         responseItem.getErrorCode() >= 400) {
       result.put("error", getErrorJson(responseItem));
     } else {
-      Object response = responseItem.getResponse();
-      if (response instanceof DataCollection) {
-        addResult(result, ((DataCollection) response).getEntry());
-      } else if (response instanceof RestfulCollection) {
-        Map<String, Object> map = Maps.newHashMap();
-        RestfulCollection<?> collection = (RestfulCollection<?>) response;
-        // Return sublist info
-        if (collection.getTotalResults() != collection.getEntry().size()) {
-          map.put("startIndex", collection.getStartIndex());
-          map.put("itemsPerPage", collection.getItemsPerPage());
-        }
-        // always put in totalResults
-        map.put("totalResults", collection.getTotalResults());
+      addResult(result, getResultJson(responseItem.getResponse()));
 
-        if (!collection.isFiltered())
-          map.put("filtered", collection.isFiltered());
+      // TODO: put "code" for != 200?
+    }
+    return result;
+  }
 
-        if (!collection.isUpdatedSince())
-          map.put("updatedSince", collection.isUpdatedSince());
+  /**
+   * @return The JSON-RPC result for a successful response. Collections are unwrapped into their
+   *     entries, or into a list with paging information.
+   */
+  public static Object getResultJson(Object response) {
+    if (response instanceof DataCollection) {
+      return ((DataCollection) response).getEntry();
+    } else if (response instanceof RestfulCollection) {
+      Map<String, Object> map = Maps.newHashMap();
+      RestfulCollection<?> collection = (RestfulCollection<?>) response;
+      // Return sublist info
+      if (collection.getTotalResults() != collection.getEntry().size()) {
+        map.put("startIndex", collection.getStartIndex());
+        map.put("itemsPerPage", collection.getItemsPerPage());
+      }
+      // always put in totalResults
+      map.put("totalResults", collection.getTotalResults());
 
-        if (!collection.isSorted())
-          map.put("sorted", collection.isUpdatedSince());
+      if (!collection.isFiltered())
+        map.put("filtered", collection.isFiltered());
 
-        map.put("list", collection.getEntry());
-        addResult(result, map);
-      } else {
-        addResult(result, response);
-      }
+      if (!collection.isUpdatedSince())
+        map.put("updatedSince", collection.isUpdatedSince());
 
-      // TODO: put "code" for != 200?
+      if (!collection.isSorted())
+        map.put("sorted", collection.isUpdatedSince());
+
+      map.put("list", collection.getEntry());
+      return map;
     }
-    return result;
+    return response;
   }
 
   /** Map of old-style error titles */
@@ -314,7 +320,10 @@ public class JsonRpcServlet extends ApiServlet {
   // TODO(doll): Refactor the responseItem so that the fields on it line up with this format.
   // Then we can use the general converter to output the response to the client and we won't
   // be harcoded to json.
-  private Object getErrorJson(ResponseItem responseItem) {
+  /**
+   * @return The JSON-RPC error for a failed response.
+   */
+  public static Object getErrorJson(ResponseItem responseItem) {
     Map<String, Object> error = new HashMap<String, Object>(2, 1);
     error.put("code", responseItem.getErrorCode());
 
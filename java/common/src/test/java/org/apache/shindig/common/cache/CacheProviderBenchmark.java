@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Multi-threaded benchmark comparing cache providers under a read-mostly workload.
+ */
+public class CacheProviderBenchmark {
+  private static final int CAPACITY = 10000;
+  private static final int KEY_SPACE = CAPACITY * 2;
+  private static final int WRITE_PERCENT = 10;
+
+  private final int numThreads;
+  private final int opsPerThread;
+  private boolean warmup;
+
+  private CacheProviderBenchmark(int numThreads, int opsPerThread) throws Exception {
+    this.numThreads = numThreads;
+    this.opsPerThread = opsPerThread;
+
+    warmup = true;
+    runAll();
+
+    //Sleep to let JIT kick in
+    Thread.sleep(5000L);
+    warmup = false;
+    runAll();
+  }
+
+  private void runAll() throws Exception {
+    timeProvider("LruCacheProvider", new LruCacheProvider(CAPACITY));
+    timeProvider("ConcurrentLruCacheProvider", new ConcurrentLruCacheProvider(CAPACITY));
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private void timeProvider(String name, CacheProvider provider) throws Exception {
+    final Cache<Integer, Integer> cache = provider.createCache("benchmark");
+    for (int i = 0; i < CAPACITY; ++i) {
+      cache.addElement(i, i);
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(numThreads);
+    final long[] hits = new long[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int thread = t;
+      new Thread(new Runnable() {
+        public void run() {
+          Random random = new Random(thread);
+          try {
+            start.await();
+            for (int i = 0; i < opsPerThread; ++i) {
+              Integer key = random.nextInt(KEY_SPACE);
+              if (random.nextInt(100) < WRITE_PERCENT) {
+                cache.addElement(key, key);
+              } else if (cache.getElement(key) != null) {
+                hits[thread]++;
+              }
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long millis = (System.nanoTime() - begin) / 1000000L;
+
+    long totalHits = 0;
+    for (long h : hits) {
+      totalHits += h;
+    }
+    long totalOps = (long) numThreads * opsPerThread;
+    output(name + " [" + numThreads + " threads, " + millis + " ms total: " +
+        (totalOps * 1000L / Math.max(millis, 1)) + " ops/s, hits=" + totalHits + ']');
+  }
+
+  public static void main(String[] args) {
+    // Run as a standalone program to compare cache provider throughput under contention.
+    if (args.length != 2) {
+      System.err.println("Args: <num-threads> <ops-per-thread>");
+      System.exit(1);
+    }
+
+    try {
+      new CacheProviderBenchmark(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
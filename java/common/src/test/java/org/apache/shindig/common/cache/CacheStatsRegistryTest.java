@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class CacheStatsRegistryTest {
+  private final CacheStatsRegistry registry = new CacheStatsRegistry();
+
+  @Test
+  public void providerRegistersCaches() {
+    LruCacheProvider provider = new LruCacheProvider(10);
+    provider.setStatsRegistry(registry);
+    Cache<String, String> foo = provider.createCache("foo");
+    provider.createCache("bar");
+
+    assertEquals(2, registry.getCaches().size());
+    assertSame(foo, registry.getCaches().get("foo"));
+  }
+
+  @Test
+  public void monitorReportsStats() {
+    LruCache<String, String> cache = new LruCache<String, String>(10);
+    cache.addElement("a", "a");
+    cache.getElement("a");
+    cache.getElement("b");
+
+    CacheMonitor monitor = new CacheMonitor("test", cache);
+    assertEquals(1, monitor.getSize());
+    assertEquals(10, monitor.getCapacity());
+    assertEquals(1, monitor.getHitCount());
+    assertEquals(1, monitor.getMissCount());
+    assertEquals(0.5, monitor.getHitRate(), 0.001);
+    assertEquals(-1, monitor.getWeight());
+  }
+
+  @Test
+  public void uninstrumentedCacheReportsNoStats() {
+    CacheMonitor monitor = new CacheMonitor("null", new NullCache<String, String>());
+    assertEquals(-1, monitor.getHitCount());
+    assertEquals(-1.0, monitor.getHitRate(), 0.001);
+  }
+
+  @Test
+  public void exportedOverJmx() throws Exception {
+    registry.setJmxEnabled(true);
+    registry.register("jmxTest", new LruCache<String, String>(5));
+    registry.register("jmxTest", new LruCache<String, String>(7));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.shindig:type=Cache,name=\"jmxTest\"");
+    assertTrue(server.isRegistered(name));
+    assertEquals(7L, server.getAttribute(name, "Capacity"));
+    server.unregisterMBean(name);
+  }
+
+  @Test
+  public void exportsRegisteredStats() throws Exception {
+    final Map<String, Map<String, ?>> sources = Maps.newHashMap();
+    sources.put("a", ImmutableMap.of("http://example.org", new TestStats(3, true)));
+    registry.setJmxEnabled(true);
+    registry.registerStats("jmxStats", new Supplier<Map<String, ?>>() {
+      public Map<String, ?> get() {
+        return sources.get("a");
+      }
+    });
+
+    assertSame(sources.get("a"), registry.getStats().get("jmxStats"));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("org.apache.shindig:type=Stats,name=\"jmxStats\"");
+    assertEquals(2, server.getMBeanInfo(name).getAttributes().length);
+    assertEquals(3L, server.getAttribute(name, "http://example.org.count"));
+    assertEquals(true, server.getAttribute(name, "http://example.org.open"));
+
+    sources.put("a", ImmutableMap.of("http://example.org", new TestStats(4, false)));
+    assertEquals(4L, server.getAttribute(name, "http://example.org.count"));
+    server.unregisterMBean(name);
+  }
+
+  @Test(expected = AttributeNotFoundException.class)
+  public void unknownStatsKeyNotFound() throws Exception {
+    StatsMonitor monitor = new StatsMonitor("test", new Supplier<Map<String, ?>>() {
+      public Map<String, ?> get() {
+        return ImmutableMap.of("a", new TestStats(1, false));
+      }
+    });
+    monitor.getAttribute("b.count");
+  }
+
+  public static class TestStats {
+    private final long count;
+    private final boolean open;
+
+    TestStats(long count, boolean open) {
+      this.count = count;
+      this.open = open;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public boolean isOpen() {
+      return open;
+    }
+  }
+}
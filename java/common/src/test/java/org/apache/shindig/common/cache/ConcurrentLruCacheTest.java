@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ConcurrentLruCacheTest {
+  private static final int TEST_CAPACITY = 2;
+
+  private final ConcurrentLruCache<String, String> cache
+      = new ConcurrentLruCache<String, String>(TEST_CAPACITY, 1);
+
+  @Test
+  public void normalCapacityOk() {
+    for (int i = 0; i < TEST_CAPACITY; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    assertEquals(TEST_CAPACITY, cache.getSize());
+    assertEquals(TEST_CAPACITY, cache.getCapacity());
+    assertEquals("0", cache.getElement("0"));
+  }
+
+  @Test
+  public void exceededCapacityRemoved() {
+    for (int i = 0; i < TEST_CAPACITY + 1; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    assertEquals(TEST_CAPACITY, cache.getSize());
+    assertNull(cache.getElement("0"));
+  }
+
+  @Test
+  public void accessRefreshesEntry() {
+    cache.addElement("0", "0");
+    cache.addElement("1", "1");
+    cache.getElement("0");
+    cache.addElement("2", "2");
+    assertEquals("0", cache.getElement("0"));
+    assertNull(cache.getElement("1"));
+  }
+
+  @Test
+  public void removeElement() {
+    cache.addElement("0", "0");
+    assertEquals("0", cache.removeElement("0"));
+    assertNull(cache.getElement("0"));
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void stripedCapacityNeverExceeded() {
+    ConcurrentLruCache<Integer, Integer> striped = new ConcurrentLruCache<Integer, Integer>(100);
+    for (int i = 0; i < 1000; ++i) {
+      striped.addElement(i, i);
+    }
+    assertEquals(100, striped.getCapacity());
+    assertTrue(striped.getSize() <= 100);
+  }
+
+  @Test
+  public void capacitySmallerThanConcurrencyLevel() {
+    ConcurrentLruCache<Integer, Integer> small = new ConcurrentLruCache<Integer, Integer>(3, 16);
+    for (int i = 0; i < 10; ++i) {
+      small.addElement(i, i);
+    }
+    assertTrue(small.getSize() <= 3);
+  }
+
+  @Test
+  public void statsRecorded() {
+    for (int i = 0; i < TEST_CAPACITY + 1; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    cache.getElement("0");
+    cache.getElement("2");
+
+    CacheStats stats = cache.getStats();
+    assertEquals(1, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(TEST_CAPACITY + 1, stats.getPutCount());
+    assertEquals(1, stats.getEvictionCount());
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+public class DefaultWeigherTest {
+  private final DefaultWeigher weigher = new DefaultWeigher();
+
+  @Test
+  public void weighableReportsOwnWeight() {
+    Weighable value = new Weighable() {
+      public long getWeight() {
+        return 12345;
+      }
+    };
+    assertEquals(12345, weigher.weigh(null, value));
+  }
+
+  @Test
+  public void bytesAndStrings() {
+    assertTrue(weigher.weigh(null, new byte[5000]) >= 5000);
+    assertTrue(weigher.weigh("key", "") < weigher.weigh("key", "a longer string value"));
+  }
+
+  @Test
+  public void collectionsSumMembers() {
+    assertTrue(weigher.weigh(null, ImmutableList.of("a", "b")) >
+        weigher.weigh(null, ImmutableList.of("a")));
+  }
+
+  @Test
+  public void domWeightGrowsWithContent() throws Exception {
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    Element html = doc.createElement("html");
+    doc.appendChild(html);
+    long empty = weigher.weigh(null, doc);
+
+    Element body = doc.createElement("body");
+    body.setAttribute("class", "foo");
+    body.appendChild(doc.createTextNode("some text content"));
+    html.appendChild(body);
+    assertTrue(weigher.weigh(null, doc) > empty);
+  }
+}
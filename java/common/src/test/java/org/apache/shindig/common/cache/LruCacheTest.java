@@ -50,4 +50,22 @@ public class LruCacheTest {
     assertEquals(TEST_CAPACITY, cache.getCapacity());
     assertNull(cache.getElement("0"));
   }
+
+  @Test
+  public void statsRecorded() {
+    for (int i = 0; i < TEST_CAPACITY + 1; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    cache.getElement("0");
+    cache.getElement("2");
+    cache.recordLoad(1000);
+
+    CacheStats stats = cache.getStats();
+    assertEquals(1, stats.getHitCount());
+    assertEquals(1, stats.getMissCount());
+    assertEquals(TEST_CAPACITY + 1, stats.getPutCount());
+    assertEquals(1, stats.getEvictionCount());
+    assertEquals(0.5, stats.getHitRate(), 0.001);
+    assertEquals(1000.0, stats.getAverageLoadPenalty(), 0.001);
+  }
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class WeightedLruCacheTest {
+  /** Weighs string values by their length, ignoring keys. */
+  private static final Weigher LENGTH_WEIGHER = new Weigher() {
+    public long weigh(Object key, Object value) {
+      return ((String) value).length();
+    }
+  };
+
+  private final WeightedLruCache<String, String> cache
+      = new WeightedLruCache<String, String>(10, LENGTH_WEIGHER, 1);
+
+  @Test
+  public void withinBudgetOk() {
+    cache.addElement("a", "12345");
+    cache.addElement("b", "12345");
+    assertEquals(2, cache.getSize());
+    assertEquals(10, cache.getWeight());
+    assertEquals(10, cache.getMaxWeight());
+    assertEquals(-1, cache.getCapacity());
+    assertEquals("12345", cache.getElement("a"));
+  }
+
+  @Test
+  public void exceededBudgetEvictsEldest() {
+    cache.addElement("a", "12345");
+    cache.addElement("b", "12345");
+    cache.getElement("a");
+    cache.addElement("c", "1");
+    assertNull(cache.getElement("b"));
+    assertEquals("12345", cache.getElement("a"));
+    assertEquals("1", cache.getElement("c"));
+    assertEquals(6, cache.getWeight());
+  }
+
+  @Test
+  public void heavyEntryEvictsSeveral() {
+    cache.addElement("a", "123");
+    cache.addElement("b", "123");
+    cache.addElement("c", "123");
+    cache.addElement("d", "123456789");
+    assertEquals(1, cache.getSize());
+    assertEquals(9, cache.getWeight());
+  }
+
+  @Test
+  public void oversizedEntryNotCached() {
+    cache.addElement("a", "12345");
+    cache.addElement("a", "12345678901");
+    assertNull(cache.getElement("a"));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void budgetSharedAcrossSegments() {
+    WeightedLruCache<String, String> striped
+        = new WeightedLruCache<String, String>(10, LENGTH_WEIGHER, 16);
+    striped.addElement("a", "1234567890");
+    assertEquals("1234567890", striped.getElement("a"));
+
+    for (int i = 0; i < 100; ++i) {
+      striped.addElement("key" + i, "123");
+      assertTrue(striped.getWeight() <= 10);
+    }
+    assertEquals("123", striped.getElement("key99"));
+    assertEquals(3, striped.getSize());
+  }
+
+  @Test
+  public void replaceAdjustsWeight() {
+    cache.addElement("a", "12345");
+    cache.addElement("a", "12");
+    assertEquals(2, cache.getWeight());
+    assertEquals("12", cache.removeElement("a"));
+    assertEquals(0, cache.getWeight());
+  }
+
+  @Test
+  public void providerReportsUsage() {
+    WeightedLruCacheProvider provider = new WeightedLruCacheProvider(100000);
+    Cache<String, String> named = provider.createCache("foo");
+    named.addElement("a", "hello");
+    assertTrue(provider.getUsage().get("foo") > 0);
+    assertEquals(named, provider.createCache("foo"));
+  }
+}
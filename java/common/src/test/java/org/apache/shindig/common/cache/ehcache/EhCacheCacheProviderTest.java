@@ -22,6 +22,9 @@ import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
 
 import org.apache.shindig.common.servlet.GuiceServletContextListener;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.event.CacheEventListener;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -53,4 +56,25 @@ public class EhCacheCacheProviderTest {
     Assert.assertEquals(cache.getCapacity(), cache2.getCapacity());
     Assert.assertEquals(cache.getSize(), cache2.getSize());
   }
+
+  @Test
+  public void instancesOfOneCacheShareEvictionCounter() throws Exception {
+    CacheManager cacheManager = CacheManager.create();
+    EhConfiguredCache<String, String> first =
+        new EhConfiguredCache<String, String>("sharedStats", cacheManager);
+    EhConfiguredCache<String, String> second =
+        new EhConfiguredCache<String, String>("sharedStats", cacheManager);
+
+    int counters = 0;
+    for (CacheEventListener listener : cacheManager.getCache("sharedStats")
+        .getCacheEventNotificationService().getCacheEventListeners()) {
+      if (listener instanceof EhConfiguredCache.EvictionCounter) {
+        counters++;
+      }
+    }
+    Assert.assertEquals(1, counters);
+
+    first.getElement("missing");
+    Assert.assertEquals(1, second.getStats().getMissCount());
+  }
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for GzipUtil.
+ */
+public class GzipUtilTest {
+
+  @Test
+  public void testGzipRoundTrip() throws Exception {
+    byte[] data = CharsetUtil.getUtf8Bytes(repeat("hello gzip ", 100));
+    byte[] compressed = GzipUtil.gzip(data);
+    assertTrue(compressed.length < data.length);
+    byte[] inflated = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    assertEquals(CharsetUtil.newUtf8String(data), CharsetUtil.newUtf8String(inflated));
+  }
+
+  @Test
+  public void testGzipIfSmallerSkipsShortData() {
+    assertNull(GzipUtil.gzipIfSmaller(CharsetUtil.getUtf8Bytes("short")));
+    assertNull(GzipUtil.gzipIfSmaller(null));
+  }
+
+  @Test
+  public void testGzipIfSmallerSkipsIncompressibleData() {
+    byte[] data = new byte[1024];
+    new Random(1).nextBytes(data);
+    assertNull(GzipUtil.gzipIfSmaller(data));
+  }
+
+  @Test
+  public void testGzipIfSmaller() {
+    assertTrue(GzipUtil.gzipIfSmaller(CharsetUtil.getUtf8Bytes(repeat("a", 1000))).length < 1000);
+  }
+
+  @Test
+  public void testAcceptsGzip() {
+    assertTrue(GzipUtil.acceptsGzip("gzip"));
+    assertTrue(GzipUtil.acceptsGzip("deflate, GZIP"));
+    assertTrue(GzipUtil.acceptsGzip("gzip;q=0.5, identity"));
+    assertTrue(GzipUtil.acceptsGzip("x-gzip"));
+    assertTrue(GzipUtil.acceptsGzip("*"));
+    assertTrue(GzipUtil.acceptsGzip("*;q=0, gzip"));
+  }
+
+  @Test
+  public void testDoesNotAcceptGzip() {
+    assertFalse(GzipUtil.acceptsGzip(null));
+    assertFalse(GzipUtil.acceptsGzip(""));
+    assertFalse(GzipUtil.acceptsGzip("deflate, identity"));
+    assertFalse(GzipUtil.acceptsGzip("gzip;q=0"));
+    assertFalse(GzipUtil.acceptsGzip("gzip; q=0.0, deflate"));
+    assertFalse(GzipUtil.acceptsGzip("*, gzip;q=0"));
+  }
+
+  private static String repeat(String s, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+}
@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets;
 
 import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheStatsUtil;
 import org.apache.shindig.common.cache.SoftExpiringCache;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.uri.Uri;
@@ -46,6 +47,7 @@ public abstract class AbstractSpecFactory<T> {
   private final ExecutorService executor;
   private final RequestPipeline pipeline;
   final SoftExpiringCache<Uri, Object> cache;
+  private final Cache<Uri, Object> backingCache;
   private final long refresh;
 
   /**
@@ -61,6 +63,7 @@ public abstract class AbstractSpecFactory<T> {
     this.executor = executor;
     this.pipeline = pipeline;
     this.cache = new SoftExpiringCache<Uri, Object>(cache);
+    this.backingCache = cache;
     this.refresh = refresh;
   }
 
@@ -89,6 +92,7 @@ public abstract class AbstractSpecFactory<T> {
 
     if (obj == null) {
       boolean bypassCache = false;
+      long fetchStart = System.nanoTime();
       try {
         obj = fetchFromNetwork(query);
       } catch (SpecRetrievalFailedException e) {
@@ -104,6 +108,7 @@ public abstract class AbstractSpecFactory<T> {
         obj = e;
       }
       if (!bypassCache) {
+        CacheStatsUtil.recordLoad(backingCache, fetchStart);
         cache.addElement(query.specUri, obj, refresh);
       }
     }
@@ -69,6 +69,8 @@ public class DefaultGuiceModule extends AbstractModule {
 
     bind(ExecutorService.class).to(ShindigExecutorService.class);
     bind(Executor.class).annotatedWith(Names.named("shindig.concat.executor")).to(ShindigExecutorService.class);
+    bind(Executor.class).annotatedWith(Names.named("shindig.http.revalidation.executor"))
+        .to(RevalidationExecutorService.class);
 
     bind(Authority.class).toProvider(BasicAuthorityProvider.class);
 
@@ -164,4 +166,25 @@ public class DefaultGuiceModule extends AbstractModule {
     }
   }
 
+  /**
+   * A bounded executor used to refresh stale cached responses in the background. Work beyond
+   * the configured thread count and queue size is rejected rather than queued without limit.
+   */
+  @Singleton
+  public static class RevalidationExecutorService extends ThreadPoolExecutor implements GuiceServletContextListener.CleanupCapable {
+    @Inject
+    public RevalidationExecutorService(GuiceServletContextListener.CleanupHandler cleanupHandler,
+        @Named("shindig.http.revalidation.threads") int threads,
+        @Named("shindig.http.revalidation.queue-size") int queueSize) {
+      super(threads, threads, 60L, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(queueSize),
+          DAEMON_THREAD_FACTORY);
+      cleanupHandler.register(this);
+    }
+
+    public void cleanup() {
+      this.shutdown();
+    }
+  }
+
 }
@@ -20,12 +20,15 @@ package org.apache.shindig.gadgets;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
+import org.apache.shindig.common.cache.SoftExpiringCache;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.LocaleSpec;
 import org.apache.shindig.gadgets.spec.MessageBundle;
 
+import com.google.common.base.Objects;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
@@ -41,6 +44,11 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     implements MessageBundleFactory {
   private static final Locale ALL_ALL = new Locale("all", "ALL");
   public static final String CACHE_NAME = "messageBundles";
+  public static final String MERGED_CACHE_NAME = "mergedMessageBundles";
+
+  final SoftExpiringCache<MergedKey, MessageBundle> mergedCache;
+  private final Cache<MergedKey, MessageBundle> mergedBackingCache;
+  private final long refresh;
 
   @Inject
   public DefaultMessageBundleFactory(ExecutorService executor,
@@ -48,6 +56,9 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
                                      CacheProvider cacheProvider,
                                      @Named("shindig.cache.xml.refreshInterval") long refresh) {
     super(MessageBundle.class, executor, pipeline, makeCache(cacheProvider), refresh);
+    this.mergedBackingCache = cacheProvider.createCache(MERGED_CACHE_NAME);
+    this.mergedCache = new SoftExpiringCache<MergedKey, MessageBundle>(mergedBackingCache);
+    this.refresh = refresh;
   }
 
   private static Cache<Uri, Object> makeCache(CacheProvider cacheProvider) {
@@ -59,8 +70,34 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     return new MessageBundle(((LocaleQuery) query).locale, content);
   }
 
+  /**
+   * Returns the bundle for locale with all of its fallbacks merged in. Merged bundles are cached
+   * per spec, locale, container and view, including those for locales the spec has no messages
+   * for, so that a render normally costs a single cache lookup. Once a merged bundle is older than
+   * the refresh interval it is merged again from the individual bundles, which are refreshed in
+   * the background as usual.
+   */
   public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache, String container, String view)
       throws GadgetException {
+    if (ignoreCache) {
+      return mergeBundle(spec, locale, ignoreCache, container, view);
+    }
+
+    MergedKey key = new MergedKey(spec, locale, container, view);
+    SoftExpiringCache.CachedObject<MessageBundle> cached = mergedCache.getElement(key);
+    if (cached != null && !cached.isExpired) {
+      return cached.obj;
+    }
+
+    long mergeStart = System.nanoTime();
+    MessageBundle bundle = mergeBundle(spec, locale, ignoreCache, container, view);
+    CacheStatsUtil.recordLoad(mergedBackingCache, mergeStart);
+    mergedCache.addElement(key, bundle, refresh);
+    return bundle;
+  }
+
+  private MessageBundle mergeBundle(GadgetSpec spec, Locale locale, boolean ignoreCache,
+      String container, String view) throws GadgetException {
     MessageBundle exact = getBundleFor(spec, locale, ignoreCache, container, view);
 
     // We don't want to fetch the same bundle multiple times, so we verify that the exact match
@@ -117,4 +154,45 @@ public class DefaultMessageBundleFactory extends AbstractSpecFactory<MessageBund
     // We just use this to hold the locale used in the original query so that parsing can see it.
     LocaleSpec locale;
   }
+
+  /**
+   * Identifies a merged bundle. Specs are compared by URL and checksum, so bundles merged for a
+   * spec whose content has changed are never reused, while identical copies share them.
+   */
+  private static final class MergedKey {
+    private final Uri specUrl;
+    private final String specChecksum;
+    private final Locale locale;
+    private final String container;
+    private final String view;
+    private final int hashCode;
+
+    MergedKey(GadgetSpec spec, Locale locale, String container, String view) {
+      this.specUrl = spec.getUrl();
+      this.specChecksum = spec.getChecksum();
+      this.locale = locale;
+      this.container = container;
+      this.view = view;
+      this.hashCode = Objects.hashCode(specUrl, specChecksum, locale, container, view);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof MergedKey)) {
+        return false;
+      }
+      MergedKey other = (MergedKey) obj;
+      return Objects.equal(specUrl, other.specUrl) &&
+          Objects.equal(specChecksum, other.specChecksum) && locale.equals(other.locale) &&
+          Objects.equal(container, other.container) && Objects.equal(view, other.view);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
 }
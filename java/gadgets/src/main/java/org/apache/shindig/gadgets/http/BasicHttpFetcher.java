@@ -20,6 +20,7 @@ package org.apache.shindig.gadgets.http;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -70,13 +71,17 @@ import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.ByteArrayBuffer;
+import org.apache.shindig.common.cache.CacheStatsRegistry;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.GadgetException;
 
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.ProxySelector;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
@@ -100,9 +105,14 @@ import javax.servlet.http.HttpServletResponse;
  * <p/>
  * 1. This class potentially allows access to resources behind an organization's firewall.
  * 2. This class does not enforce any limits on what is fetched from remote hosts.
+ * <p/>
+ * Streaming fetches bound the memory used for large bodies, enforcing the maximum object size
+ * as the body is read. A streamed fetch holds its origin's concurrency permit, and its
+ * connection, until the sink has consumed the whole body, so slow clients count against the
+ * origin's limit for as long as they take to read.
  */
 @Singleton
-public class BasicHttpFetcher implements HttpFetcher {
+public class BasicHttpFetcher implements StreamingHttpFetcher {
   private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
   private static final int DEFAULT_READ_TIMEOUT_MS = 5000;
   private static final int DEFAULT_MAX_OBJECT_SIZE = 0;  // no limit
@@ -113,6 +123,9 @@ public class BasicHttpFetcher implements HttpFetcher {
   // mutable fields must be volatile
   private volatile int maxObjSize;
   private volatile long slowResponseWarning;
+
+  // Per-origin concurrency limits and circuit breakers, all disabled until configured.
+  private final OriginBulkhead originBulkhead = new OriginBulkhead(0, 0, 0);
  
   //class name for logging purpose
   private static final String classname = BasicHttpFetcher.class.getName();
@@ -282,6 +295,11 @@ public class BasicHttpFetcher implements HttpFetcher {
 
   public HttpResponse fetch(org.apache.shindig.gadgets.http.HttpRequest request)
       throws GadgetException {
+    return fetch(request, -1, null);
+  }
+
+  public HttpResponse fetch(org.apache.shindig.gadgets.http.HttpRequest request,
+      int maxBufferedBytes, @Nullable ResponseSink sink) throws GadgetException {
     HttpUriRequest httpMethod = null;
     Preconditions.checkNotNull(request);
     final String methodType = request.getMethod();
@@ -330,6 +348,17 @@ public class BasicHttpFetcher implements HttpFetcher {
     // Get the http host to connect to.
     HttpHost host = new HttpHost(hostparts[0], port, uri.getScheme());
 
+    OriginBulkhead.Origin origin = originBulkhead.enter(host.toURI());
+    if (origin == null) {
+      // Fail fast rather than queue behind a host that is overloaded or not responding.
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.logp(Level.FINE, classname, "fetch", "Rejected fetch of " + uri + " by origin bulkhead");
+      }
+      return HttpResponse.timeout();
+    }
+    boolean timedOut = false;
+    boolean streaming = false;
+
     try {
       if ("POST".equals(methodType) || "PUT".equals(methodType)) {
         HttpEntityEnclosingRequestBase enclosingMethod = ("POST".equals(methodType))
@@ -369,13 +398,28 @@ public class BasicHttpFetcher implements HttpFetcher {
         slowResponseWarning(request, started, now);
       }
 
+      if (sink != null && isStreamable(response, maxBufferedBytes)) {
+        streaming = true;
+        return streamResponse(response, maxBufferedBytes, sink);
+      }
       return makeResponse(response);
 
     } catch (Exception e) {
       long now = System.currentTimeMillis();
 
+      if (streaming && TIMEOUT_EXCEPTIONS.contains(e.getClass())) {
+        timedOut = true;
+      }
+      if (streaming && e instanceof IOException) {
+        // Part of the response may already have been sent, so it's too late for an error response.
+        throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR,
+            "Failed while streaming " + request.getUri(), e,
+            HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+
       // Find timeout exceptions, respond accordingly
       if (TIMEOUT_EXCEPTIONS.contains(e.getClass())) {
+        timedOut = true;
         if (LOG.isLoggable(Level.INFO)) {
           LOG.logp(Level.INFO, classname, "fetch", MessageKeys.TIMEOUT_EXCEPTION, new Object[] {request.getUri(),classname,e.getMessage(),now-started});
         }        
@@ -389,6 +433,7 @@ public class BasicHttpFetcher implements HttpFetcher {
       throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e,
           HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     } finally {
+      originBulkhead.exit(origin, timedOut);
       // cleanup any outstanding resources..
       if (httpMethod != null) try {
         httpMethod.abort();
@@ -422,6 +467,71 @@ public class BasicHttpFetcher implements HttpFetcher {
     this.maxObjSize = maxObjectSizeBytes;
   }
 
+  /**
+   * Change the maximum number of pooled connections to any one host.
+   *
+   * @param maxConnectionsPerHost connection limit per host
+   */
+  @Inject(optional = true)
+  public void setMaxConnectionsPerHost(@Named("shindig.http.client.max-connections-per-host") int maxConnectionsPerHost) {
+    Preconditions.checkArgument(maxConnectionsPerHost > 0, "max-connections-per-host must be greater than 0");
+    ClientConnectionManager cm = FETCHER.getConnectionManager();
+    if (cm instanceof ThreadSafeClientConnManager) {
+      ((ThreadSafeClientConnManager) cm).setDefaultMaxPerRoute(maxConnectionsPerHost);
+    }
+  }
+
+  /**
+   * Change the maximum number of concurrent fetches from any one origin. Fetches beyond the limit
+   * fail immediately with a timeout response.
+   *
+   * @param maxConcurrentPerOrigin fetch limit per origin, or 0 for no limit
+   */
+  @Inject(optional = true)
+  public void setMaxConcurrentPerOrigin(@Named("shindig.http.client.max-concurrent-per-origin") int maxConcurrentPerOrigin) {
+    originBulkhead.setMaxConcurrentPerOrigin(maxConcurrentPerOrigin);
+  }
+
+  /**
+   * Change the number of consecutive timeouts from an origin after which fetches from it fail
+   * fast until the circuit breaker closes again.
+   *
+   * @param failureThreshold number of consecutive timeouts, or 0 to disable the circuit breaker
+   */
+  @Inject(optional = true)
+  public void setCircuitBreakerFailureThreshold(@Named("shindig.http.client.circuit-breaker.failure-threshold") int failureThreshold) {
+    originBulkhead.setFailureThreshold(failureThreshold);
+  }
+
+  /**
+   * Change how long an open circuit rejects fetches before letting a probe through.
+   *
+   * @param openMs time in milliseconds
+   */
+  @Inject(optional = true)
+  public void setCircuitBreakerOpenMs(@Named("shindig.http.client.circuit-breaker.open-ms") long openMs) {
+    originBulkhead.setOpenMs(openMs);
+  }
+
+  /**
+   * @return bulkhead and circuit breaker metrics for each origin fetched from, keyed by origin
+   */
+  public Map<String, OriginBulkhead.Stats> getOriginStats() {
+    return originBulkhead.getStats();
+  }
+
+  /**
+   * Reports the metrics of {@link #getOriginStats} through the registry as "origins".
+   */
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    statsRegistry.registerStats("origins", new Supplier<Map<String, OriginBulkhead.Stats>>() {
+      public Map<String, OriginBulkhead.Stats> get() {
+        return getOriginStats();
+      }
+    });
+  }
+
   /**
    * Change the global threshold for warning about slow responses
    *
@@ -463,6 +573,25 @@ public class BasicHttpFetcher implements HttpFetcher {
    * @throws IOException when problems occur processing the body content
    */
   private HttpResponse makeResponse(org.apache.http.HttpResponse response) throws IOException {
+    HttpResponseBuilder builder = makeResponseBuilder(response);
+
+    HttpEntity entity = response.getEntity();
+
+    if (maxObjSize > 0 && entity != null && entity.getContentLength() > maxObjSize) {
+      return HttpResponse.badrequest("Exceeded maximum number of bytes - " + maxObjSize);
+    }
+
+    byte[] responseBytes = (entity == null) ? null : toByteArraySafe(entity);
+
+    return builder
+        .setResponse(responseBytes)
+        .create();
+  }
+
+  /**
+   * @return A builder holding the status and headers of the given response.
+   */
+  private static HttpResponseBuilder makeResponseBuilder(org.apache.http.HttpResponse response) {
     HttpResponseBuilder builder = new HttpResponseBuilder();
 
     if (response.getAllHeaders() != null) {
@@ -472,18 +601,101 @@ public class BasicHttpFetcher implements HttpFetcher {
       }
     }
 
+    return builder.setHttpStatusCode(response.getStatusLine().getStatusCode());
+  }
+
+  private static boolean isStreamable(org.apache.http.HttpResponse response, int maxBufferedBytes) {
     HttpEntity entity = response.getEntity();
+    // Only successful responses are worth streaming, errors are always buffered.
+    return entity != null &&
+        response.getStatusLine().getStatusCode() == HttpServletResponse.SC_OK &&
+        (entity.getContentLength() < 0 || entity.getContentLength() > maxBufferedBytes);
+  }
 
-    if (maxObjSize > 0 && entity != null && entity.getContentLength() > maxObjSize) {
+  /**
+   * Passes the body of a response to the sink, unless it turns out to be small enough to buffer.
+   *
+   * @return The buffered response, or null if the response was streamed.
+   */
+  private HttpResponse streamResponse(org.apache.http.HttpResponse response, int maxBufferedBytes,
+      ResponseSink sink) throws IOException {
+    HttpEntity entity = response.getEntity();
+    if (maxObjSize > 0 && entity.getContentLength() > maxObjSize) {
       return HttpResponse.badrequest("Exceeded maximum number of bytes - " + maxObjSize);
     }
 
-    byte[] responseBytes = (entity == null) ? null : toByteArraySafe(entity);
+    InputStream body = entity.getContent();
+    if (maxObjSize > 0) {
+      body = new MaxSizeInputStream(body, maxObjSize);
+    }
 
-    return builder
-        .setHttpStatusCode(response.getStatusLine().getStatusCode())
-        .setResponse(responseBytes)
-        .create();
+    if (entity.getContentLength() < 0) {
+      // Unknown length: read just past the buffering limit to find out which side it falls on.
+      byte[] head = new byte[maxBufferedBytes + 1];
+      int length = 0;
+      int read;
+      try {
+        while (length < head.length &&
+            (read = body.read(head, length, head.length - length)) != -1) {
+          length += read;
+        }
+      } catch (ObjectTooLargeException e) {
+        // Nothing has been sent yet, so fail as a buffered fetch would.
+        return HttpResponse.badrequest(e.getMessage());
+      }
+      if (length <= maxBufferedBytes) {
+        return makeResponseBuilder(response).setResponse(ArrayUtils.subarray(head, 0, length))
+            .create();
+      }
+      body = new SequenceInputStream(new ByteArrayInputStream(head), body);
+    }
+
+    sink.stream(makeResponseBuilder(response).create(), body);
+    return null;
+  }
+
+  /**
+   * Fails reads once more than a fixed number of bytes have been read.
+   */
+  private static class MaxSizeInputStream extends FilterInputStream {
+    private final long maxBytes;
+    private long count;
+
+    MaxSizeInputStream(InputStream in, long maxBytes) {
+      super(in);
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    private void count(int read) throws IOException {
+      count += read;
+      if (count > maxBytes) {
+        throw new ObjectTooLargeException("Exceeded maximum number of bytes - " + maxBytes);
+      }
+    }
+  }
+
+  private static class ObjectTooLargeException extends IOException {
+    ObjectTooLargeException(String message) {
+      super(message);
+    }
   }
 
   /**
@@ -45,6 +45,9 @@ public class DefaultHttpCache extends AbstractHttpCache {
 
   @Override
   protected void addResponseImpl(String key, HttpResponse response) {
+    // Responses are kept as they are, so compress once here and cache hits can be served gzipped
+    // without further work. The gzipped body is held, and weighed, alongside the identity body.
+    response.precompress();
     cache.addElement(key, response);
   }
 
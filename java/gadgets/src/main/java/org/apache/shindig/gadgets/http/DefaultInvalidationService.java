@@ -28,6 +28,7 @@ import com.google.inject.Inject;
 
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Default implementation of the invalidation service. No security checks are applied when
@@ -55,6 +56,11 @@ public class DefaultInvalidationService implements InvalidationService {
   protected final Cache<String,Long> invalidationEntries;
   private final AtomicLong marker;
 
+  // Bounds the memory used to track resource invalidations; resources share generations beyond
+  // this.
+  private static final int RESOURCE_GENERATIONS = 1024;
+  private final AtomicLongArray resourceGenerations = new AtomicLongArray(RESOURCE_GENERATIONS);
+
   private static final String TOKEN_PREFIX = "INV_TOK:";
 
   @Inject
@@ -73,6 +79,7 @@ public class DefaultInvalidationService implements InvalidationService {
     // TODO Add checks on content
     for (Uri uri : uris) {
       httpCache.removeResponse(new HttpRequest(uri));
+      resourceGenerations.incrementAndGet(getGenerationIndex(uri));
     }
   }
 
@@ -112,6 +119,14 @@ public class DefaultInvalidationService implements InvalidationService {
     return response;
   }
 
+  public long getResourceGeneration(Uri uri) {
+    return resourceGenerations.get(getGenerationIndex(uri));
+  }
+
+  private static int getGenerationIndex(Uri uri) {
+    return (uri.hashCode() & Integer.MAX_VALUE) % RESOURCE_GENERATIONS;
+  }
+
   /**
    * Get the invalidation entry key for a user in the scope of a given
    * application
@@ -17,15 +17,22 @@
  */
 package org.apache.shindig.gadgets.http;
 
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
 import org.apache.shindig.common.Nullable;
+import org.apache.shindig.common.cache.CacheStatsRegistry;
 import org.apache.shindig.common.servlet.HttpUtil;
+import org.apache.shindig.common.util.CharsetUtil;
 import org.apache.shindig.common.util.DateUtil;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.common.util.Utf8UrlCoder;
+import org.apache.shindig.gadgets.AuthType;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.oauth.OAuthRequest;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
@@ -35,13 +42,42 @@ import org.apache.shindig.gadgets.rewrite.RewritingException;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * A standard implementation of a request pipeline. Performs request caching and
  * signing on top of standard HTTP requests.
+ *
+ * Concurrent cache misses for identical cacheable requests are coalesced: the first caller
+ * fetches, rewrites and caches the response while the others wait and then serve it from the
+ * cache. Responses that were not cached, or that are private or set cookies, are not shared.
+ * Coalescing is reported through the {@link CacheStatsRegistry} as "requestPipeline".
+ *
+ * When stale-while-revalidate is enabled, an unsigned cached response that expired no longer ago
+ * than the configured window, and has not been invalidated, is served immediately while a single
+ * refresh runs in the background.
+ *
+ * Expired entries that carry origin validators are refreshed with a conditional request. A 304
+ * Not Modified extends the lifetime of the cached, already rewritten, entry without fetching or
+ * rewriting the body again.
+ *
+ * Large responses can be streamed to the caller when the injected fetcher is a
+ * {@link StreamingHttpFetcher}. Such requests are coalesced like any other, and a response is
+ * only streamed once its headers show the body is larger than the caller will buffer. Streamed
+ * responses are not rewritten or cached, so callers waiting on one fetch for themselves.
  */
 @Singleton
-public class DefaultRequestPipeline implements RequestPipeline {
+public class DefaultRequestPipeline implements StreamingRequestPipeline {
+  private static final Logger LOG = Logger.getLogger(DefaultRequestPipeline.class.getName());
+
   private final HttpFetcher httpFetcher;
   private final HttpCache httpCache;
   private final Provider<OAuthRequest> oauthRequestProvider;
@@ -56,6 +92,20 @@ public class DefaultRequestPipeline implements RequestPipeline {
   @Inject(optional = true) @Named("shindig.http.date-drift-limit-ms")
   private static long responseDateDriftLimit = DEFAULT_DRIFT_LIMIT_MS;
 
+  // Headers of a 304 Not Modified that replace those of the cached response it validates.
+  private static final String[] REFRESHED_HEADERS = { "Date", "Expires", "Cache-Control" };
+
+  // Fetches currently in progress, keyed by cache key and the request's headers, body and TTL.
+  private final ConcurrentMap<String, CountDownLatch> inFlightFetches =
+      new MapMaker().makeMap();
+  private final AtomicLong coalescedFetchCount = new AtomicLong();
+  private boolean coalesceRequests = true;
+
+  // Keys of stale entries currently being refreshed in the background.
+  private final ConcurrentMap<String, Boolean> pendingRevalidations = new MapMaker().makeMap();
+  private long staleWhileRevalidateMs = 0;
+  private Executor revalidationExecutor;
+
   @Inject
   public DefaultRequestPipeline(HttpFetcher httpFetcher,
                                 HttpCache httpCache,
@@ -72,7 +122,62 @@ public class DefaultRequestPipeline implements RequestPipeline {
     this.metadataHelper = metadataHelper;
   }
 
+  @Inject(optional = true)
+  public void setCoalesceRequests(
+      @Named("shindig.http.request-coalescing.enabled") boolean coalesceRequests) {
+    this.coalesceRequests = coalesceRequests;
+  }
+
+  @Inject(optional = true)
+  public void setStaleWhileRevalidateMs(
+      @Named("shindig.http.stale-while-revalidate-ms") long staleWhileRevalidateMs) {
+    this.staleWhileRevalidateMs = staleWhileRevalidateMs;
+  }
+
+  @Inject(optional = true)
+  public void setRevalidationExecutor(
+      @Named("shindig.http.revalidation.executor") Executor revalidationExecutor) {
+    this.revalidationExecutor = revalidationExecutor;
+  }
+
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    statsRegistry.registerStats("requestPipeline", new Supplier<Map<String, Stats>>() {
+      public Map<String, Stats> get() {
+        return ImmutableMap.of("coalescing", getStats());
+      }
+    });
+  }
+
+  /**
+   * @return The number of requests that were served by waiting on an identical fetch already in
+   *     progress rather than going to the origin themselves.
+   */
+  public long getCoalescedFetchCount() {
+    return coalescedFetchCount.get();
+  }
+
+  /**
+   * @return A snapshot of the request coalescing metrics.
+   */
+  public Stats getStats() {
+    return new Stats(coalescedFetchCount.get(), inFlightFetches.size());
+  }
+
   public HttpResponse execute(HttpRequest request) throws GadgetException {
+    return executeInternal(request, null, -1);
+  }
+
+  public HttpResponse execute(HttpRequest request, int maxBufferedBytes,
+      StreamingHttpFetcher.ResponseSink sink) throws GadgetException {
+    return executeInternal(request, sink, maxBufferedBytes);
+  }
+
+  /**
+   * @param sink If not null, receives response bodies larger than maxBufferedBytes.
+   */
+  private HttpResponse executeInternal(HttpRequest request,
+      StreamingHttpFetcher.ResponseSink sink, int maxBufferedBytes) throws GadgetException {
     normalizeProtocol(request);
     HttpResponse invalidatedResponse = null;
     HttpResponse staleResponse = null;
@@ -98,10 +203,175 @@ public class DefaultRequestPipeline implements RequestPipeline {
       }
     }
 
-    HttpResponse fetchedResponse = null;
+    if (staleResponse != null && canServeWhileRevalidating(request, staleResponse)) {
+      String key = httpCache.createKey(request);
+      if (key != null && scheduleRevalidation(key, request, staleResponse)) {
+        return staleResponse;
+      }
+    }
+
+    if (coalesceRequests && isCacheable(request)) {
+      String key = httpCache.createKey(request);
+      if (key != null) {
+        return coalescedFetch(getCoalescingKey(key, request), request, invalidatedResponse,
+            staleResponse, sink, maxBufferedBytes);
+      }
+    }
+    return fetchAndCache(request, invalidatedResponse, staleResponse, sink, maxBufferedBytes);
+  }
+
+  private static boolean isCacheable(HttpRequest request) {
+    // Only requests that could be served from the cache are safe to share.
+    return !request.getIgnoreCache() && ("GET".equals(request.getMethod()) ||
+        "GET".equals(request.getHeader("X-Method-Override")));
+  }
+
+  private boolean canServeWhileRevalidating(HttpRequest request, HttpResponse staleResponse) {
+    // Signed and OAuth responses are only served stale by the fallback on origin errors, and
+    // entries invalidated since they were cached are never served without refetching.
+    if (staleWhileRevalidateMs <= 0 || revalidationExecutor == null || !isCacheable(request) ||
+        request.getAuthType() != AuthType.NONE ||
+        !invalidationService.isValid(request, staleResponse)) {
+      return false;
+    }
+    long expiration = staleResponse.getCacheExpiration();
+    return expiration != -1 &&
+        HttpUtil.getTimeSource().currentTimeMillis() - expiration <= staleWhileRevalidateMs;
+  }
+
+  /**
+   * Schedules a background refresh of a stale entry, unless one is already pending.
+   *
+   * @return false if the refresh could not be scheduled, in which case the caller should fetch
+   *     synchronously.
+   */
+  private boolean scheduleRevalidation(final String key, HttpRequest request,
+      final HttpResponse staleResponse) {
+    if (pendingRevalidations.putIfAbsent(key, Boolean.TRUE) != null) {
+      return true;
+    }
+
+    // The caller may modify its request once we return, so refresh using a copy.
+    final HttpRequest revalidationRequest = new HttpRequest(request);
+    try {
+      revalidationExecutor.execute(new Runnable() {
+        public void run() {
+          try {
+            if (coalesceRequests) {
+              coalescedFetch(getCoalescingKey(key, revalidationRequest), revalidationRequest,
+                  null, staleResponse, null, -1);
+            } else {
+              fetchAndCache(revalidationRequest, null, staleResponse, null, -1);
+            }
+          } catch (GadgetException e) {
+            LOG.log(Level.INFO, "Background revalidation of " + revalidationRequest.getUri() +
+                " failed", e);
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Background revalidation of " + revalidationRequest.getUri() +
+                " failed", e);
+          } finally {
+            pendingRevalidations.remove(key);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pendingRevalidations.remove(key);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Performs the fetch for the given key unless an identical fetch is already in progress, in
+   * which case waits for it and serves the response it cached.
+   */
+  private HttpResponse coalescedFetch(String key, HttpRequest request,
+      HttpResponse invalidatedResponse, HttpResponse staleResponse,
+      StreamingHttpFetcher.ResponseSink sink, int maxBufferedBytes) throws GadgetException {
+    CountDownLatch fetched = new CountDownLatch(1);
+    CountDownLatch inFlight = inFlightFetches.putIfAbsent(key, fetched);
+    if (inFlight == null) {
+      try {
+        return fetchAndCache(request, invalidatedResponse, staleResponse, sink, maxBufferedBytes);
+      } finally {
+        // Stop sharing before releasing the followers so later requests see the updated cache.
+        inFlightFetches.remove(key, fetched);
+        fetched.countDown();
+      }
+    }
+
+    try {
+      inFlight.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e,
+          HttpResponse.SC_INTERNAL_SERVER_ERROR);
+    }
+    HttpResponse shared = getSharedResponse(request);
+    if (shared != null) {
+      coalescedFetchCount.incrementAndGet();
+      return shared;
+    }
+    // The leader failed, streamed its response or got one that may not be shared, so fetch for
+    // ourselves.
+    return fetchAndCache(request, invalidatedResponse, staleResponse, sink, maxBufferedBytes);
+  }
+
+  /**
+   * @return The response the leader of a coalesced fetch put in the cache, or null if it didn't
+   *     cache one that is safe to hand to other callers.
+   */
+  private HttpResponse getSharedResponse(HttpRequest request) {
+    HttpResponse cached = httpCache.getResponse(request);
+    if (cached == null || cached.isStale() || cached.isStrictNoCache() ||
+        cached.getHeader("Set-Cookie") != null) {
+      return null;
+    }
+    return invalidationService.isValid(request, cached) ? cached : null;
+  }
+
+  /**
+   * Extends a cache key with the parts of the request that the cache ignores but that may change
+   * the origin's response, so that only identical fetches are coalesced.
+   */
+  private static String getCoalescingKey(String cacheKey, HttpRequest request) {
+    StringBuilder key = new StringBuilder(cacheKey)
+        .append("&ttl=").append(request.getCacheTtl());
+    // Request headers are kept sorted by name.
+    for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+      key.append("&h=").append(header.getKey()).append(':').append(header.getValue());
+    }
+    if (request.getPostBodyLength() > 0) {
+      key.append("&body=").append(HashUtil.checksum(
+          CharsetUtil.getUtf8Bytes(request.getPostBodyAsString())));
+    }
+    return key.toString();
+  }
+
+  /**
+   * @return The processed response, or null if it was passed to the sink.
+   */
+  private HttpResponse fetchAndCache(HttpRequest request, HttpResponse invalidatedResponse,
+      HttpResponse staleResponse, StreamingHttpFetcher.ResponseSink sink, int maxBufferedBytes)
+      throws GadgetException {
+    HttpRequest fetchRequest = request;
+    if (staleResponse != null && request.getAuthType() == AuthType.NONE) {
+      fetchRequest = makeConditional(request, staleResponse);
+    }
+
+    HttpResponse fetchedResponse;
     switch (request.getAuthType()) {
       case NONE:
-        fetchedResponse = httpFetcher.fetch(request);
+        if (sink != null && httpFetcher instanceof StreamingHttpFetcher) {
+          fetchedResponse =
+              ((StreamingHttpFetcher) httpFetcher).fetch(fetchRequest, maxBufferedBytes, sink);
+          if (fetchedResponse == null) {
+            // Too large to buffer, so already passed to the sink.
+            return null;
+          }
+        } else {
+          fetchedResponse = httpFetcher.fetch(fetchRequest);
+        }
         break;
       case SIGNED:
       case OAUTH:
@@ -110,7 +380,16 @@ public class DefaultRequestPipeline implements RequestPipeline {
       default:
         return HttpResponse.error();
     }
+    return processResponse(request, fetchRequest, fetchedResponse, invalidatedResponse,
+        staleResponse);
+  }
 
+  /**
+   * Applies fallbacks, rewriting and caching to a fetched response.
+   */
+  private HttpResponse processResponse(HttpRequest request, HttpRequest fetchRequest,
+      HttpResponse fetchedResponse, HttpResponse invalidatedResponse, HttpResponse staleResponse)
+      throws GadgetException {
     if (fetchedResponse.isError() && invalidatedResponse != null) {
       // Use the invalidated cached response if it is not stale. We don't update its
       // mark so it remains invalidated
@@ -123,8 +402,17 @@ public class DefaultRequestPipeline implements RequestPipeline {
       return staleResponse;
     }
 
+    if (fetchRequest != request &&
+        fetchedResponse.getHttpStatusCode() == HttpResponse.SC_NOT_MODIFIED) {
+      return cacheRevalidatedResponse(request, refreshNotModified(staleResponse, fetchedResponse));
+    }
+
     fetchedResponse = maybeFixDriftTime(fetchedResponse);
 
+    if (!fetchedResponse.isError() && !request.getIgnoreCache()) {
+      fetchedResponse = recordValidators(fetchedResponse);
+    }
+
     if (!fetchedResponse.isError() && !request.getIgnoreCache() && request.getCacheTtl() != 0) {
       try {
         fetchedResponse = responseRewriterRegistry.rewriteHttpResponse(request, fetchedResponse);
@@ -145,6 +433,82 @@ public class DefaultRequestPipeline implements RequestPipeline {
     return fetchedResponse;
   }
 
+  private HttpResponse cacheRevalidatedResponse(HttpRequest request, HttpResponse response) {
+    if (response.getCacheTtl() > 0) {
+      response = invalidationService.markResponse(request, response);
+    }
+    httpCache.addResponse(request, response);
+    return response;
+  }
+
+  /**
+   * @return A copy of the request that will be answered with 304 Not Modified if the cached
+   *     response is still current, or the request itself if that can't be determined.
+   */
+  private static HttpRequest makeConditional(HttpRequest request, HttpResponse cached) {
+    if (request.getHeader("If-None-Match") != null ||
+        request.getHeader("If-Modified-Since") != null) {
+      // The caller is doing its own revalidation.
+      return request;
+    }
+    String etag = cached.getMetadata().get(HttpResponseMetadataHelper.ORIGIN_ETAG);
+    String lastModified = cached.getMetadata().get(HttpResponseMetadataHelper.ORIGIN_LAST_MODIFIED);
+    if (etag == null && lastModified == null) {
+      return request;
+    }
+
+    HttpRequest conditional = new HttpRequest(request);
+    if (etag != null) {
+      conditional.setHeader("If-None-Match", etag);
+    }
+    if (lastModified != null) {
+      conditional.setHeader("If-Modified-Since", lastModified);
+    }
+    return conditional;
+  }
+
+  /**
+   * Keeps the origin's validators with the response so that they survive rewriting.
+   */
+  private static HttpResponse recordValidators(HttpResponse response) {
+    String etag = response.getHeader("ETag");
+    String lastModified = response.getHeader("Last-Modified");
+    if (etag == null && lastModified == null) {
+      return response;
+    }
+    HttpResponseBuilder builder = new HttpResponseBuilder(response);
+    if (etag != null) {
+      builder.setMetadata(HttpResponseMetadataHelper.ORIGIN_ETAG, etag);
+    }
+    if (lastModified != null) {
+      builder.setMetadata(HttpResponseMetadataHelper.ORIGIN_LAST_MODIFIED, lastModified);
+    }
+    return builder.create();
+  }
+
+  /**
+   * Applies the freshness information from a 304 Not Modified to the cached response it
+   * validated.
+   */
+  private static HttpResponse refreshNotModified(HttpResponse cached, HttpResponse notModified) {
+    HttpResponseBuilder builder = new HttpResponseBuilder(cached);
+    for (String name : REFRESHED_HEADERS) {
+      String value = notModified.getHeader(name);
+      if (value != null) {
+        builder.setHeader(name, value);
+      }
+    }
+    String etag = notModified.getHeader("ETag");
+    if (etag != null) {
+      builder.setMetadata(HttpResponseMetadataHelper.ORIGIN_ETAG, etag);
+    }
+    String lastModified = notModified.getHeader("Last-Modified");
+    if (lastModified != null) {
+      builder.setMetadata(HttpResponseMetadataHelper.ORIGIN_LAST_MODIFIED, lastModified);
+    }
+    return maybeFixDriftTime(builder.create());
+  }
+
   protected void normalizeProtocol(HttpRequest request) throws GadgetException {
     // Normalize the protocol part of the URI
     if (request.getUri().getScheme()== null) {
@@ -187,4 +551,31 @@ public class DefaultRequestPipeline implements RequestPipeline {
     }
     return response;
   }
+
+  /**
+   * Point-in-time request coalescing metrics.
+   */
+  public static class Stats {
+    private final long coalescedFetchCount;
+    private final long inFlightFetchCount;
+
+    Stats(long coalescedFetchCount, long inFlightFetchCount) {
+      this.coalescedFetchCount = coalescedFetchCount;
+      this.inFlightFetchCount = inFlightFetchCount;
+    }
+
+    /**
+     * @return The number of requests served by an identical fetch already in progress.
+     */
+    public long getCoalescedFetchCount() {
+      return coalescedFetchCount;
+    }
+
+    /**
+     * @return The number of distinct coalescable fetches currently in progress.
+     */
+    public long getInFlightFetchCount() {
+      return inFlightFetchCount;
+    }
+  }
 }
@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.http;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -30,8 +31,11 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.shindig.common.cache.DefaultWeigher;
+import org.apache.shindig.common.cache.Weighable;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.util.DateUtil;
+import org.apache.shindig.common.util.GzipUtil;
 import org.apache.shindig.common.util.TimeSource;
 import org.apache.shindig.gadgets.encoding.EncodingDetector;
 
@@ -58,8 +62,11 @@ import java.util.TreeMap;
  *
  * HttpResponse objects are immutable in order to allow them to be safely used in concurrent
  * caches and by multiple threads without worrying about concurrent modification.
+ *
+ * A gzip encoded copy of the body is computed at most once per response, normally when it is
+ * added to the cache, so that clients accepting gzip can be served without compressing again.
  */
-public final class HttpResponse implements Externalizable {
+public final class HttpResponse implements Externalizable, Weighable {
   private static final long serialVersionUID = 7526471155622776147L;
 
   public static final int SC_CONTINUE = 100;
@@ -116,6 +123,14 @@ public final class HttpResponse implements Externalizable {
       "video/x-ms-asf", "application/pdf", "image/x-icon"
   );
 
+  // These content types are already compressed.
+  private static final Set<String> COMPRESSED_CONTENT_TYPES = ImmutableSet.of(
+      "application/x-shockwave-flash", "application/ogg", "application/zip", "application/pdf",
+      "application/x-gzip", "application/gzip");
+
+  // Marks a body that has been found not to be worth compressing.
+  private static final byte[] NOT_GZIPPED = new byte[0];
+
   // These HTTP status codes should always honor the HTTP status returned by the remote host. All
   // other error codes are treated as errors and will use the negativeCacheTtl value.
   private static final Set<Integer> NEGATIVE_CACHING_EXEMPT_STATUS
@@ -165,6 +180,7 @@ public final class HttpResponse implements Externalizable {
   private int httpStatusCode;
   private Multimap<String, String> headers;
   private byte[] responseBytes;
+  private volatile byte[] gzippedBytes;
 
   private long refetchStrictNoCacheAfterMs;
 
@@ -195,6 +211,13 @@ public final class HttpResponse implements Externalizable {
     encoding = getAndUpdateEncoding(headerCopy, responseBytes);
     headers = Multimaps.unmodifiableMultimap(headerCopy);
     refetchStrictNoCacheAfterMs = builder.getRefetchStrictNoCacheAfterMs();
+
+    // Keep the compressed body of the response this was built from if the body hasn't changed.
+    HttpResponse source = builder.getSourceResponse();
+    if (source != null && source.gzippedBytes != null && source.gzippedBytes != NOT_GZIPPED &&
+        isCompressible() && Arrays.equals(source.responseBytes, responseBytes)) {
+      gzippedBytes = source.gzippedBytes;
+    }
   }
 
   private HttpResponse(int httpStatusCode, String body) {
@@ -262,6 +285,68 @@ public final class HttpResponse implements Externalizable {
     return new ByteArrayInputStream(responseBytes);
   }
 
+  /**
+   * @return An input stream over the gzip encoded body, or null if the body is not worth
+   *     compressing.
+   */
+  public InputStream getGzippedResponse() {
+    byte[] gzipped = getGzippedBytes();
+    return gzipped == null ? null : new ByteArrayInputStream(gzipped);
+  }
+
+  /**
+   * @return The length of the gzip encoded body, or -1 if the body is not worth compressing.
+   */
+  public int getGzippedContentLength() {
+    byte[] gzipped = getGzippedBytes();
+    return gzipped == null ? -1 : gzipped.length;
+  }
+
+  /**
+   * Computes the gzip encoded body now, rather than when it is first requested.
+   */
+  void precompress() {
+    getGzippedBytes();
+  }
+
+  /**
+   * @return Whether the gzip encoded body has already been computed.
+   */
+  @VisibleForTesting
+  boolean isPrecompressed() {
+    return gzippedBytes != null;
+  }
+
+  private byte[] getGzippedBytes() {
+    byte[] gzipped = gzippedBytes;
+    if (gzipped == null) {
+      // Racing threads may both compress, but will produce identical results.
+      gzipped = isCompressible() ? GzipUtil.gzipIfSmaller(responseBytes) : null;
+      if (gzipped == null) {
+        gzipped = NOT_GZIPPED;
+      }
+      gzippedBytes = gzipped;
+    }
+    return gzipped == NOT_GZIPPED ? null : gzipped;
+  }
+
+  private boolean isCompressible() {
+    if (responseBytes.length < GzipUtil.MIN_COMPRESSIBLE_LENGTH ||
+        headers.containsKey("Content-Encoding")) {
+      return false;
+    }
+    String contentType = getHeader("Content-Type");
+    if (contentType == null) {
+      return true;
+    }
+    contentType = StringUtils.substringBefore(contentType, ";").trim().toLowerCase();
+    if (contentType.startsWith("image/")) {
+      return contentType.startsWith("image/svg");
+    }
+    return !contentType.startsWith("audio/") && !contentType.startsWith("video/") &&
+        !COMPRESSED_CONTENT_TYPES.contains(contentType);
+  }
+
   /**
    * Attempts to convert the response body to a string using the Content-Type header. If no
    * Content-Type header is specified (or it doesn't include an encoding), we will assume it is
@@ -591,6 +676,34 @@ public final class HttpResponse implements Externalizable {
     return buf.toString();
   }
 
+  /**
+   * @return An estimate of the heap retained by this response: the body, its decoded and gzipped
+   *     forms, headers and metadata. Caches weigh a response once, on insertion, so the decoded and
+   *     gzipped forms are counted even before they are first requested, using the body's length as
+   *     an upper bound for each.
+   */
+  public long getWeight() {
+    long weight = 64 + responseBytes.length;
+    String decoded = responseString;
+    weight += decoded != null ? DefaultWeigher.weighString(decoded)
+        : DefaultWeigher.weighChars(responseBytes.length);
+    byte[] gzipped = gzippedBytes;
+    if (gzipped == null) {
+      weight += isCompressible() ? responseBytes.length : 0;
+    } else if (gzipped != NOT_GZIPPED) {
+      weight += gzipped.length;
+    }
+    for (Map.Entry<String, String> entry : headers.entries()) {
+      weight += DefaultWeigher.weighString(entry.getKey())
+          + DefaultWeigher.weighString(entry.getValue());
+    }
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      weight += DefaultWeigher.weighString(entry.getKey())
+          + DefaultWeigher.weighString(entry.getValue());
+    }
+    return weight;
+  }
+
   /**
    * @return The response as a byte array. Only visible to the package to avoid copying when
    * making a new HttpResponseBuilder.
@@ -53,6 +53,9 @@ public class HttpResponseBuilder extends MutableContent {
   private HttpResponse responseObj;
   private int responseObjNumChanges;
 
+  // The response this builder was constructed from, whose gzipped body may be reused.
+  private final HttpResponse sourceResponse;
+
   private long refetchStrictNoCacheAfterMs =
       AbstractHttpCache.REFETCH_STRICT_NO_CACHE_AFTER_MS_DEFAULT;
 
@@ -68,6 +71,7 @@ public class HttpResponseBuilder extends MutableContent {
     }
     responseObj = response;
     responseObjNumChanges = getNumChanges();
+    sourceResponse = response;
   }
 
   public HttpResponseBuilder() {
@@ -286,6 +290,10 @@ public class HttpResponseBuilder extends MutableContent {
     return getResponse().length;
   }
 
+  HttpResponse getSourceResponse() {
+    return sourceResponse;
+  }
+
   Multimap<String, String> getHeaders() {
     return headers;
   }
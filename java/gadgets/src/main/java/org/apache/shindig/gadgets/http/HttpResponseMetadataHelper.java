@@ -39,6 +39,10 @@ public class HttpResponseMetadataHelper {
   public static final String DATA_HASH = "DataHash";
   public static final String IMAGE_HEIGHT = "ImageHeight";
   public static final String IMAGE_WIDTH = "ImageWidth";
+  // Validators sent by the origin, kept so that expired entries can be revalidated even after
+  // rewriting has changed or removed the response's own headers.
+  public static final String ORIGIN_ETAG = "OriginETag";
+  public static final String ORIGIN_LAST_MODIFIED = "OriginLastModified";
 
   //class name for logging purpose
   private static final String classname = HttpResponseMetadataHelper.class.getName();
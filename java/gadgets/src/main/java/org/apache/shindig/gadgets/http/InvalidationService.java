@@ -66,5 +66,13 @@ public interface InvalidationService {
    */
   HttpResponse markResponse(HttpRequest request, HttpResponse response);
 
+  /**
+   * Get a value that changes whenever the resource is invalidated by a call to
+   * invalidateApplicationResources, so that content built from it can be checked without
+   * reading the resource back from the cache. It may also change when other resources are
+   * invalidated.
+   */
+  long getResourceGeneration(Uri uri);
+
 
 }
@@ -28,6 +28,8 @@ import org.apache.shindig.gadgets.GadgetException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask; 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.List;
 import java.util.Map;
 
@@ -61,6 +63,55 @@ public class MultipleResourceHttpFetcher {
     return futureTasks;
   }
 
+  /**
+   * Issue parallel requests to all resources that are needed, with at most maxParallel
+   * of them in flight at once. Each completed fetch starts the next pending one, in order.
+   *
+   * @param requests list of requests for which we want the resources
+   * @param maxParallel maximum number of concurrent fetches; 0 or less means no limit
+   * @return futureTasks List of Pairs of url,futureTask for all the requests
+   *    in same order as specified.
+   */
+  public List<Pair<Uri, FutureTask<RequestContext>>> fetchAll(List<HttpRequest> requests,
+      int maxParallel) {
+    if (maxParallel <= 0 || maxParallel >= requests.size()) {
+      return fetchAll(requests);
+    }
+
+    final List<FutureTask<RequestContext>> tasks = Lists.newArrayListWithCapacity(requests.size());
+    final AtomicInteger nextTask = new AtomicInteger();
+    List<Pair<Uri, FutureTask<RequestContext>>> futureTasks = Lists.newArrayList();
+    for (HttpRequest request : requests) {
+      FutureTask<RequestContext> task = new FutureTask<RequestContext>(
+          new HttpFetchCallable(request, requestPipeline)) {
+        @Override
+        protected void done() {
+          startNext(tasks, nextTask);
+        }
+      };
+      tasks.add(task);
+      futureTasks.add(Pair.of(request.getUri(), task));
+    }
+
+    for (int i = 0; i < maxParallel; ++i) {
+      startNext(tasks, nextTask);
+    }
+    return futureTasks;
+  }
+
+  private void startNext(List<FutureTask<RequestContext>> tasks, AtomicInteger nextTask) {
+    int index = nextTask.getAndIncrement();
+    if (index < tasks.size()) {
+      FutureTask<RequestContext> task = tasks.get(index);
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // Fetch on this thread rather than never completing the task.
+        task.run();
+      }
+    }
+  }
+
   /**
    * Issue parallel requests to all the resources that are needed ignoring
    * duplicates.
@@ -42,4 +42,8 @@ public class NoOpInvalidationService implements InvalidationService {
   public HttpResponse markResponse(HttpRequest request, HttpResponse response) {
     return response;
   }
+
+  public long getResourceGeneration(Uri uri) {
+    return 0;
+  }
 }
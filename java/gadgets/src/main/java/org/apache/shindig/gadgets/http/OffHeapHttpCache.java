@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.shindig.common.util.CharsetUtil;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An HttpCache that keeps serialized responses outside of the Java heap.
+ *
+ * Responses are appended to a ring of fixed-size slabs, each backed by a direct ByteBuffer. Only
+ * a small index of key to slab location is kept on heap. When the write cursor reaches the end of
+ * the ring, the oldest slab is recycled and every entry it held is dropped, so eviction is
+ * first-in-first-out at slab granularity. Responses larger than a slab are never cached.
+ *
+ * Slabs are allocated lazily, so memory is only reserved as the cache fills. The JVM must be
+ * started with a -XX:MaxDirectMemorySize at least as large as the configured capacity.
+ */
+@Singleton
+public class OffHeapHttpCache extends AbstractHttpCache {
+  private static final Logger LOG = Logger.getLogger(OffHeapHttpCache.class.getName());
+
+  private final int slabBytes;
+  private final Slab[] slabs;
+  private final ConcurrentMap<String, Location> index = new MapMaker().makeMap();
+
+  // Guarded by this.
+  private int current;
+
+  @Inject
+  public OffHeapHttpCache(@Named("shindig.cache.http.offheap.max-bytes") long maxBytes,
+                          @Named("shindig.cache.http.offheap.slab-bytes") int slabBytes) {
+    Preconditions.checkArgument(slabBytes > 0, "slabBytes must be positive");
+    Preconditions.checkArgument(maxBytes >= slabBytes, "maxBytes must hold at least one slab");
+    long count = maxBytes / slabBytes;
+    Preconditions.checkArgument(count <= Integer.MAX_VALUE, "Too many slabs: " + count);
+
+    this.slabBytes = slabBytes;
+    slabs = new Slab[(int) count];
+    for (int i = 0; i < slabs.length; ++i) {
+      slabs[i] = new Slab();
+    }
+    slabs[0].allocate(slabBytes);
+  }
+
+  @Override
+  protected HttpResponse getResponseImpl(String key) {
+    Location location = index.get(key);
+    if (location == null) {
+      return null;
+    }
+    Slab slab = location.slab;
+    slab.lock.readLock().lock();
+    try {
+      if (slab.generation != location.generation) {
+        // Slab was recycled after we looked up the location.
+        return null;
+      }
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(location.offset);
+      return read(buffer);
+    } finally {
+      slab.lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  protected void addResponseImpl(String key, HttpResponse response) {
+    byte[] head = writeHead(response);
+    byte[] body = response.getResponseAsBytes();
+    long length = (long) head.length + 4 + body.length;
+    if (length > slabBytes) {
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine("Not caching " + length + " byte response larger than slab size " + slabBytes);
+      }
+      index.remove(key);
+      return;
+    }
+
+    synchronized (this) {
+      Slab slab = slabs[current];
+      if (slab.writePosition + length > slabBytes) {
+        current = (current + 1) % slabs.length;
+        slab = slabs[current];
+        recycle(slab);
+      }
+
+      ByteBuffer buffer = slab.buffer.duplicate();
+      buffer.position(slab.writePosition);
+      buffer.put(head);
+      buffer.putInt(body.length);
+      buffer.put(body);
+
+      Location location = new Location(slab, slab.writePosition, slab.generation);
+      slab.writePosition += (int) length;
+      slab.keys.add(key);
+      // The ConcurrentMap publishes the written bytes to readers of the location.
+      index.put(key, location);
+    }
+  }
+
+  @Override
+  protected HttpResponse removeResponseImpl(String key) {
+    HttpResponse response = getResponseImpl(key);
+    index.remove(key);
+    return response;
+  }
+
+  /**
+   * @return The number of responses currently indexed.
+   */
+  public long getSize() {
+    return index.size();
+  }
+
+  /**
+   * @return The number of off-heap bytes currently reserved by allocated slabs.
+   */
+  public long getAllocatedBytes() {
+    long allocated = 0;
+    for (Slab slab : slabs) {
+      if (slab.buffer != null) {
+        allocated += slabBytes;
+      }
+    }
+    return allocated;
+  }
+
+  /**
+   * Empties a slab so it can be rewritten. Must be called holding this.
+   */
+  private void recycle(Slab slab) {
+    slab.lock.writeLock().lock();
+    try {
+      for (String key : slab.keys) {
+        Location location = index.get(key);
+        if (location != null && location.slab == slab && location.generation == slab.generation) {
+          index.remove(key, location);
+        }
+      }
+      slab.keys.clear();
+      slab.writePosition = 0;
+      slab.generation++;
+      if (slab.buffer == null) {
+        slab.allocate(slabBytes);
+      }
+    } finally {
+      slab.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Layout:
+   *
+   * int - status code
+   * long - refetch strict no-cache after ms
+   * int - number of headers, followed by that many name, value string pairs
+   * int - number of metadata entries, followed by that many key, value string pairs
+   *
+   * Strings are stored as an int length followed by that many UTF-8 bytes. The body length and
+   * body follow the head.
+   */
+  private static byte[] writeHead(HttpResponse response) {
+    List<byte[]> headers = Lists.newArrayList();
+    for (Map.Entry<String, String> header : response.getHeaders().entries()) {
+      headers.add(CharsetUtil.getUtf8Bytes(header.getKey()));
+      headers.add(CharsetUtil.getUtf8Bytes(header.getValue()));
+    }
+    List<byte[]> metadata = Lists.newArrayList();
+    for (Map.Entry<String, String> entry : response.getMetadata().entrySet()) {
+      metadata.add(CharsetUtil.getUtf8Bytes(entry.getKey()));
+      metadata.add(CharsetUtil.getUtf8Bytes(entry.getValue()));
+    }
+
+    int length = 4 + 8 + 4 + 4;
+    for (byte[] str : Iterables.concat(headers, metadata)) {
+      length += 4 + str.length;
+    }
+
+    ByteBuffer head = ByteBuffer.allocate(length);
+    head.putInt(response.getHttpStatusCode());
+    head.putLong(response.getRefetchStrictNoCacheAfterMs());
+    writeStrings(head, headers);
+    writeStrings(head, metadata);
+    return head.array();
+  }
+
+  private static void writeStrings(ByteBuffer buffer, List<byte[]> pairs) {
+    buffer.putInt(pairs.size() / 2);
+    for (byte[] str : pairs) {
+      buffer.putInt(str.length);
+      buffer.put(str);
+    }
+  }
+
+  private static HttpResponse read(ByteBuffer buffer) {
+    HttpResponseBuilder builder = new HttpResponseBuilder()
+        .setHttpStatusCode(buffer.getInt())
+        .setRefetchStrictNoCacheAfterMs(buffer.getLong());
+
+    int headerCount = buffer.getInt();
+    for (int i = 0; i < headerCount; ++i) {
+      builder.addHeader(readString(buffer), readString(buffer));
+    }
+
+    int metadataCount = buffer.getInt();
+    if (metadataCount > 0) {
+      Map<String, String> metadata = Maps.newHashMap();
+      for (int i = 0; i < metadataCount; ++i) {
+        metadata.put(readString(buffer), readString(buffer));
+      }
+      builder.setMetadata(metadata);
+    }
+
+    // The one unavoidable copy: HttpResponse bodies live in heap arrays.
+    byte[] body = new byte[buffer.getInt()];
+    buffer.get(body);
+    return builder.setResponseNoCopy(body).create();
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return CharsetUtil.newUtf8String(bytes);
+  }
+
+  private static class Slab {
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    final List<String> keys = Lists.newArrayList();
+    volatile ByteBuffer buffer;
+    int writePosition;
+    int generation;
+
+    void allocate(int size) {
+      buffer = ByteBuffer.allocateDirect(size);
+    }
+  }
+
+  private static class Location {
+    final Slab slab;
+    final int offset;
+    final int generation;
+
+    Location(Slab slab, int offset, int generation) {
+      this.slab = slab;
+      this.offset = offset;
+      this.generation = generation;
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.MapMaker;
+
+import org.apache.shindig.common.servlet.HttpUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Isolates fetches by origin so that one slow or unresponsive host can't tie up resources needed
+ * to fetch from every other host.
+ *
+ * Each origin gets a fixed number of concurrent fetches (the bulkhead) and a circuit breaker. The
+ * breaker opens after a run of consecutive timeouts, rejecting fetches for that origin until the
+ * open period has passed. A single probe fetch is then let through: success closes the breaker,
+ * another timeout reopens it.
+ *
+ * A limit or threshold of 0 disables the corresponding check.
+ */
+public class OriginBulkhead {
+  private static final Logger LOG = Logger.getLogger(OriginBulkhead.class.getName());
+
+  // Bounds the memory used for tracking; origins beyond this are not isolated.
+  static final int MAX_TRACKED_ORIGINS = 10000;
+
+  public enum State { CLOSED, OPEN, HALF_OPEN }
+
+  private final ConcurrentMap<String, Origin> origins = new MapMaker().makeMap();
+  private volatile int maxConcurrentPerOrigin;
+  private volatile int failureThreshold;
+  private volatile long openMs;
+
+  // Handle for origins that aren't tracked: never rejects and records nothing.
+  private final Origin untracked = new Origin(null, 0) {
+    @Override
+    boolean enter() {
+      return true;
+    }
+
+    @Override
+    void exit(boolean timedOut) {
+    }
+  };
+
+  public OriginBulkhead(int maxConcurrentPerOrigin, int failureThreshold, long openMs) {
+    this.maxConcurrentPerOrigin = maxConcurrentPerOrigin;
+    this.failureThreshold = failureThreshold;
+    this.openMs = openMs;
+  }
+
+  /**
+   * Applies to origins first seen after the change.
+   */
+  public void setMaxConcurrentPerOrigin(int maxConcurrentPerOrigin) {
+    this.maxConcurrentPerOrigin = maxConcurrentPerOrigin;
+  }
+
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  public void setOpenMs(long openMs) {
+    this.openMs = openMs;
+  }
+
+  /**
+   * Attempt to start a fetch from the given origin.
+   *
+   * @return A handle that must be passed to {@link #exit} once the fetch is done, or null if the
+   *     fetch should not be attempted.
+   */
+  public Origin enter(String origin) {
+    Origin state = origins.get(origin);
+    if (state == null) {
+      if (origins.size() >= MAX_TRACKED_ORIGINS) {
+        return untracked;
+      }
+      Origin created = new Origin(origin, maxConcurrentPerOrigin);
+      state = origins.putIfAbsent(origin, created);
+      if (state == null) {
+        state = created;
+      }
+    }
+    return state.enter() ? state : null;
+  }
+
+  /**
+   * Record the outcome of a fetch started with {@link #enter}.
+   *
+   * @param timedOut Whether the origin failed to respond in time.
+   */
+  public void exit(Origin origin, boolean timedOut) {
+    origin.exit(timedOut);
+  }
+
+  /**
+   * @return A snapshot of the state of each origin seen so far, keyed by origin.
+   */
+  public Map<String, Stats> getStats() {
+    ImmutableSortedMap.Builder<String, Stats> stats = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return stats.build();
+  }
+
+  /**
+   * Bulkhead and circuit breaker state for a single origin.
+   */
+  public class Origin {
+    private final String name;
+    private final Semaphore permits;
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    // Guarded by this.
+    private State state = State.CLOSED;
+    private int consecutiveTimeouts;
+    private long openedAt;
+    private boolean probing;
+
+    Origin(String name, int maxConcurrent) {
+      this.name = name;
+      this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    boolean enter() {
+      boolean probe = false;
+      synchronized (this) {
+        if (state == State.OPEN) {
+          if (HttpUtil.getTimeSource().currentTimeMillis() - openedAt < openMs) {
+            shortCircuited.incrementAndGet();
+            return false;
+          }
+          state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+          if (probing) {
+            shortCircuited.incrementAndGet();
+            return false;
+          }
+          probing = true;
+          probe = true;
+        }
+      }
+
+      if (permits != null && !permits.tryAcquire()) {
+        rejected.incrementAndGet();
+        if (probe) {
+          synchronized (this) {
+            probing = false;
+          }
+        }
+        return false;
+      }
+      fetches.incrementAndGet();
+      return true;
+    }
+
+    void exit(boolean timedOut) {
+      if (permits != null) {
+        permits.release();
+      }
+      if (timedOut) {
+        timeouts.incrementAndGet();
+      }
+
+      synchronized (this) {
+        if (timedOut) {
+          consecutiveTimeouts++;
+          int threshold = failureThreshold;
+          if (state == State.HALF_OPEN ||
+              (state == State.CLOSED && threshold > 0 && consecutiveTimeouts >= threshold)) {
+            if (state == State.CLOSED) {
+              LOG.log(Level.WARNING, "Opening circuit for " + name + " after " +
+                  consecutiveTimeouts + " consecutive timeouts");
+            }
+            state = State.OPEN;
+            openedAt = HttpUtil.getTimeSource().currentTimeMillis();
+          }
+        } else {
+          consecutiveTimeouts = 0;
+          if (state == State.HALF_OPEN) {
+            LOG.log(Level.INFO, "Closing circuit for " + name);
+            state = State.CLOSED;
+          }
+        }
+        if (state != State.HALF_OPEN) {
+          probing = false;
+        }
+      }
+    }
+
+    synchronized Stats snapshot() {
+      return new Stats(state, permits == null ? -1 : permits.availablePermits(), fetches.get(),
+          timeouts.get(), rejected.get(), shortCircuited.get());
+    }
+  }
+
+  /**
+   * Point-in-time metrics for an origin.
+   */
+  public static class Stats {
+    private final State state;
+    private final int availablePermits;
+    private final long fetchCount;
+    private final long timeoutCount;
+    private final long rejectedCount;
+    private final long shortCircuitedCount;
+
+    Stats(State state, int availablePermits, long fetchCount, long timeoutCount,
+        long rejectedCount, long shortCircuitedCount) {
+      this.state = state;
+      this.availablePermits = availablePermits;
+      this.fetchCount = fetchCount;
+      this.timeoutCount = timeoutCount;
+      this.rejectedCount = rejectedCount;
+      this.shortCircuitedCount = shortCircuitedCount;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /**
+     * @return The number of additional concurrent fetches allowed, or -1 if unlimited.
+     */
+    public int getAvailablePermits() {
+      return availablePermits;
+    }
+
+    public long getFetchCount() {
+      return fetchCount;
+    }
+
+    public long getTimeoutCount() {
+      return timeoutCount;
+    }
+
+    /**
+     * @return The number of fetches refused because the origin's bulkhead was full.
+     */
+    public long getRejectedCount() {
+      return rejectedCount;
+    }
+
+    /**
+     * @return The number of fetches refused because the origin's circuit was open.
+     */
+    public long getShortCircuitedCount() {
+      return shortCircuitedCount;
+    }
+  }
+}
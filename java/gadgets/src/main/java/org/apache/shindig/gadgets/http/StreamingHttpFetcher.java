@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link HttpFetcher} that can pass large response bodies on as they are read instead of
+ * holding them in memory.
+ */
+public interface StreamingHttpFetcher extends HttpFetcher {
+
+  /**
+   * Fetch HTTP content, buffering at most {@code maxBufferedBytes} of a successful response body.
+   *
+   * Responses within that limit, and all unsuccessful responses, are returned in full exactly as
+   * from {@link #fetch(HttpRequest)}. Otherwise the status and headers, along with a stream of
+   * the body, are passed to the sink and null is returned. The stream is only valid until the
+   * sink returns.
+   *
+   * @throws GadgetException In the event of a failure that can't be mapped to an HTTP result code,
+   *     including failures while the sink is consuming the body.
+   */
+  HttpResponse fetch(HttpRequest request, int maxBufferedBytes, ResponseSink sink)
+      throws GadgetException;
+
+  /**
+   * Receives a streamed response.
+   */
+  interface ResponseSink {
+    /**
+     * @param head The status and headers of the response. Its body is empty.
+     * @param body The response body, read from the origin as it is consumed.
+     */
+    void stream(HttpResponse head, InputStream body) throws IOException;
+  }
+}
@@ -18,7 +18,18 @@
 
 package org.apache.shindig.gadgets.js;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
+import org.apache.shindig.config.ContainerConfig;
+import org.apache.shindig.gadgets.uri.JsUriManager.JsUri;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Default implementation of {@link JsServingPipeline}.
@@ -26,19 +37,107 @@ import com.google.inject.Inject;
  * The processing steps are executed by a {@link JsProcessorRegistry}, which can
  * be configured or replaced to add and remove processing steps, or to execute
  * different processing steps depending on the context.
+ *
+ * Responses may be cached, keyed by every part of the request that the standard processors read.
+ * Container configuration is injected into the code, so any change to it invalidates the cache.
  */
-public class DefaultJsServingPipeline implements JsServingPipeline {
+public class DefaultJsServingPipeline implements JsServingPipeline,
+    ContainerConfig.ConfigObserver {
+  public static final String CACHE_NAME = "jsResponses";
 
   private final JsProcessorRegistry jsProcessorRegistry;
+  // Shared by every instance, as they all use the same named cache.
+  private static final AtomicInteger CONFIG_VERSION = new AtomicInteger();
+  private Cache<CacheKey, JsResponse> responseCache;
 
   @Inject
   public DefaultJsServingPipeline(JsProcessorRegistry jsProcessorRegistry) {
     this.jsProcessorRegistry = jsProcessorRegistry;
   }
 
+  /**
+   * Only enable the cache when every configured processor depends on nothing but the request's
+   * JsUri, host and container configuration.
+   */
+  @Inject(optional = true)
+  public void setResponseCache(CacheProvider cacheProvider,
+      @Named("shindig.js.response-cache.enabled") boolean enabled) {
+    responseCache = enabled ?
+        cacheProvider.<CacheKey, JsResponse>createCache(CACHE_NAME) : null;
+  }
+
+  @Inject(optional = true)
+  public void setContainerConfig(ContainerConfig config) {
+    config.addConfigObserver(this, false);
+  }
+
+  public void containersChanged(
+      ContainerConfig config, Collection<String> changed, Collection<String> removed) {
+    CONFIG_VERSION.incrementAndGet();
+  }
+
   public JsResponse execute(JsRequest jsRequest) throws JsException {
+    CacheKey key = null;
+    if (responseCache != null) {
+      key = new CacheKey(jsRequest, CONFIG_VERSION.get());
+      JsResponse cached = responseCache.getElement(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    long start = System.nanoTime();
     JsResponseBuilder resp = new JsResponseBuilder();    
     jsProcessorRegistry.process(jsRequest, resp);
-    return resp.build();
+    JsResponse response = resp.build();
+
+    if (key != null && !response.isError()) {
+      // Compute everything the servlet serves before sharing the response, so that hits only
+      // copy bytes.
+      response.toGzippedJsBytes();
+      response.getEtag();
+      CacheStatsUtil.recordLoad(responseCache, start);
+      responseCache.addElement(key, response);
+    }
+    return response;
+  }
+
+  /**
+   * The parts of a request that determine the response.
+   */
+  private static final class CacheKey {
+    private final Object[] parts;
+    private final int hashCode;
+
+    CacheKey(JsRequest request, int configVersion) {
+      JsUri uri = request.getJsUri();
+      // The url itself is only emitted as a hint, which jsload responses don't carry.
+      boolean urlHinted = !uri.isNohint() && !uri.isJsload();
+      parts = new Object[] {
+          configVersion, request.getHost(), request.isInCache(), uri.getStatus(),
+          uri.getContainer(), uri.getContext(), uri.isDebug(), uri.isNoCache(), uri.getRefresh(),
+          uri.getGadget(), uri.getLibs(), uri.getLoadedLibs(), uri.getOnload(), uri.isJsload(),
+          uri.isNohint(), uri.getCompileMode(), uri.getRepository(), uri.cajoleContent(),
+          uri.getExtensionParams(), urlHinted ? uri.getOrigUri() : null
+      };
+      hashCode = Arrays.hashCode(parts);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+      CacheKey other = (CacheKey) obj;
+      return hashCode == other.hashCode && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
   }
 }
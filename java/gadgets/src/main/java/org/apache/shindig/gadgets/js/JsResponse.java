@@ -17,6 +17,11 @@
  */
 package org.apache.shindig.gadgets.js;
 
+import org.apache.shindig.common.cache.Weighable;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.GzipUtil;
+import org.apache.shindig.common.util.HashUtil;
+
 import java.util.Collections;
 import java.util.List;
 
@@ -24,7 +29,10 @@ import java.util.List;
  * An immutable object that contains the response for a JavaScript request.
  * This object is used by JsHandler, JsProcessors, and JsCompiler alike.
  */
-public class JsResponse {
+public class JsResponse implements Weighable {
+  // Marks code that has been found not to be worth compressing.
+  private static final byte[] NOT_GZIPPED = new byte[0];
+
   private final List<JsContent> jsCode;
   private final List<String> errors;
   private final String externs;
@@ -33,6 +41,9 @@ public class JsResponse {
   private final boolean proxyCacheable;
   private String codeString;
   private String errorString;
+  private byte[] codeBytes;
+  private byte[] gzippedCodeBytes;
+  private String etag;
 
   JsResponse(List<JsContent> jsCode, int statusCode, int cacheTtlSecs,
       boolean proxyCacheable, List<String> errors, String externs) {
@@ -58,6 +69,39 @@ public class JsResponse {
     return codeString;
   }
 
+  /**
+   * Returns the JavaScript code to serve as UTF-8 bytes. The array must not be modified.
+   */
+  public byte[] toJsBytes() {
+    if (codeBytes == null) {
+      codeBytes = CharsetUtil.getUtf8Bytes(toJsString());
+    }
+    return codeBytes;
+  }
+
+  /**
+   * Returns the gzip encoded JavaScript code, or null if it isn't worth compressing. The array
+   * must not be modified.
+   */
+  public byte[] toGzippedJsBytes() {
+    if (gzippedCodeBytes == null) {
+      byte[] gzipped = GzipUtil.gzipIfSmaller(toJsBytes());
+      gzippedCodeBytes = gzipped != null ? gzipped : NOT_GZIPPED;
+    }
+    return gzippedCodeBytes != NOT_GZIPPED ? gzippedCodeBytes : null;
+  }
+
+  /**
+   * Returns an entity tag for the JavaScript code, in the form of an ETag header. The tag is weak,
+   * since the code may be served with or without gzip encoding.
+   */
+  public String getEtag() {
+    if (etag == null) {
+      etag = "W/\"" + HashUtil.checksum(toJsBytes()) + '"';
+    }
+    return etag;
+  }
+
   /**
    * Returns an iterator starting at the beginning of all JS code in the response.
    */
@@ -122,4 +166,10 @@ public class JsResponse {
   public String getExterns() {
     return externs;
   }
+
+  public long getWeight() {
+    // The code is held both as content pieces and as a joined string, plus its encodings.
+    byte[] gzipped = toGzippedJsBytes();
+    return 4L * toJsString().length() + toJsBytes().length + (gzipped != null ? gzipped.length : 0);
+  }
 }
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.parse;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+
+import org.apache.shindig.common.cache.Weighable;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * An immutable, compact copy of the children of a parsed Document or DocumentFragment.
+ *
+ * Nodes are held in document order in parallel arrays, with their attributes in shared slabs,
+ * and element and attribute names interned across all copies. This takes far less memory than
+ * a DOM, so it is what parsers cache. Each user of a cached parse gets a fresh DOM built from it,
+ * which is cheaper than cloning a cached DOM since no source DOM has to be walked.
+ */
+final class CompactDom implements Weighable {
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+  // Per node, in document order.
+  private final short[] types;
+  private final int[] parents;
+  private final String[] names;
+  private final String[] values;
+  private final String[] namespaces;
+  // Nodes created with createElementNS rather than createElement.
+  private final BitSet namespaced;
+  // Attributes of node i are at attrStarts[i] up to attrStarts[i + 1].
+  private final int[] attrStarts;
+
+  // Per attribute.
+  private final String[] attrNames;
+  private final String[] attrValues;
+  private final String[] attrNamespaces;
+  private final BitSet attrNamespaced;
+
+  private final String docTypePublicId;
+  private final String docTypeSystemId;
+  private final long weight;
+
+  private CompactDom(Builder builder) {
+    int size = builder.types.size();
+    types = new short[size];
+    parents = new int[size];
+    attrStarts = new int[size + 1];
+    for (int i = 0; i < size; ++i) {
+      types[i] = builder.types.get(i);
+      parents[i] = builder.parents.get(i);
+      attrStarts[i] = builder.attrStarts.get(i);
+    }
+    attrStarts[size] = builder.attrNames.size();
+    names = builder.names.toArray(new String[size]);
+    values = builder.values.toArray(new String[size]);
+    namespaces = builder.namespaces.toArray(new String[size]);
+    namespaced = builder.namespaced;
+
+    int attrCount = builder.attrNames.size();
+    attrNames = builder.attrNames.toArray(new String[attrCount]);
+    attrValues = builder.attrValues.toArray(new String[attrCount]);
+    attrNamespaces = builder.attrNamespaces.toArray(new String[attrCount]);
+    attrNamespaced = builder.attrNamespaced;
+
+    docTypePublicId = builder.docTypePublicId;
+    docTypeSystemId = builder.docTypeSystemId;
+    weight = builder.weight;
+  }
+
+  /**
+   * @return A compact copy of the children of root, or null if they include nodes that can't be
+   *     copied, such as entity references.
+   */
+  static CompactDom copyOf(Node root) {
+    Builder builder = new Builder();
+    return builder.addChildren(root, -1) ? new CompactDom(builder) : null;
+  }
+
+  /**
+   * @return A new Document with the copied nodes as its children.
+   */
+  Document toDocument(DOMImplementation documentFactory) {
+    Document doc = documentFactory.createDocument(null, null, null);
+    appendTo(doc);
+    return doc;
+  }
+
+  /**
+   * Appends new copies of the copied nodes to parent.
+   */
+  void appendTo(Node parent) {
+    Document doc = parent.getNodeType() == Node.DOCUMENT_NODE ?
+        (Document) parent : parent.getOwnerDocument();
+    Node[] created = new Node[types.length];
+    for (int i = 0; i < types.length; ++i) {
+      Node node;
+      switch (types[i]) {
+        case Node.ELEMENT_NODE:
+          node = createElement(doc, i);
+          break;
+        case Node.TEXT_NODE:
+          node = doc.createTextNode(values[i]);
+          break;
+        case Node.COMMENT_NODE:
+          node = doc.createComment(values[i]);
+          break;
+        case Node.CDATA_SECTION_NODE:
+          node = doc.createCDATASection(values[i]);
+          break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          node = doc.createProcessingInstruction(names[i], values[i]);
+          break;
+        case Node.DOCUMENT_TYPE_NODE:
+          node = doc.getImplementation().createDocumentType(
+              names[i], docTypePublicId, docTypeSystemId);
+          break;
+        default:
+          throw new IllegalStateException("Unexpected node type " + types[i]);
+      }
+      created[i] = node;
+      (parents[i] < 0 ? parent : created[parents[i]]).appendChild(node);
+    }
+  }
+
+  private Element createElement(Document doc, int index) {
+    Element element = namespaced.get(index) ?
+        doc.createElementNS(namespaces[index], names[index]) : doc.createElement(names[index]);
+    for (int i = attrStarts[index]; i < attrStarts[index + 1]; ++i) {
+      if (attrNamespaced.get(i)) {
+        element.setAttributeNS(attrNamespaces[i], attrNames[i], attrValues[i]);
+      } else {
+        element.setAttribute(attrNames[i], attrValues[i]);
+      }
+    }
+    return element;
+  }
+
+  public long getWeight() {
+    return weight;
+  }
+
+  private static final class Builder {
+    private final List<Short> types = Lists.newArrayList();
+    private final List<Integer> parents = Lists.newArrayList();
+    private final List<String> names = Lists.newArrayList();
+    private final List<String> values = Lists.newArrayList();
+    private final List<String> namespaces = Lists.newArrayList();
+    private final BitSet namespaced = new BitSet();
+    private final List<Integer> attrStarts = Lists.newArrayList();
+
+    private final List<String> attrNames = Lists.newArrayList();
+    private final List<String> attrValues = Lists.newArrayList();
+    private final List<String> attrNamespaces = Lists.newArrayList();
+    private final BitSet attrNamespaced = new BitSet();
+
+    private String docTypePublicId;
+    private String docTypeSystemId;
+    private long weight;
+
+    /**
+     * Adds the children of node, and their descendants, in document order.
+     *
+     * @return false if a node can't be copied.
+     */
+    private boolean addChildren(Node node, int index) {
+      for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+        int childIndex = add(child, index);
+        if (childIndex < 0 || !addChildren(child, childIndex)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int add(Node node, int parent) {
+      int index = types.size();
+      String name = null;
+      String value = null;
+      String namespace = null;
+      short type = node.getNodeType();
+      switch (type) {
+        case Node.ELEMENT_NODE:
+          name = NAMES.intern(node.getNodeName());
+          if (node.getLocalName() != null) {
+            namespace = node.getNamespaceURI();
+            namespaced.set(index);
+          }
+          break;
+        case Node.TEXT_NODE:
+        case Node.COMMENT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          value = node.getNodeValue();
+          break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+          name = ((ProcessingInstruction) node).getTarget();
+          value = ((ProcessingInstruction) node).getData();
+          break;
+        case Node.DOCUMENT_TYPE_NODE:
+          DocumentType docType = (DocumentType) node;
+          name = docType.getName();
+          docTypePublicId = docType.getPublicId();
+          docTypeSystemId = docType.getSystemId();
+          break;
+        default:
+          return -1;
+      }
+
+      types.add(type);
+      parents.add(parent);
+      names.add(name);
+      values.add(value);
+      namespaces.add(namespace);
+      attrStarts.add(attrNames.size());
+      weight += 32 + (value != null ? 2L * value.length() : 0);
+      if (type == Node.ELEMENT_NODE) {
+        addAttributes(node.getAttributes());
+      }
+      return index;
+    }
+
+    private void addAttributes(NamedNodeMap attributes) {
+      for (int i = 0; i < attributes.getLength(); ++i) {
+        Attr attr = (Attr) attributes.item(i);
+        if (attr.getLocalName() != null) {
+          attrNamespaced.set(attrNames.size());
+        }
+        attrNames.add(NAMES.intern(attr.getName()));
+        attrValues.add(attr.getValue());
+        attrNamespaces.add(attr.getNamespaceURI());
+        weight += 16 + 2L * attr.getValue().length();
+      }
+    }
+  }
+}
@@ -33,22 +33,27 @@ import java.io.StringWriter;
  * This parser does not try to escape entities in text content as it expects the parser
  * to have retained the original entity references rather than its resolved form in text nodes.
  */
-public class DefaultHtmlSerializer implements HtmlSerializer {
+public class DefaultHtmlSerializer implements StreamingHtmlSerializer {
 
   /** {@inheritDoc} */
   public String serialize(Document doc) {
     try {
       StringWriter sw = HtmlSerialization.createWriter(doc);
-      if (doc.getDoctype() != null) {
-        HtmlSerialization.outputDocType(doc.getDoctype(), sw);
-      }
-      this.serialize(doc, sw);
+      serialize(doc, sw);
       return sw.toString();
     } catch (IOException ioe) {
       return null;
     }
   }
 
+  /** {@inheritDoc} */
+  public void serialize(Document doc, Appendable output) throws IOException {
+    if (doc.getDoctype() != null) {
+      HtmlSerialization.outputDocType(doc.getDoctype(), output);
+    }
+    serialize((Node) doc, output);
+  }
+
   public void serialize(Node n, Appendable output) throws IOException {
     serialize(n, output, false);
   }
@@ -23,6 +23,7 @@ import com.google.inject.Provider;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.GadgetException;
@@ -54,8 +55,9 @@ public abstract class GadgetHtmlParser {
   public static final String PARSED_DOCUMENTS = "parsedDocuments";
   public static final String PARSED_FRAGMENTS = "parsedFragments";
 
-  private Cache<String, Document> documentCache;
-  private Cache<String, DocumentFragment> fragmentCache;
+  // Parses are cached in compact form, from which each user gets a fresh DOM.
+  private Cache<String, CompactDom> documentCache;
+  private Cache<String, CompactDom> fragmentCache;
   private Provider<HtmlSerializer> serializerProvider = new DefaultSerializerProvider();
   protected final DOMImplementation documentFactory;
 
@@ -101,10 +103,15 @@ public abstract class GadgetHtmlParser {
     if (shouldCache) {
       // TODO - Consider using the source if its under a certain size
       key = HashUtil.checksum(source.getBytes());
-      document = documentCache.getElement(key);
+      CompactDom cached = documentCache.getElement(key);
+      if (cached != null) {
+        document = cached.toDocument(documentFactory);
+        HtmlSerialization.attach(document, serializerProvider.get(), source);
+      }
     }
 
     if (document == null) {
+      long parseStart = System.nanoTime();
       try {
         document = parseDomImpl(source);
       } catch (DOMException e) {
@@ -206,15 +213,14 @@ public abstract class GadgetHtmlParser {
       reprocessScriptForOpenSocial(html);
 
       if (shouldCache) {
-        documentCache.addElement(key, document);
+        // The parsed document is returned as is: only the compact copy is shared.
+        CompactDom compact = CompactDom.copyOf(document);
+        if (compact != null) {
+          CacheStatsUtil.recordLoad(documentCache, parseStart);
+          documentCache.addElement(key, compact);
+        }
       }
     }
-
-    if (shouldCache) {
-      Document copy = (Document)document.cloneNode(true);
-      HtmlSerialization.copySerializer(document, copy);
-      return copy;
-    }
     return document;
   }
 
@@ -250,14 +256,15 @@ public abstract class GadgetHtmlParser {
     String key = null;
     if (shouldCache) {
       key = HashUtil.checksum(source.getBytes());
-      DocumentFragment cachedFragment = fragmentCache.getElement(key);
+      CompactDom cachedFragment = fragmentCache.getElement(key);
       if (cachedFragment != null) {
-        copyFragment(cachedFragment, result);
+        cachedFragment.appendTo(result);
         return;
       }
     }
 
     DocumentFragment fragment = null;
+    long parseStart = System.nanoTime();
     try {
       fragment = parseFragmentImpl(source);
     } catch (DOMException e) {
@@ -268,7 +275,11 @@ public abstract class GadgetHtmlParser {
 
     reprocessScriptForOpenSocial(fragment);
     if (shouldCache) {
-      fragmentCache.addElement(key, fragment);
+      CompactDom compact = CompactDom.copyOf(fragment);
+      if (compact != null) {
+        CacheStatsUtil.recordLoad(fragmentCache, parseStart);
+        fragmentCache.addElement(key, compact);
+      }
     }
     copyFragment(fragment, result);
   }
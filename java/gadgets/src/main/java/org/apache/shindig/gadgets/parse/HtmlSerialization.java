@@ -65,16 +65,6 @@ public class HtmlSerialization {
     }
   }
 
-  /**
-   * Copy serializer from one document to another. Note this requires that
-   * serializers are thread safe
-   */
-  static void copySerializer(Document from, Document to) {
-    Integer length = (Integer)from.getUserData(ORIGINAL_LENGTH);
-    if (length != null) to.setUserData(ORIGINAL_LENGTH, length, null);
-    to.setUserData(KEY, from.getUserData(KEY), null);
-  }
-
   /**
    * Get the length of the original version of the document
    * @param doc
@@ -110,6 +100,21 @@ public class HtmlSerialization {
     return ((HtmlSerializer) doc.getUserData(KEY)).serialize(doc);
   }
 
+  /**
+   * Call the attached serializer and write the document to output. Serializers that can't
+   * stream produce the whole document as a String first.
+   * @param doc
+   * @param output
+   */
+  public static void serialize(Document doc, Appendable output) throws IOException {
+    HtmlSerializer serializer = (HtmlSerializer) doc.getUserData(KEY);
+    if (serializer instanceof StreamingHtmlSerializer) {
+      ((StreamingHtmlSerializer) serializer).serialize(doc, output);
+    } else {
+      output.append(serializer.serialize(doc));
+    }
+  }
+
   public static void printEscapedText(CharSequence text, Appendable output) throws IOException {
     Escaping.escapeXml(text, true, output);
   }
@@ -22,7 +22,7 @@ import com.google.caja.render.Concatenator;
 import com.google.caja.reporting.MarkupRenderMode;
 import com.google.caja.reporting.RenderContext;
 import org.apache.shindig.gadgets.parse.HtmlSerialization;
-import org.apache.shindig.gadgets.parse.HtmlSerializer;
+import org.apache.shindig.gadgets.parse.StreamingHtmlSerializer;
 import org.w3c.dom.Document;
 
 import java.io.IOException;
@@ -31,25 +31,29 @@ import java.io.StringWriter;
 /**
  * Serializer for VanillaCajaHtmlParser.
  */
-public class VanillaCajaHtmlSerializer implements HtmlSerializer {
+public class VanillaCajaHtmlSerializer implements StreamingHtmlSerializer {
   public String serialize(Document doc) {
     try {
       StringWriter sw = HtmlSerialization.createWriter(doc);
-      if (doc.getDoctype() != null) {
-        HtmlSerialization.outputDocType(doc.getDoctype(), sw);
-      }
-      RenderContext renderContext =
-          new RenderContext(new Concatenator(sw, null))
-              // More compact but needs charset set correctly.
-              .withAsciiOnly(false)
-              .withMarkupRenderMode(MarkupRenderMode.HTML);
-
-      // Use render unsafe in order to retain comments in the serialized HTML.
-      // TODO: This function is deprecated. Use a non-deprecated function.
-      Nodes.renderUnsafe(doc, renderContext);
+      serialize(doc, sw);
       return sw.toString();
     } catch (IOException e) {
       return null;
     }
   }
+
+  public void serialize(Document doc, Appendable output) throws IOException {
+    if (doc.getDoctype() != null) {
+      HtmlSerialization.outputDocType(doc.getDoctype(), output);
+    }
+    RenderContext renderContext =
+        new RenderContext(new Concatenator(output, null))
+            // More compact but needs charset set correctly.
+            .withAsciiOnly(false)
+            .withMarkupRenderMode(MarkupRenderMode.HTML);
+
+    // Use render unsafe in order to retain comments in the serialized HTML.
+    // TODO: This function is deprecated. Use a non-deprecated function.
+    Nodes.renderUnsafe(doc, renderContext);
+  }
 }
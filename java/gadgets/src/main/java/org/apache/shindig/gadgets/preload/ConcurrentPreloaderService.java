@@ -17,14 +17,24 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.common.cache.CacheStatsRegistry;
+import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.Gadget;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.MapMaker;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
 /**
  * Preloads will be fetched concurrently using the injected ExecutorService, and they can be read
@@ -32,10 +42,25 @@ import com.google.inject.Inject;
  *
  * The last preloaded object always executes in the current thread to avoid creating unnecessary
  * additional threads when we're blocking the current request anyway.
+ *
+ * A container may limit how long a render waits for the preloads of a gadget by setting
+ * {@link #DEADLINE_KEY}. Every preload then runs on the executor, since one running in the current
+ * thread couldn't be abandoned, and those not done by the deadline are cancelled and read as
+ * failed. The time each gadget waits for its preloads is available from {@link #getStats}, and is
+ * reported through the {@link CacheStatsRegistry} as "preloads".
  */
+@Singleton
 public class ConcurrentPreloaderService implements PreloaderService {
+  /** Container config key for the time, in milliseconds, a render waits for its preloads. */
+  public static final String DEADLINE_KEY = "gadgets.preload.deadline";
+
+  // Bounds the memory used for statistics; gadgets beyond this are not tracked.
+  static final int MAX_TRACKED_GADGETS = 10000;
+
   private final ExecutorService executor;
   private Preloader preloader;
+  private ContainerConfig containerConfig;
+  private final ConcurrentMap<String, GadgetLatency> latencies = new MapMaker().makeMap();
 
   @Inject
   public ConcurrentPreloaderService(ExecutorService executor, Preloader preloader) {
@@ -43,11 +68,46 @@ public class ConcurrentPreloaderService implements PreloaderService {
     this.preloader = preloader;
   }
 
+  @Inject(optional = true)
+  public void setContainerConfig(ContainerConfig containerConfig) {
+    this.containerConfig = containerConfig;
+  }
+
+  @Inject(optional = true)
+  public void setStatsRegistry(CacheStatsRegistry statsRegistry) {
+    statsRegistry.registerStats("preloads", new Supplier<Map<String, Stats>>() {
+      public Map<String, Stats> get() {
+        return getStats();
+      }
+    });
+  }
+
   public Collection<PreloadedData> preload(Gadget gadget) {
     Collection<Callable<PreloadedData>> tasks =
         preloader.createPreloadTasks(gadget);
 
-    return preload(tasks);
+    if (gadget == null) {
+      return preload(tasks);
+    }
+
+    long deadline = getDeadline(gadget);
+    RenderTimer timer = new RenderTimer(getLatency(gadget.getSpec().getUrl().toString()));
+    ConcurrentPreloads preloads = new ConcurrentPreloads(tasks.size(),
+        TimeUnit.MILLISECONDS.toNanos(deadline), timer);
+    int processed = tasks.size();
+    for (Callable<PreloadedData> task : tasks) {
+      processed -= 1;
+      Callable<PreloadedData> timed = new TimedTask(task, timer);
+      if (processed == 0 && deadline <= 0) {
+        // The last preload fires in the current thread.
+        FutureTask<PreloadedData> futureTask = new FutureTask<PreloadedData>(timed);
+        futureTask.run();
+        preloads.add(futureTask);
+      } else {
+        preloads.add(executor.submit(timed));
+      }
+    }
+    return preloads;
   }
 
   public Collection<PreloadedData> preload(Collection<Callable<PreloadedData>> tasks) {
@@ -66,4 +126,157 @@ public class ConcurrentPreloaderService implements PreloaderService {
     }
     return preloads;
   }
+
+  /**
+   * @return A snapshot of the preload latency of each gadget rendered so far, keyed by gadget url.
+   */
+  public Map<String, Stats> getStats() {
+    ImmutableSortedMap.Builder<String, Stats> stats = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<String, GadgetLatency> entry : latencies.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return stats.build();
+  }
+
+  private long getDeadline(Gadget gadget) {
+    if (containerConfig == null) {
+      return 0;
+    }
+    return containerConfig.getInt(gadget.getContext().getContainer(), DEADLINE_KEY);
+  }
+
+  private GadgetLatency getLatency(String url) {
+    GadgetLatency latency = latencies.get(url);
+    if (latency == null) {
+      if (latencies.size() >= MAX_TRACKED_GADGETS) {
+        return null;
+      }
+      GadgetLatency created = new GadgetLatency();
+      latency = latencies.putIfAbsent(url, created);
+      if (latency == null) {
+        latency = created;
+      }
+    }
+    return latency;
+  }
+
+  /**
+   * Times the preloads of a single render, from their start until the last one finishes or, if
+   * any missed the deadline, until they were abandoned.
+   */
+  private static class RenderTimer implements ConcurrentPreloads.Listener {
+    private final GadgetLatency latency;
+    private final long start = System.nanoTime();
+    private final AtomicLong finish = new AtomicLong(start);
+
+    RenderTimer(GadgetLatency latency) {
+      this.latency = latency;
+    }
+
+    void taskFinished() {
+      long now = System.nanoTime();
+      long last;
+      do {
+        last = finish.get();
+      } while (now - last > 0 && !finish.compareAndSet(last, now));
+    }
+
+    public void preloadsResolved(int timedOutCount) {
+      if (latency != null) {
+        long end = timedOutCount > 0 ? System.nanoTime() : finish.get();
+        latency.record(end - start, timedOutCount);
+      }
+    }
+  }
+
+  private static class TimedTask implements Callable<PreloadedData> {
+    private final Callable<PreloadedData> task;
+    private final RenderTimer timer;
+
+    TimedTask(Callable<PreloadedData> task, RenderTimer timer) {
+      this.task = task;
+      this.timer = timer;
+    }
+
+    public PreloadedData call() throws Exception {
+      try {
+        return task.call();
+      } finally {
+        timer.taskFinished();
+      }
+    }
+  }
+
+  private static class GadgetLatency {
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+
+    void record(long nanos, int timedOutCount) {
+      renders.incrementAndGet();
+      timeouts.addAndGet(timedOutCount);
+      totalTime.addAndGet(nanos);
+      long max;
+      do {
+        max = maxTime.get();
+      } while (nanos > max && !maxTime.compareAndSet(max, nanos));
+    }
+
+    Stats snapshot() {
+      return new Stats(renders.get(), timeouts.get(), totalTime.get(), maxTime.get());
+    }
+  }
+
+  /**
+   * Point-in-time preload metrics for a gadget.
+   */
+  public static class Stats {
+    private final long renderCount;
+    private final long timeoutCount;
+    private final long totalTime;
+    private final long maxTime;
+
+    Stats(long renderCount, long timeoutCount, long totalTime, long maxTime) {
+      this.renderCount = renderCount;
+      this.timeoutCount = timeoutCount;
+      this.totalTime = totalTime;
+      this.maxTime = maxTime;
+    }
+
+    /**
+     * @return The number of renders whose preloads have been read.
+     */
+    public long getRenderCount() {
+      return renderCount;
+    }
+
+    /**
+     * @return The number of preloads cancelled for missing the deadline.
+     */
+    public long getTimeoutCount() {
+      return timeoutCount;
+    }
+
+    /**
+     * @return The total time, in nanoseconds, renders spent waiting for preloads.
+     */
+    public long getTotalTime() {
+      return totalTime;
+    }
+
+    /**
+     * @return The longest time, in nanoseconds, a render spent waiting for preloads.
+     */
+    public long getMaxTime() {
+      return maxTime;
+    }
+
+    /**
+     * @return The average time, in nanoseconds, a render spent waiting for preloads.
+     */
+    public double getAverageTime() {
+      return renderCount == 0 ? 0.0 : (double) totalTime / renderCount;
+    }
+  }
 }
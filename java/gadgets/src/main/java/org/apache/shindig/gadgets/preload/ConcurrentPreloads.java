@@ -22,9 +22,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
 /**
@@ -34,14 +37,37 @@ import com.google.common.collect.Lists;
  */
 class ConcurrentPreloads extends ForwardingCollection<PreloadedData> {
   private final List<Future<PreloadedData>> tasks;
+  private final long startNanos;
+  private final long timeoutNanos;
+  private final Listener listener;
   private Collection<PreloadedData> loaded;
 
   ConcurrentPreloads() {
-    tasks = Lists.newArrayList();
+    this(Lists.<Future<PreloadedData>>newArrayList(), 0, null);
   }
 
   ConcurrentPreloads(int size) {
-    tasks = Lists.newArrayListWithCapacity(size);
+    this(Lists.<Future<PreloadedData>>newArrayListWithCapacity(size), 0, null);
+  }
+
+  /**
+   * Creates preloads that are all resolved when first read, waiting no longer than timeoutNanos
+   * from now for them. Preloads still running then are cancelled and read as
+   * {@link TimedOutPreload}s.
+   *
+   * @param timeoutNanos The time to wait, or 0 to wait for every preload.
+   * @param listener Notified once the preloads have been resolved; may be null.
+   */
+  ConcurrentPreloads(int size, long timeoutNanos, Listener listener) {
+    this(Lists.<Future<PreloadedData>>newArrayListWithCapacity(size), timeoutNanos, listener);
+  }
+
+  private ConcurrentPreloads(List<Future<PreloadedData>> tasks, long timeoutNanos,
+      Listener listener) {
+    this.tasks = tasks;
+    this.startNanos = System.nanoTime();
+    this.timeoutNanos = timeoutNanos;
+    this.listener = listener;
   }
 
   /**
@@ -64,6 +90,9 @@ class ConcurrentPreloads extends ForwardingCollection<PreloadedData> {
   }
 
   private Collection<PreloadedData> getData() {
+    if (timeoutNanos > 0 || listener != null) {
+      return resolve();
+    }
     return Lists.transform(tasks, new Function<Future<PreloadedData>, PreloadedData>() {
       public PreloadedData apply(Future<PreloadedData> preloadedDataFuture) {
         return getPreloadedData(preloadedDataFuture);
@@ -85,8 +114,52 @@ class ConcurrentPreloads extends ForwardingCollection<PreloadedData> {
     }
   }
 
+  /**
+   * Resolves every preload up front, so that a preload finishing after the deadline can't change
+   * what has already been read.
+   */
+  private Collection<PreloadedData> resolve() {
+    ImmutableList.Builder<PreloadedData> data = ImmutableList.builder();
+    int timedOut = 0;
+    for (Future<PreloadedData> task : tasks) {
+      if (timeoutNanos <= 0) {
+        data.add(getPreloadedData(task));
+        continue;
+      }
+      try {
+        long remaining = startNanos + timeoutNanos - System.nanoTime();
+        data.add(task.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS));
+      } catch (TimeoutException te) {
+        if (task.cancel(true)) {
+          timedOut++;
+          data.add(new TimedOutPreload(TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        } else {
+          // Finished while timing out.
+          data.add(getPreloadedData(task));
+        }
+      } catch (ExecutionException ee) {
+        data.add(new FailedPreload(ee.getCause()));
+      } catch (InterruptedException ie) {
+        // Do NOT Propagate the interrupt
+        throw new RuntimeException("Preloading was interrupted by thread termination", ie);
+      }
+    }
+    if (listener != null) {
+      listener.preloadsResolved(timedOut);
+    }
+    return data.build();
+  }
+
+  /** Notified when preloads created with a listener have been resolved. */
+  interface Listener {
+    /**
+     * @param timedOutCount The number of preloads cancelled for missing the deadline.
+     */
+    void preloadsResolved(int timedOutCount);
+  }
+
   /** PreloadData implementation that reports failure */
-  private static class FailedPreload implements PreloadedData {
+  static class FailedPreload implements PreloadedData {
     private final Throwable t;
 
     public FailedPreload(Throwable t) {
@@ -101,4 +174,17 @@ class ConcurrentPreloads extends ForwardingCollection<PreloadedData> {
       throw new PreloadException(t);
     }
   }
+
+  /** PreloadData implementation for a preload cancelled because it missed the deadline */
+  static class TimedOutPreload implements PreloadedData {
+    private final long timeoutMs;
+
+    public TimedOutPreload(long timeoutMs) {
+      this.timeoutMs = timeoutMs;
+    }
+
+    public Collection<Object> toJson() throws PreloadException {
+      throw new PreloadException("Preload timed out after " + timeoutMs + "ms");
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.preload;
+
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.JsonRpcServlet;
+import org.apache.shindig.protocol.ProtocolException;
+import org.apache.shindig.protocol.ResponseItem;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
+import org.apache.shindig.protocol.multipart.FormDataItem;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Runs social pipelined data requests against the JSON-RPC handlers of this JVM, instead of
+ * posting them to the JSON-RPC servlet. Results have the same form as the servlet's, but no
+ * request is serialized or sent over a socket.
+ */
+class InProcessSocialDispatcher {
+  private static final Map<String, FormDataItem> NO_FORM_ITEMS = Collections.emptyMap();
+
+  private final HandlerRegistry registry;
+  private final BeanJsonConverter converter;
+  private final String resultField;
+
+  /**
+   * @param registry Registry holding the JSON-RPC handlers.
+   * @param converter Converter for handler results.
+   * @param resultField The field results are returned in, as configured for the JSON-RPC
+   *     servlet by shindig.json-rpc.result-field: "result", "data" or "both".
+   */
+  InProcessSocialDispatcher(HandlerRegistry registry, BeanJsonConverter converter,
+      String resultField) {
+    this.registry = registry;
+    this.converter = converter;
+    this.resultField = resultField;
+  }
+
+  /**
+   * Executes a batch of JSON-RPC requests for token.
+   *
+   * @return The response to each request, in order, in the form returned by the JSON-RPC servlet.
+   */
+  List<Object> dispatch(Collection<? extends Object> requests, SecurityToken token)
+      throws JSONException {
+    // Start every request before waiting for any, as the servlet does, so that handlers can
+    // batch them.
+    List<Future<?>> futures = Lists.newArrayListWithCapacity(requests.size());
+    for (Object request : requests) {
+      futures.add(registry.getRpcHandler((JSONObject) request)
+          .execute(NO_FORM_ITEMS, token, converter));
+    }
+
+    List<Object> responses = Lists.newArrayListWithCapacity(requests.size());
+    int i = 0;
+    for (Object request : requests) {
+      JSONObject rpc = (JSONObject) request;
+      Map<String, Object> response = Maps.newHashMap();
+      if (rpc.has("id")) {
+        response.put("id", rpc.getString("id"));
+      }
+
+      ResponseItem item = getResponseItem(futures.get(i++));
+      if (item.getErrorCode() < 200 || item.getErrorCode() >= 400) {
+        response.put("error", JsonRpcServlet.getErrorJson(item));
+      } else {
+        Object result = JsonRpcServlet.getResultJson(item.getResponse());
+        if ("both".equals(resultField)) {
+          response.put("result", result);
+          response.put("data", result);
+        } else {
+          response.put(resultField, result);
+        }
+      }
+      responses.add(response);
+    }
+
+    // Handlers return beans. Converting them the way the servlet does gives the same JSON
+    // objects that a fetch from the servlet would have been parsed into.
+    return PipelinedDataPreloader.parseSocialResponse(requests,
+        converter.convertToString(responses));
+  }
+
+  private static ResponseItem getResponseItem(Future<?> future) {
+    try {
+      Object result = future != null ? future.get() : null;
+      return new ResponseItem(result != null ? result : Collections.emptyMap());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ResponseItem(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ProtocolException) {
+        ProtocolException pe = (ProtocolException) cause;
+        return new ResponseItem(pe.getCode(), pe.getMessage(), pe.getResponse());
+      }
+      return new ResponseItem(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause.getMessage());
+    }
+  }
+}
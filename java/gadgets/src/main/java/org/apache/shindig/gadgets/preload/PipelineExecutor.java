@@ -31,6 +31,12 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,13 +45,19 @@ import javax.el.CompositeELResolver;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Runs data pipelining, chaining dependencies among batches as needed.
+ *
+ * When an executor is available, each item is started as soon as the data it refers to has
+ * arrived, rather than waiting for every item of the previous batch to finish, and the whole
+ * pipeline is bounded by a single deadline.
  */
 public class PipelineExecutor {
   // TODO: support configuration
   private static final int MAX_BATCH_COUNT = 3;
+  static final long DEFAULT_DEADLINE = 10000L;
   //class name for logging purpose
   private static final String classname = PipelineExecutor.class.getName();
   private static final Logger LOG = Logger.getLogger(classname,MessageKeys.MESSAGES);
@@ -54,6 +66,8 @@ public class PipelineExecutor {
   private final PipelinedDataPreloader preloader;
   private final PreloaderService preloaderService;
   private final Expressions expressions;
+  private ExecutorService executor;
+  private long deadline = DEFAULT_DEADLINE;
 
   @Inject
   public PipelineExecutor(PipelinedDataPreloader preloader,
@@ -64,6 +78,24 @@ public class PipelineExecutor {
     this.expressions = expressions;
   }
 
+  /**
+   * Enables dependency-driven scheduling of pipelined data on executor. Without an executor,
+   * pipelines run in rounds through the PreloaderService.
+   */
+  @Inject(optional = true)
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * @param deadline How long, in milliseconds, a scheduled pipeline may run for in total. Items
+   *     that haven't finished by then are left to the client, as if their inputs were missing.
+   */
+  @Inject(optional = true)
+  public void setDeadline(@Named("shindig.preload.pipeline.deadline-ms") long deadline) {
+    this.deadline = deadline;
+  }
+
   /**
    * Results from a full pipeline execution.
    */
@@ -100,6 +132,10 @@ public class PipelineExecutor {
    * @return results from the pipeline, or null if there are no results
    */
   public Results execute(GadgetContext context, Collection<PipelinedData> pipelines) {
+    if (executor != null) {
+      return executeScheduled(context, pipelines);
+    }
+
     List<Object> results = Lists.newArrayList();
     Map<String, Object> elResults = Maps.newHashMap();
     CompositeELResolver rootObjects = new CompositeELResolver();
@@ -127,33 +163,7 @@ public class PipelineExecutor {
 
       Collection<PreloadedData> preloads = preloaderService.preload(tasks);
       for (PreloadedData preloaded : preloads) {
-        try {
-          for (Object entry : preloaded.toJson()) {
-            results.add(entry);
-
-            String id = (String) JsonUtil.getProperty(entry, "id");
-
-            Object data = JsonUtil.getProperty(entry, "result");
-            if (data == null) {
-              // For backward compatiblity, check maybe return old 'data' field:
-              data = JsonUtil.getProperty(entry, "data");
-            }
-            if (data != null) {
-              elResults.put(id, data);
-            } else {
-              Object error = JsonUtil.getProperty(entry, "error");
-              if (error != null) {
-                elResults.put(id, error);
-              }
-            }
-          }
-        } catch (PreloadException pe) {
-          // This will be thrown in the event of some unexpected exception. We can move on.
-          if (LOG.isLoggable(Level.WARNING)) {
-            LOG.logp(Level.WARNING, classname, "execute", MessageKeys.ERROR_PRELOADING);
-            LOG.log(Level.WARNING, "", pe);
-          } 
-        }
+        addResults(preloaded, results, elResults);
       }
 
       // Advance to the next batch
@@ -179,6 +189,144 @@ public class PipelineExecutor {
     return new Results(remainingPipelines, results, elResults);
   }
 
+  /**
+   * Executes pipelines by starting each item as soon as it can be evaluated. Every time a task
+   * finishes, its results are added and the pending items of every pipeline are evaluated again.
+   * The items that can now be evaluated are started right away, without waiting for unrelated
+   * tasks. An item started because of a task's results is one generation past that task. No more
+   * than MAX_BATCH_COUNT generations are started, the same as the number of rounds, and
+   * pipelines with items beyond that are left over.
+   */
+  private Results executeScheduled(GadgetContext context, Collection<PipelinedData> pipelines) {
+    List<Object> results = Lists.newArrayList();
+    Map<String, Object> elResults = Maps.newHashMap();
+    CompositeELResolver rootObjects = new CompositeELResolver();
+    rootObjects.add(new GadgetELResolver(context));
+    rootObjects.add(new RootELResolver(elResults));
+
+    CompletionService<PreloadedData> completionService =
+        new ExecutorCompletionService<PreloadedData>(executor);
+    Map<Future<PreloadedData>, ScheduledTask> running = Maps.newHashMap();
+
+    List<PipelineState> pipelineStates = Lists.newArrayList();
+    for (PipelinedData pipeline : pipelines) {
+      PipelineState state =
+          new PipelineState(pipeline, pipeline.getBatch(expressions, rootObjects));
+      pipelineStates.add(state);
+      start(context, state, 1, completionService, running);
+    }
+
+    long end = System.currentTimeMillis() + deadline;
+    try {
+      while (!running.isEmpty()) {
+        long remaining = end - System.currentTimeMillis();
+        Future<PreloadedData> done = remaining > 0 ?
+            completionService.poll(remaining, TimeUnit.MILLISECONDS) : null;
+        if (done == null) {
+          break;
+        }
+
+        ScheduledTask task = running.remove(done);
+        task.state.running--;
+        addResults(getPreloadedData(done), results, elResults);
+
+        for (PipelineState state : pipelineStates) {
+          if (state.batch != null && !state.stalled) {
+            state.batch = state.batch.getNextBatch(rootObjects);
+            if (state.batch != null && !state.batch.getPreloads().isEmpty()) {
+              if (task.generation < MAX_BATCH_COUNT) {
+                start(context, state, task.generation + 1, completionService, running);
+              } else {
+                // Evaluated too deep to start. Keep the batch so the pipeline is left over.
+                state.stalled = true;
+              }
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    List<PipelinedData> remainingPipelines = Lists.newArrayList();
+    for (Map.Entry<Future<PreloadedData>, ScheduledTask> entry : running.entrySet()) {
+      // Tasks that missed the deadline finish in the background; queued ones needn't start.
+      entry.getKey().cancel(false);
+    }
+    for (PipelineState pipeline : pipelineStates) {
+      if (pipeline.batch != null || pipeline.running > 0) {
+        remainingPipelines.add(pipeline.pipeline);
+      }
+    }
+
+    return new Results(remainingPipelines, results, elResults);
+  }
+
+  private void start(GadgetContext context, PipelineState state, int generation,
+      CompletionService<PreloadedData> completionService,
+      Map<Future<PreloadedData>, ScheduledTask> running) {
+    if (state.batch == null) {
+      return;
+    }
+
+    ScheduledTask scheduled = new ScheduledTask(state, generation);
+    for (Callable<PreloadedData> task : preloader.createPreloadTasks(context, state.batch)) {
+      running.put(completionService.submit(task), scheduled);
+      state.running++;
+    }
+  }
+
+  private static PreloadedData getPreloadedData(Future<PreloadedData> future)
+      throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      return new ConcurrentPreloads.FailedPreload(e.getCause());
+    }
+  }
+
+  private static void addResults(PreloadedData preloaded, List<Object> results,
+      Map<String, Object> elResults) {
+    try {
+      for (Object entry : preloaded.toJson()) {
+        results.add(entry);
+
+        String id = (String) JsonUtil.getProperty(entry, "id");
+
+        Object data = JsonUtil.getProperty(entry, "result");
+        if (data == null) {
+          // For backward compatiblity, check maybe return old 'data' field:
+          data = JsonUtil.getProperty(entry, "data");
+        }
+        if (data != null) {
+          elResults.put(id, data);
+        } else {
+          Object error = JsonUtil.getProperty(entry, "error");
+          if (error != null) {
+            elResults.put(id, error);
+          }
+        }
+      }
+    } catch (PreloadException pe) {
+      // This will be thrown in the event of some unexpected exception. We can move on.
+      if (LOG.isLoggable(Level.WARNING)) {
+        LOG.logp(Level.WARNING, classname, "execute", MessageKeys.ERROR_PRELOADING);
+        LOG.log(Level.WARNING, "", pe);
+      }
+    }
+  }
+
+  /** A started task, with the pipeline it belongs to */
+  private static class ScheduledTask {
+    private final PipelineState state;
+    private final int generation;
+
+    ScheduledTask(PipelineState state, int generation) {
+      this.state = state;
+      this.generation = generation;
+    }
+  }
+
   /** State of one of the pipelines */
   static class PipelineState {
     public PipelineState(PipelinedData pipeline, Batch batch) {
@@ -188,5 +336,9 @@ public class PipelineExecutor {
 
     public final PipelinedData pipeline;
     public PipelinedData.Batch batch;
+    // Tasks started for this pipeline that haven't finished.
+    int running;
+    // Whether the batch holds items that will not be started.
+    boolean stalled;
   }
 }
@@ -34,6 +34,8 @@ import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.PipelinedData;
 import org.apache.shindig.gadgets.spec.RequestAuthenticationInfo;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -52,6 +54,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Processes a single batch of pipeline data into tasks.
@@ -59,6 +62,7 @@ import com.google.inject.Inject;
 public class PipelinedDataPreloader {
   private final RequestPipeline requestPipeline;
   private final ContainerConfig config;
+  private InProcessSocialDispatcher socialDispatcher;
 
   private static final Set<String> HTTP_RESPONSE_HEADERS =
     ImmutableSet.of("content-type", "location", "set-cookie");
@@ -69,6 +73,32 @@ public class PipelinedDataPreloader {
     this.config = config;
   }
 
+  /**
+   * Enables running social requests against the JSON-RPC handlers of this server, rather than
+   * fetching them from gadgets.osDataUri. Requests are only run in process when the container's
+   * gadgets.osDataUri points back at the host the gadget was requested from; otherwise the
+   * social API runs elsewhere and is fetched as usual.
+   *
+   * @param registry The registry to run requests with.
+   * @param handlers The handlers served by the JSON-RPC servlet.
+   * @param inProcess Whether to run social requests in process.
+   * @param resultField The JSON-RPC result field, so that results have the usual form.
+   */
+  @Inject(optional = true)
+  public void setInProcessSocialRequests(HandlerRegistry registry,
+      @Named("org.apache.shindig.handlers") Set<Object> handlers,
+      BeanJsonConverter converter,
+      @Named("shindig.preload.social.in-process") boolean inProcess,
+      @Named("shindig.json-rpc.result-field") String resultField) {
+    if (!inProcess) {
+      socialDispatcher = null;
+      return;
+    }
+
+    registry.addHandlers(handlers);
+    socialDispatcher = new InProcessSocialDispatcher(registry, converter, resultField);
+  }
+
   /** Create preload tasks from a batch of social and http preloads */
   public Collection<Callable<PreloadedData>> createPreloadTasks(GadgetContext context,
       PipelinedData.Batch batch) {
@@ -147,6 +177,15 @@ public class PipelinedDataPreloader {
     }
 
     public PreloadedData call() throws Exception {
+      if (socialDispatcher != null && context.getToken() != null && isLocalSocialUri(context)) {
+        final List<Object> data = socialDispatcher.dispatch(socialRequests, context.getToken());
+        return new PreloadedData() {
+          public Collection<Object> toJson() {
+            return data;
+          }
+        };
+      }
+
       HttpResponse response;
       
       String token = context.getParameter("st");
@@ -381,6 +420,19 @@ public class PipelinedDataPreloader {
     return error;
   }
 
+  /**
+   * @return Whether gadgets.osDataUri resolves to the host the gadget was requested from, so
+   *     that social requests would reach the handlers of this server.
+   */
+  private boolean isLocalSocialUri(GadgetContext context) {
+    String jsonUri = config.getString(context.getContainer(), "gadgets.osDataUri");
+    if (jsonUri == null) {
+      return false;
+    }
+    String authority = Uri.parse(jsonUri.replace("%host%", context.getHost())).getAuthority();
+    return authority == null || authority.equalsIgnoreCase(context.getHost());
+  }
+
   private Uri getSocialUri(GadgetContext context, String token) {
     String jsonUri = config.getString(context.getContainer(), "gadgets.osDataUri");
     Preconditions.checkNotNull(jsonUri, "No JSON URI available for social preloads");
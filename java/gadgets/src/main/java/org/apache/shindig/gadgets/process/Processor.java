@@ -17,7 +17,11 @@
  */
 package org.apache.shindig.gadgets.process;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
+import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.Gadget;
@@ -28,12 +32,17 @@ import org.apache.shindig.gadgets.GadgetSpecFactory;
 import org.apache.shindig.gadgets.features.FeatureRegistry;
 import org.apache.shindig.gadgets.features.FeatureRegistryProvider;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.apache.shindig.gadgets.spec.UserPref;
 import org.apache.shindig.gadgets.spec.View;
 import org.apache.shindig.gadgets.variables.VariableSubstituter;
 
+import com.google.common.base.Objects;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,11 +56,15 @@ public class Processor {
   //class name for logging purpose
   private static final String classname = Processor.class.getName();
   private static final Logger LOG = Logger.getLogger(classname,MessageKeys.MESSAGES);
+  public static final String SUBSTITUTED_SPEC_CACHE_NAME = "substitutedSpecs";
+  static final long DEFAULT_SUBSTITUTED_SPEC_MAX_AGE = 1000L * 60 * 5;
   private final GadgetSpecFactory gadgetSpecFactory;
   private final VariableSubstituter substituter;
   private final ContainerConfig containerConfig;
   private final GadgetBlacklist blacklist;
   private final FeatureRegistryProvider featureRegistryProvider;
+  private Cache<SubstitutionKey, SubstitutedSpec> substitutedSpecCache;
+  private long substitutedSpecMaxAge = DEFAULT_SUBSTITUTED_SPEC_MAX_AGE;
 
   @Inject
   public Processor(GadgetSpecFactory gadgetSpecFactory,
@@ -66,6 +79,30 @@ public class Processor {
     this.featureRegistryProvider = featureRegistryProvider;
   }
 
+  /**
+   * Enables caching of substituted specs. A spec is substituted once per locale, container, view,
+   * module id and set of declared user pref values, for as long as its content is unchanged.
+   *
+   * Only enable this when every configured Substituter depends on nothing else in the context.
+   */
+  @Inject(optional = true)
+  public void setSubstitutedSpecCache(CacheProvider cacheProvider,
+      @Named("shindig.process.substituted-spec-cache.enabled") boolean enabled) {
+    substitutedSpecCache = enabled ?
+        cacheProvider.<SubstitutionKey, SubstitutedSpec>createCache(SUBSTITUTED_SPEC_CACHE_NAME) :
+        null;
+  }
+
+  /**
+   * @param substitutedSpecMaxAge How long a substituted spec is cached for, in milliseconds. This
+   *     is the refresh interval of message bundles, which substitutions are drawn from.
+   */
+  @Inject(optional = true)
+  public void setSubstitutedSpecMaxAge(
+      @Named("shindig.cache.xml.refreshInterval") long substitutedSpecMaxAge) {
+    this.substitutedSpecMaxAge = substitutedSpecMaxAge;
+  }
+
   protected void validateGadgetUrl(Uri url) throws ProcessingException {
     if (!"http".equalsIgnoreCase(url.getScheme()) && !"https".equalsIgnoreCase(url.getScheme())) {
       throw new ProcessingException("Unsupported scheme (must be http or https).",
@@ -85,7 +122,7 @@ public class Processor {
 
     try {
       spec = gadgetSpecFactory.getGadgetSpec(context);
-      spec = substituter.substitute(context, spec);
+      spec = substitute(context, spec);
 
       if (context.getSanitize()) {
         spec = spec.removeUrlViews();
@@ -120,6 +157,30 @@ public class Processor {
         .setCurrentView(getView(context, spec));
   }
 
+  /**
+   * Substitutes variables into spec, reusing an earlier substitution of a spec with the same url
+   * and content, and the same inputs, when one is cached.
+   */
+  private GadgetSpec substitute(GadgetContext context, GadgetSpec spec) throws GadgetException {
+    if (substitutedSpecCache == null || context.getIgnoreCache()) {
+      return substituter.substitute(context, spec);
+    }
+
+    SubstitutionKey key = new SubstitutionKey(context, spec);
+    long now = HttpUtil.getTimeSource().currentTimeMillis();
+    SubstitutedSpec cached = substitutedSpecCache.getElement(key);
+    if (cached != null && cached.expiration > now) {
+      return cached.spec;
+    }
+
+    long substituteStart = System.nanoTime();
+    GadgetSpec substituted = substituter.substitute(context, spec);
+    CacheStatsUtil.recordLoad(substitutedSpecCache, substituteStart);
+    substitutedSpecCache.addElement(key,
+        new SubstitutedSpec(substituted, now + substitutedSpecMaxAge));
+    return substituted;
+  }
+
   /**
    * Attempts to extract the "current" view for the given gadget.
    */
@@ -142,4 +203,68 @@ public class Processor {
     }
     return view;
   }
+
+  /**
+   * Everything the default substituters read from a context, along with the url and checksum of
+   * the unsubstituted spec. Specs are parsed anew on each refetch and for every raw xml render,
+   * so their content identifies them rather than the instance. A spec whose content changes gets
+   * a new checksum, so its stale substitutions are never reused and simply age out of the cache.
+   */
+  private static final class SubstitutionKey {
+    private final Uri specUrl;
+    private final String specChecksum;
+    private final Locale locale;
+    private final String container;
+    private final String view;
+    private final int moduleId;
+    private final String[] prefs;
+    private final int hashCode;
+
+    SubstitutionKey(GadgetContext context, GadgetSpec spec) {
+      this.specUrl = spec.getUrl();
+      this.specChecksum = spec.getChecksum();
+      this.locale = context.getLocale();
+      this.container = context.getContainer();
+      this.view = context.getView();
+      this.moduleId = context.getModuleId();
+      // Only the values of declared prefs are substituted, so undeclared ones don't split keys.
+      prefs = new String[spec.getUserPrefs().size()];
+      int i = 0;
+      for (UserPref pref : spec.getUserPrefs().values()) {
+        prefs[i++] = context.getUserPrefs().getPref(pref.getName());
+      }
+      this.hashCode = Objects.hashCode(specUrl, specChecksum, locale, container, view, moduleId,
+          Arrays.hashCode(prefs));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      if (!(obj instanceof SubstitutionKey)) {
+        return false;
+      }
+      SubstitutionKey other = (SubstitutionKey) obj;
+      return Objects.equal(specUrl, other.specUrl) &&
+          Objects.equal(specChecksum, other.specChecksum) && moduleId == other.moduleId &&
+          Objects.equal(locale, other.locale) && Objects.equal(container, other.container) &&
+          Objects.equal(view, other.view) && Arrays.equals(prefs, other.prefs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class SubstitutedSpec {
+    private final GadgetSpec spec;
+    private final long expiration;
+
+    SubstitutedSpec(GadgetSpec spec, long expiration) {
+      this.spec = spec;
+      this.expiration = expiration;
+    }
+  }
 }
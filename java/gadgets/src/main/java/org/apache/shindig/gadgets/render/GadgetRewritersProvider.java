@@ -22,6 +22,7 @@ package org.apache.shindig.gadgets.render;
 import java.util.List;
 
 import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.rewrite.DomWalker;
 import org.apache.shindig.gadgets.rewrite.GadgetRewriter;
 
 import com.google.inject.Inject;
@@ -34,7 +35,7 @@ import com.google.inject.name.Named;
  * @since 2.0.0
  */
 public class GadgetRewritersProvider {
-  private final List<GadgetRewriter> renderRewriters;
+  private List<GadgetRewriter> renderRewriters;
 
   @Inject
   public GadgetRewritersProvider(
@@ -42,6 +43,18 @@ public class GadgetRewritersProvider {
     this.renderRewriters = renderRewriters;
   }
 
+  /**
+   * @param fuseDomWalkers True to have consecutive {@link DomWalker.Rewriter}s share their walks
+   *     of the DOM, see {@link DomWalker.FusedRewriter}.
+   */
+  @Inject(optional = true)
+  public void setFuseDomWalkers(
+      @Named("shindig.rewriters.gadget.fuse-dom-walkers") boolean fuseDomWalkers) {
+    if (fuseDomWalkers) {
+      renderRewriters = DomWalker.fuse(renderRewriters);
+    }
+  }
+
   public List<GadgetRewriter> getRewriters(GadgetContext context) {
     return renderRewriters;
   }
@@ -18,7 +18,15 @@
  */
 package org.apache.shindig.gadgets.render;
 
+import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
+import org.apache.shindig.common.cache.Weighable;
+import org.apache.shindig.common.servlet.HttpUtil;
+import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
 import org.apache.shindig.gadgets.preload.PreloadedData;
@@ -29,18 +37,29 @@ import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.spec.View;
 
 import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.base.Strings;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 /**
  * Handles producing output markup for a gadget based on the provided context.
  */
-public class HtmlRenderer {
+public class HtmlRenderer implements ContainerConfig.ConfigObserver {
   public static final String PATH_PARAM = "path";
+  public static final String OUTPUT_CACHE_NAME = "renderedGadgets";
+  static final long DEFAULT_OUTPUT_MAX_AGE = 1000L * 60 * 5;
   private final PreloaderService preloader;
   private final ProxyRenderer proxyRenderer;
   private final GadgetRewritersProvider gadgetRewritersProvider;
   private final GadgetHtmlParser htmlParser;
+  private Cache<String, RenderedOutput> outputCache;
+  private long outputMaxAge = DEFAULT_OUTPUT_MAX_AGE;
+  // Shared by every instance, as they all use the same named cache.
+  private static final AtomicInteger CONFIG_VERSION = new AtomicInteger();
 
   @Inject
   public HtmlRenderer(PreloaderService preloader,
@@ -53,6 +72,41 @@ public class HtmlRenderer {
     this.htmlParser = htmlParser;
   }
 
+  /**
+   * Enables caching of the rendered output of views that are the same for every viewer. A cached
+   * view is returned without parsing or rewriting. Views with preloads are never cached, since
+   * fresh preloaded data is injected into every render.
+   */
+  @Inject(optional = true)
+  public void setOutputCache(CacheProvider cacheProvider,
+      @Named("shindig.render.output-cache.enabled") boolean enabled) {
+    outputCache = enabled ? cacheProvider.<String, RenderedOutput>createCache(OUTPUT_CACHE_NAME)
+        : null;
+  }
+
+  /**
+   * @param outputMaxAge How long rendered output is cached for, in milliseconds. This is the
+   *     refresh interval of specs and message bundles, which the output is derived from.
+   */
+  @Inject(optional = true)
+  public void setOutputMaxAge(@Named("shindig.cache.xml.refreshInterval") long outputMaxAge) {
+    this.outputMaxAge = outputMaxAge;
+  }
+
+  /**
+   * Container configuration is written into rendered output, so any change to it invalidates
+   * cached output.
+   */
+  @Inject(optional = true)
+  public void setContainerConfig(ContainerConfig config) {
+    config.addConfigObserver(this, false);
+  }
+
+  public void containersChanged(
+      ContainerConfig config, Collection<String> changed, Collection<String> removed) {
+    CONFIG_VERSION.incrementAndGet();
+  }
+
   /**
    * Render the gadget into a string by performing the following steps:
    *
@@ -67,10 +121,34 @@ public class HtmlRenderer {
    * @throws RenderingException if any issues arise that prevent rendering.
    */
   public String render(Gadget gadget) throws RenderingException {
+    return renderContent(gadget).getContent();
+  }
+
+  /**
+   * Render the gadget as {@link #render} does, but without serializing the rewritten content
+   * to a String. Callers that only write the content out can use
+   * {@link MutableContent#writeContent} to serialize it directly to their output.
+   *
+   * @param gadget The gadget for the rendering operation.
+   * @return The rendered gadget content
+   * @throws RenderingException if any issues arise that prevent rendering.
+   */
+  public MutableContent renderContent(Gadget gadget) throws RenderingException {
     try {
       View view = gadget.getCurrentView();
 
-      // We always execute these preloads, they have nothing to do with the cache output.
+      String cacheKey = null;
+      if (outputCache != null && isOutputCacheable(gadget, view)) {
+        cacheKey = getOutputCacheKey(gadget, view);
+        RenderedOutput cached = outputCache.getElement(cacheKey);
+        if (cached != null &&
+            cached.expiration > HttpUtil.getTimeSource().currentTimeMillis()) {
+          return new MutableContent(htmlParser, cached.content);
+        }
+      }
+      long renderStart = System.nanoTime();
+
+      // We always execute these preloads. Views that have any are never cached.
       Collection<PreloadedData> preloads = preloader.preload(gadget);
       gadget.setPreloads(preloads);
 
@@ -87,8 +165,13 @@ public class HtmlRenderer {
           gadgetRewritersProvider.getRewriters(gadget.getContext())) {
         rewriter.rewrite(gadget, mc);
       }
-      
-      return mc.getContent();
+
+      if (cacheKey != null) {
+        CacheStatsUtil.recordLoad(outputCache, renderStart);
+        outputCache.addElement(cacheKey, new RenderedOutput(mc.getContent(),
+            HttpUtil.getTimeSource().currentTimeMillis() + outputMaxAge));
+      }
+      return mc;
     } catch (GadgetException e) {
       throw new RenderingException(e.getMessage(), e, e.getHttpStatusCode());
     } catch (RewritingException e) {
@@ -99,4 +182,61 @@ public class HtmlRenderer {
   protected String getViewContent(Gadget gadget, View view) {
     return view.getContent();
   }
+
+  /**
+   * @return true if the output for the view can be shared by every request with the same
+   *     {@link #getOutputCacheKey}: the content is inline, the request is anonymous, and there
+   *     is no preload or pipelined data, whose results are injected afresh into every render.
+   */
+  protected boolean isOutputCacheable(Gadget gadget, View view) {
+    GadgetContext context = gadget.getContext();
+    if (view.getHref() != null || context.getIgnoreCache()) {
+      return false;
+    }
+    SecurityToken token = context.getToken();
+    if (token != null && (!token.isAnonymous() ||
+        !Strings.isNullOrEmpty(token.getUpdatedToken()) ||
+        !Strings.isNullOrEmpty(token.getTrustedJson()))) {
+      return false;
+    }
+    return gadget.getSpec().getModulePrefs().getPreloads().isEmpty() &&
+        view.getPipelinedData() == null;
+  }
+
+  /**
+   * @return A key covering everything the output of a cacheable view depends on.
+   */
+  protected String getOutputCacheKey(Gadget gadget, View view) {
+    GadgetContext context = gadget.getContext();
+    Map<String, String> prefs = new TreeMap<String, String>(context.getUserPrefs().getPrefs());
+    return new StringBuilder(gadget.getSpec().getChecksum())
+        .append('|').append(CONFIG_VERSION.get())
+        .append('|').append(gadget.getSpec().getUrl())
+        .append('|').append(context.getContainer())
+        .append('|').append(view.getName())
+        .append('|').append(context.getModuleId())
+        .append('|').append(context.getLocale())
+        .append('|').append(context.getHost())
+        .append('|').append(context.getRepository())
+        .append('|').append(context.getParameter("libs"))
+        .append('|').append(context.getDebug())
+        .append('|').append(context.getSanitize())
+        .append('|').append(context.getCajoled())
+        .append('|').append(prefs)
+        .toString();
+  }
+
+  private static class RenderedOutput implements Weighable {
+    private final String content;
+    private final long expiration;
+
+    RenderedOutput(String content, long expiration) {
+      this.content = content;
+      this.expiration = expiration;
+    }
+
+    public long getWeight() {
+      return 2L * content.length();
+    }
+  }
 }
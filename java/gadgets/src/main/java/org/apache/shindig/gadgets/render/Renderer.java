@@ -30,6 +30,7 @@ import org.apache.shindig.gadgets.process.Processor;
 import org.apache.shindig.gadgets.spec.View;
 
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import javax.servlet.http.HttpServletResponse;
 import java.util.List;
@@ -49,6 +50,7 @@ public class Renderer {
   private final HtmlRenderer renderer;
   private final ContainerConfig containerConfig;
   private final LockedDomainService lockedDomainService;
+  private boolean streamOutput;
 
   @Inject
   public Renderer(Processor processor,
@@ -61,6 +63,15 @@ public class Renderer {
     this.lockedDomainService = lockedDomainService;
   }
 
+  /**
+   * @param streamOutput If true, rendered content is serialized as it is written to the
+   *     response, rather than first to a String, which reduces memory use for large gadgets.
+   */
+  @Inject(optional = true)
+  public void setStreamOutput(@Named("shindig.render.stream-output") boolean streamOutput) {
+    this.streamOutput = streamOutput;
+  }
+
   /**
    * Attempts to render the requested gadget.
    *
@@ -98,6 +109,9 @@ public class Renderer {
         return RenderingResults.error("Invalid domain", HttpServletResponse.SC_BAD_REQUEST);
       }
 
+      if (streamOutput) {
+        return RenderingResults.ok(renderer.renderContent(gadget));
+      }
       return RenderingResults.ok(renderer.render(gadget));
     } catch (RenderingException e) {
       return logError("render", context.getUrl(), e.getHttpStatusCode(), e);
@@ -19,9 +19,12 @@
 package org.apache.shindig.gadgets.render;
 
 import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 
 import com.google.common.base.Preconditions;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -30,15 +33,17 @@ import javax.servlet.http.HttpServletResponse;
 public final class RenderingResults {
   private final Status status;
   private final String content;
+  private final MutableContent mutableContent;
   private final String errorMessage;
   private final int httpStatusCode;
 
   private final Uri redirect;
 
-  private RenderingResults(Status status, String content, String errorMessage,
-      int httpStatusCode, Uri redirect) {
+  private RenderingResults(Status status, String content, MutableContent mutableContent,
+      String errorMessage, int httpStatusCode, Uri redirect) {
     this.status = status;
     this.content = content;
+    this.mutableContent = mutableContent;
     this.errorMessage = errorMessage;
     this.httpStatusCode = httpStatusCode;
     
@@ -46,17 +51,26 @@ public final class RenderingResults {
   }
 
   public static RenderingResults ok(String content) {
-    return new RenderingResults(Status.OK, content, null, HttpServletResponse.SC_OK, null);
+    return new RenderingResults(Status.OK, content, null, null, HttpServletResponse.SC_OK, null);
+  }
+
+  /**
+   * @param content The rendered content, which is not serialized until it is written out or
+   *     {@link #getContent} is called.
+   */
+  public static RenderingResults ok(MutableContent content) {
+    Preconditions.checkNotNull(content);
+    return new RenderingResults(Status.OK, null, content, null, HttpServletResponse.SC_OK, null);
   }
 
   public static RenderingResults error(String errorMessage, int httpStatusCode) {
-    return new RenderingResults(Status.ERROR, null, errorMessage, httpStatusCode, null);
+    return new RenderingResults(Status.ERROR, null, null, errorMessage, httpStatusCode, null);
   }
 
   public static RenderingResults mustRedirect(Uri redirect) {
     Preconditions.checkNotNull(redirect);
-    return new RenderingResults(Status.MUST_REDIRECT, null, null, HttpServletResponse.SC_FOUND,
-        redirect);
+    return new RenderingResults(Status.MUST_REDIRECT, null, null, null,
+        HttpServletResponse.SC_FOUND, redirect);
   }
 
   /**
@@ -71,9 +85,25 @@ public final class RenderingResults {
    */
   public String getContent() {
     Preconditions.checkState(status == Status.OK, "Only available when status is OK.");
+    if (mutableContent != null) {
+      return mutableContent.getContent();
+    }
     return content;
   }
 
+  /**
+   * Writes the content to render to output. Content rendered as a parse tree is serialized
+   * directly to output, rather than first to a String. Only available when status is OK.
+   */
+  public void writeContent(Appendable output) throws IOException {
+    Preconditions.checkState(status == Status.OK, "Only available when status is OK.");
+    if (mutableContent != null) {
+      mutableContent.writeContent(output);
+    } else {
+      output.append(content);
+    }
+  }
+
   /**
    * @return The error message for rendering. Only available when status is ERROR.
    */
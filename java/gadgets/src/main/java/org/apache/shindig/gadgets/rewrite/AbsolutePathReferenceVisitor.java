@@ -21,11 +21,12 @@ package org.apache.shindig.gadgets.rewrite;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
-import org.apache.shindig.gadgets.rewrite.DomWalker.Visitor;
+import org.apache.shindig.gadgets.rewrite.DomWalker.StreamableVisitor;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.NamedNodeMap;
@@ -36,6 +37,7 @@ import org.w3c.dom.Element;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Visitor that resolves relative paths relative to the
@@ -43,7 +45,7 @@ import java.util.Map;
  *
  * @since 2.0.0
  */
-public class AbsolutePathReferenceVisitor implements Visitor {
+public class AbsolutePathReferenceVisitor implements StreamableVisitor {
   public enum Tags {
     // Resources which would be fetched by the browser when rendering the page.
     //TODO: Document the second parameter for clarity
@@ -75,6 +77,9 @@ public class AbsolutePathReferenceVisitor implements Visitor {
   // Map of tag name -> attribute type describing uris to make absolute.
   private final Map<String, String> tagsToMakeAbsolute;
 
+  // Base tags are visited too, though left alone, so that streamed tags include them.
+  private final Set<String> visitedNodeNames;
+
   // The base Uri used to absolutify relative uris in the document being visited.
   private Uri baseUri;
 
@@ -86,6 +91,13 @@ public class AbsolutePathReferenceVisitor implements Visitor {
     }
 
     this.tagsToMakeAbsolute = tagsToMakeAbsolute;
+    this.visitedNodeNames = ImmutableSet.<String>builder()
+        .addAll(tagsToMakeAbsolute.keySet()).add("base").build();
+  }
+
+  // @Override
+  public Set<String> getVisitedNodeNames() {
+    return visitedNodeNames;
   }
 
   // @Override
@@ -25,6 +25,7 @@ import org.apache.shindig.gadgets.uri.ConcatUriManager;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
@@ -39,7 +40,7 @@ import java.util.Set;
  * DOM mutator that concatenates resources using the concat servlet
  * @since 2.0.0
  */
-public class ConcatVisitor implements DomWalker.Visitor {
+public class ConcatVisitor implements DomWalker.StreamableVisitor {
   public static class Js extends ConcatVisitor {
     public Js(ContentRewriterFeature.Config config,
               ConcatUriManager uriManager) {
@@ -69,6 +70,10 @@ public class ConcatVisitor implements DomWalker.Visitor {
     this.singleResourceConcat = config.isSingleResourceConcatEnabled();
   }
 
+  public Set<String> getVisitedNodeNames() {
+    return ImmutableSet.of(type.getTagName().toLowerCase());
+  }
+
   public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
     // Reserve JS nodes; always if there's an adjacent rewritable JS node and also when
     // directed to support split-resource concatenation
@@ -18,24 +18,31 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import com.google.common.collect.ImmutableSet;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.uri.UriUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Removes charset information from &lt;meta http-equip="Content-Type"&gt;
  *
  * @since 2.0.0
  */
-public class ContentTypeCharsetRemoverVisitor implements DomWalker.Visitor {
+public class ContentTypeCharsetRemoverVisitor implements DomWalker.StreamableVisitor {
   public final static String CONTENT = "content";
   public final static String CONTENT_TYPE = "content-type";
   public final static String HTTP_EQUIV = "http-equiv";
   public final static String META = "meta";
 
+  // @Override
+  public Set<String> getVisitedNodeNames() {
+    return ImmutableSet.of(META);
+  }
+
   // @Override
   public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
     if (node.getNodeType() == Node.ELEMENT_NODE &&
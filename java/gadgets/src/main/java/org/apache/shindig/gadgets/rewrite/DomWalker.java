@@ -18,8 +18,13 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
@@ -29,14 +34,17 @@ import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.uri.UriCommon.Param;
 
+import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import javax.servlet.http.HttpServletResponse;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Framework-in-a-framework facilitating the common Visitor case
@@ -102,6 +110,33 @@ public final class DomWalker {
      */
     boolean revisit(Gadget gadget, List<Node> nodes) throws RewritingException;
   }
+
+  /**
+   * A {@code Visitor} that only cares about some kinds of node. {@code Rewriter} passes it only
+   * the nodes it names, so that walking a large DOM doesn't call every visitor for every node.
+   */
+  public interface SelectiveVisitor extends Visitor {
+    /**
+     * @return The names of the nodes to visit, in lower case, as given by
+     *     {@code Node.getNodeName()}: element names such as "img", or "#text", "#comment" and so
+     *     on for other nodes. null to visit every node. Called once each time the DOM is walked.
+     */
+    Set<String> getVisitedNodeNames();
+  }
+
+  /**
+   * A {@code SelectiveVisitor} that can visit the tags of HTML content as they are scanned, so
+   * that {@code Rewriter} needn't build a DOM for it. Visited nodes are then elements standing
+   * for the tags with the names visited: each has the tag's attributes and, for script and style
+   * elements, its text, but no other children. They are siblings, in document order, with a
+   * stand-in element between two of them wherever other content separates their tags, and the
+   * elements with a given name can be found through their owner document.
+   *
+   * Visits and revisits may change the attributes and text of the visited elements, remove them,
+   * and insert new elements before them, but must not depend on any other part of the DOM.
+   */
+  public interface StreamableVisitor extends SelectiveVisitor {
+  }
   
   /**
    * Rewriter that traverses the DOM, passing each node to its
@@ -109,9 +144,14 @@ public final class DomWalker {
    * may bypass, modify, or reserve the node. Reserved nodes
    * will be revisited after the entire DOM tree is walked.
    * The DOM tree is walked in depth-first order.
+   *
+   * HTML responses may instead be rewritten by scanning their tags, when every visitor of those
+   * tags is a {@link StreamableVisitor}, leaving the DOM unbuilt until a rewriter needs it.
    */
   public static class Rewriter implements GadgetRewriter, ResponseRewriter {
     private final List<Visitor> visitors;
+    private boolean streamHtml;
+    private DOMImplementation documentFactory;
     
     public Rewriter(List<Visitor> visitors) {
       this.visitors = visitors;
@@ -125,6 +165,18 @@ public final class DomWalker {
       this.visitors = null;
     }
 
+    /**
+     * Enables rewriting HTML responses by scanning their tags, rather than parsing them, when
+     * all the visitors are {@link StreamableVisitor}s and no earlier rewriter has parsed them.
+     * Changes are then spliced into the original content.
+     */
+    @Inject(optional = true)
+    public void setStreamHtml(@Named("shindig.rewrite.stream-html") boolean streamHtml,
+        DOMImplementation documentFactory) {
+      this.streamHtml = streamHtml;
+      this.documentFactory = documentFactory;
+    }
+
     // Override this to supply a list of Visitors generated using request context
     // rather than supplied at construction time.
     protected List<Visitor> makeVisitors(Gadget context, Uri gadgetUri) {
@@ -143,79 +195,441 @@ public final class DomWalker {
         throws RewritingException {
       if (RewriterUtils.isHtml(request, builder)) {
         Gadget context = makeGadget(request);
-        rewrite(makeVisitors(context, request.getGadget()), context, builder);
+        if (!streamHtml || builder.hasDocument() ||
+            !rewriteTags(makeVisitors(context, request.getGadget()), context, builder)) {
+          // Fresh visitors, since those given the tags may have kept state from them.
+          rewrite(makeVisitors(context, request.getGadget()), context, builder);
+        }
       }
     }
+
+    /**
+     * Rewrites content by passing the visitors the tags they visit, found by scanning it
+     * rather than walking its DOM.
+     *
+     * @return false if the content must be rewritten through its DOM instead: because a visitor
+     *     of some of its tags isn't a {@link StreamableVisitor}, or because its tags, or the
+     *     changes made to them, can't be handled reliably without parsing it.
+     */
+    private boolean rewriteTags(List<Visitor> visitors, Gadget gadget, MutableContent content)
+        throws RewritingException {
+      Set<String> streamedNames = Sets.newHashSet();
+      Set<String> treeNames = Sets.newHashSet();
+      for (Visitor visitor : visitors) {
+        Set<String> names = null;
+        if (visitor instanceof SelectiveVisitor) {
+          names = ((SelectiveVisitor) visitor).getVisitedNodeNames();
+        }
+        if (names == null) {
+          return false;
+        }
+        (visitor instanceof StreamableVisitor ? streamedNames : treeNames).addAll(names);
+      }
+
+      String html = content.getContent();
+      if (html == null) {
+        return false;
+      }
+      HtmlTagStream tags =
+          HtmlTagStream.scan(html, Sets.union(streamedNames, treeNames), documentFactory);
+      if (tags == null) {
+        return false;
+      }
+      for (Element element : tags.getElements()) {
+        if (treeNames.contains(element.getNodeName())) {
+          return false;
+        }
+      }
+
+      Pass pass = new Pass(visitors);
+      for (Element element : tags.getElements()) {
+        pass.visit(gadget, element, content);
+      }
+      pass.revisit(gadget, content);
+
+      String rewritten = tags.getRewrittenContent();
+      if (rewritten == null) {
+        return false;
+      }
+      // The same String if nothing changed.
+      if (rewritten != html) {
+        content.setContent(rewritten);
+      }
+      return true;
+    }
     
     private boolean rewrite(List<Visitor> visitors, Gadget gadget, MutableContent content) 
         throws RewritingException {
-      Map<Visitor, List<Node>> reservations = Maps.newHashMap();
-        
-      LinkedList<Node> toVisit = Lists.newLinkedList();
       Document doc = content.getDocument();
       if (doc == null) {
         throw new RewritingException("content.getDocument is null. Content: "
                                      + content.getContent(),
                                      HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
       }
-      toVisit.add(doc.getDocumentElement());
-      boolean mutated = false;
+      Pass pass = new Pass(visitors);
+      NodeStack toVisit = new NodeStack();
+      toVisit.push(doc.getDocumentElement(), 0);
       while (!toVisit.isEmpty()) {
-        Node visiting = toVisit.removeFirst();
-          
-        // Iterate through all visitors evaluating their visitation status.
-        boolean treeReserved = false;
-        boolean nodeReserved = false;
-        for (Visitor visitor : visitors) {
-          switch(visitor.visit(gadget, visiting)) {
-          case MODIFY:
-            content.documentChanged();
-            mutated = true;
-            break;
-          case RESERVE_NODE:
-            nodeReserved = true;
-            break;
-          case RESERVE_TREE:
-            treeReserved = true;
-            break;
-          default:
-            // Aka BYPASS - do nothing.
-            break;
+        Node visiting = toVisit.pop();
+        if (pass.visit(gadget, visiting, content) != Visitor.VisitStatus.RESERVE_TREE) {
+          // Tree wasn't reserved - walk children.
+          toVisit.pushChildren(visiting, 0);
+        }
+      }
+
+      // Run through all reservations, revisiting as needed.
+      return pass.revisit(gadget, content) | pass.modified;
+    }
+  }
+
+  /**
+   * Replaces each run of consecutive {@link Rewriter}s in rewriters with a single
+   * {@link FusedRewriter}, so that the run walks the DOM together. Rewriters that override
+   * {@code rewrite(Gadget, MutableContent)} are left alone, since they may not simply walk
+   * their visitors.
+   */
+  public static List<GadgetRewriter> fuse(List<GadgetRewriter> rewriters) {
+    ImmutableList.Builder<GadgetRewriter> fused = ImmutableList.builder();
+    List<Rewriter> run = Lists.newArrayList();
+    for (GadgetRewriter rewriter : rewriters) {
+      if (isFusable(rewriter)) {
+        if (run.size() == FusedRewriter.MAX_REWRITERS) {
+          addRun(fused, run);
+        }
+        run.add((Rewriter) rewriter);
+      } else {
+        addRun(fused, run);
+        fused.add(rewriter);
+      }
+    }
+    addRun(fused, run);
+    return fused.build();
+  }
+
+  private static void addRun(ImmutableList.Builder<GadgetRewriter> fused, List<Rewriter> run) {
+    if (run.size() == 1) {
+      fused.add(run.get(0));
+    } else if (run.size() > 1) {
+      fused.add(new FusedRewriter(ImmutableList.copyOf(run)));
+    }
+    run.clear();
+  }
+
+  private static boolean isFusable(GadgetRewriter rewriter) {
+    if (!(rewriter instanceof Rewriter)) {
+      return false;
+    }
+    try {
+      return rewriter.getClass().getMethod("rewrite", Gadget.class, MutableContent.class)
+          .getDeclaringClass() == Rewriter.class;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Runs several {@link Rewriter}s, in order, while walking the DOM as few times as possible.
+   *
+   * Each node is passed to the visitors of every rewriter in a single walk. The result is the
+   * same as running the rewriters one after another: a rewriter's reservations only hide nodes
+   * from its own later visitors, and its revisits happen before any later rewriter sees the
+   * nodes they may have changed. To ensure the latter, once a rewriter reserves a node, later
+   * rewriters stop visiting. After the walk, that rewriter's reservations are revisited, and the
+   * DOM is walked again for the later rewriters, skipping the nodes they have already visited.
+   * When no rewriter reserves anything, one walk does the work of all of them.
+   *
+   * As for any {@link Visitor}, revisits must not modify nodes that weren't reserved.
+   */
+  public static class FusedRewriter implements GadgetRewriter {
+    static final int MAX_REWRITERS = 64;
+
+    private final List<Rewriter> rewriters;
+
+    public FusedRewriter(List<Rewriter> rewriters) {
+      Preconditions.checkArgument(rewriters.size() <= MAX_REWRITERS,
+          "At most " + MAX_REWRITERS + " rewriters can be fused");
+      this.rewriters = rewriters;
+    }
+
+    public List<Rewriter> getRewriters() {
+      return rewriters;
+    }
+
+    public void rewrite(Gadget gadget, MutableContent content) throws RewritingException {
+      Uri gadgetUri = gadget.getSpec().getUrl();
+      List<Pass> passes = Lists.newArrayListWithCapacity(rewriters.size());
+      for (Rewriter rewriter : rewriters) {
+        List<Visitor> visitors = rewriter.makeVisitors(gadget, gadgetUri);
+        if (!visitors.isEmpty()) {
+          passes.add(new Pass(visitors));
+        }
+      }
+
+      Document doc = content.getDocument();
+      if (doc == null) {
+        throw new RewritingException("content.getDocument is null. Content: "
+                                     + content.getContent(),
+                                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+      while (!passes.isEmpty()) {
+        int reserving = walk(passes, gadget, content, doc.getDocumentElement());
+        if (reserving < 0) {
+          // Every pass has visited every node, and none has anything to revisit.
+          break;
+        }
+        passes.get(reserving).revisit(gadget, content);
+        passes = passes.subList(reserving + 1, passes.size());
+      }
+    }
+
+    /**
+     * Walks the DOM once, visiting each node with every pass still in progress.
+     *
+     * @return The index of the first pass to reserve a node, which has completed its visits;
+     *     passes after it have been interrupted. -1 if no pass reserved a node.
+     */
+    private int walk(List<Pass> passes, Gadget gadget, MutableContent content, Node root)
+        throws RewritingException {
+      int reserving = -1;
+      int last = passes.size() - 1;
+      // Only needed to resume passes that may be interrupted.
+      Map<Node, Integer> order = last > 0 ? new IdentityHashMap<Node, Integer>() : null;
+      int position = 0;
+
+      NodeStack toVisit = new NodeStack();
+      toVisit.push(root, -1L);
+      while (!toVisit.isEmpty()) {
+        Node visiting = toVisit.pop();
+        long active = toVisit.poppedFlags();
+        if (order != null) {
+          order.put(visiting, position);
+        }
+
+        for (int i = 0; i <= last; ++i) {
+          long bit = 1L << i;
+          if ((active & bit) == 0) {
+            continue;
           }
-            
-          if (nodeReserved || treeReserved) {
-            // Reservation was made.
-            if (!reservations.containsKey(visitor)) {
-              reservations.put(visitor, Lists.<Node>newLinkedList());
+          Pass pass = passes.get(i);
+          if (pass.hasVisited(visiting)) {
+            if (pass.reservedTrees.contains(visiting)) {
+              active &= ~bit;
             }
-            reservations.get(visitor).add(visiting);
-            break;
+            continue;
           }
-        }
-          
-        if (!treeReserved && visiting.hasChildNodes()) {
-          // Tree wasn't reserved - walk children.
-          // In order to preserve DFS order, walk children in reverse.
-          for (Node child = visiting.getLastChild(); child != null;
-               child = child.getPreviousSibling()) {
-            toVisit.addFirst(child);
+          Visitor.VisitStatus status = pass.visit(gadget, visiting, content);
+          if (status == Visitor.VisitStatus.RESERVE_TREE) {
+            active &= ~bit;
           }
+          if (status == Visitor.VisitStatus.RESERVE_NODE ||
+              status == Visitor.VisitStatus.RESERVE_TREE) {
+            if (reserving < 0 || i < reserving) {
+              reserving = i;
+            }
+            // Later passes must wait for this pass to revisit. They have visited every node
+            // walked so far, but not this one.
+            for (int j = i + 1; j <= last; ++j) {
+              passes.get(j).interrupt(order, position);
+            }
+            last = i;
+          }
+        }
+
+        // Walk children if any pass still needs them.
+        active &= (last == 63) ? -1L : (1L << (last + 1)) - 1;
+        if (active != 0) {
+          toVisit.pushChildren(visiting, active);
         }
+        ++position;
       }
-        
-      // Run through all reservations, revisiting as needed.
+      return reserving;
+    }
+  }
+
+  /**
+   * The visitors of one {@link Rewriter}, indexed by the names of the nodes they visit, and
+   * their progress through the DOM.
+   */
+  private static final class Pass {
+    private final Visitor[] visitors;
+    // Visitors of nodes with each name declared by a SelectiveVisitor, as indexes into visitors.
+    private final Map<String, int[]> visitorsByName;
+    // Visitors of nodes with any other name.
+    private final int[] visitorsOfAll;
+    private final List<List<Node>> reservations;
+    private final Set<Node> reservedTrees = Sets.newIdentityHashSet();
+    private boolean modified;
+    // Nodes visited in earlier walks: those walked before the pass was interrupted.
+    private final List<Map<Node, Integer>> walkOrders = Lists.newArrayList();
+    private final List<Integer> interruptions = Lists.newArrayList();
+
+    private Pass(List<Visitor> visitorList) {
+      visitors = visitorList.toArray(new Visitor[visitorList.size()]);
+      List<Set<String>> visitedNames = Lists.newArrayListWithCapacity(visitors.length);
+      Set<String> allNames = Sets.newHashSet();
       for (Visitor visitor : visitors) {
-        List<Node> nodesReserved = reservations.get(visitor);
-        if (nodesReserved != null && visitor.revisit(gadget, nodesReserved)) {
+        Set<String> names = null;
+        if (visitor instanceof SelectiveVisitor) {
+          names = ((SelectiveVisitor) visitor).getVisitedNodeNames();
+        }
+        visitedNames.add(names);
+        if (names != null) {
+          allNames.addAll(names);
+        }
+      }
+
+      visitorsOfAll = visitorsOf(null, visitedNames);
+      visitorsByName = Maps.newHashMapWithExpectedSize(allNames.size());
+      for (String name : allNames) {
+        visitorsByName.put(name, visitorsOf(name, visitedNames));
+      }
+      reservations = Lists.newArrayListWithCapacity(visitors.length);
+      for (int i = 0; i < visitors.length; ++i) {
+        reservations.add(null);
+      }
+    }
+
+    /**
+     * @return The indexes of the visitors of nodes named name, in order. A null name matches
+     *     only visitors of every node.
+     */
+    private static int[] visitorsOf(String name, List<Set<String>> visitedNames) {
+      int count = 0;
+      int[] matches = new int[visitedNames.size()];
+      for (int i = 0; i < matches.length; ++i) {
+        Set<String> names = visitedNames.get(i);
+        if (names == null || (name != null && names.contains(name))) {
+          matches[count++] = i;
+        }
+      }
+      int[] result = new int[count];
+      System.arraycopy(matches, 0, result, 0, count);
+      return result;
+    }
+
+    private void interrupt(Map<Node, Integer> order, int position) {
+      walkOrders.add(order);
+      interruptions.add(position);
+    }
+
+    private boolean hasVisited(Node node) {
+      for (int i = 0; i < walkOrders.size(); ++i) {
+        Integer position = walkOrders.get(i).get(node);
+        if (position != null && position < interruptions.get(i)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Passes the node to each of its visitors in turn, until one reserves it.
+     *
+     * @return RESERVE_NODE or RESERVE_TREE if the node was reserved, otherwise BYPASS.
+     */
+    private Visitor.VisitStatus visit(Gadget gadget, Node node, MutableContent content)
+        throws RewritingException {
+      int[] nodeVisitors = visitorsOfAll;
+      if (!visitorsByName.isEmpty()) {
+        int[] named = visitorsByName.get(node.getNodeName().toLowerCase());
+        if (named != null) {
+          nodeVisitors = named;
+        }
+      }
+
+      for (int i : nodeVisitors) {
+        Visitor.VisitStatus status = visitors[i].visit(gadget, node);
+        switch (status) {
+        case MODIFY:
+          content.documentChanged();
+          modified = true;
+          break;
+        case RESERVE_TREE:
+          reservedTrees.add(node);
+          // Fall through.
+        case RESERVE_NODE:
+          List<Node> reserved = reservations.get(i);
+          if (reserved == null) {
+            reserved = Lists.newArrayList();
+            reservations.set(i, reserved);
+          }
+          reserved.add(node);
+          return status;
+        default:
+          // Aka BYPASS - do nothing.
+          break;
+        }
+      }
+      return Visitor.VisitStatus.BYPASS;
+    }
+
+    /**
+     * Revisits each visitor's reservations, in visitor order.
+     *
+     * @return true if any revisit modified the DOM.
+     */
+    private boolean revisit(Gadget gadget, MutableContent content) throws RewritingException {
+      boolean mutated = false;
+      for (int i = 0; i < visitors.length; ++i) {
+        List<Node> nodesReserved = reservations.get(i);
+        if (nodesReserved != null && visitors[i].revisit(gadget, nodesReserved)) {
           content.documentChanged();
           mutated = true;
         }
       }
-      
       return mutated;
     }
   }
 
+  /**
+   * An array-backed stack of nodes still to be walked, each with a set of flags.
+   */
+  private static final class NodeStack {
+    private Node[] nodes = new Node[32];
+    private long[] flags = new long[32];
+    private int size;
+
+    private boolean isEmpty() {
+      return size == 0;
+    }
+
+    private void push(Node node, long nodeFlags) {
+      if (size == nodes.length) {
+        Node[] newNodes = new Node[size * 2];
+        System.arraycopy(nodes, 0, newNodes, 0, size);
+        nodes = newNodes;
+        long[] newFlags = new long[size * 2];
+        System.arraycopy(flags, 0, newFlags, 0, size);
+        flags = newFlags;
+      }
+      nodes[size] = node;
+      flags[size] = nodeFlags;
+      ++size;
+    }
+
+    /**
+     * Pushes the children of node in reverse, so that they are popped in document order.
+     */
+    private void pushChildren(Node node, long childFlags) {
+      for (Node child = node.getLastChild(); child != null; child = child.getPreviousSibling()) {
+        push(child, childFlags);
+      }
+    }
+
+    private Node pop() {
+      Node node = nodes[--size];
+      nodes[size] = null;
+      return node;
+    }
+
+    /**
+     * @return The flags of the node last popped.
+     */
+    private long poppedFlags() {
+      return flags[size];
+    }
+  }
+
   // TODO: Remove these lame hacks by changing Gadget to a proper general Context object.
   public static Gadget makeGadget(GadgetContext context) {
     try {
@@ -0,0 +1,621 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.shindig.gadgets.parse.HtmlSerialization;
+import org.apache.shindig.gadgets.parse.SocialDataTags;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tags of an HTML document with some names, found by scanning its text rather than parsing
+ * it, so that {@link DomWalker.StreamableVisitor}s can rewrite the document without its DOM.
+ *
+ * Each tag is given as an element of a scratch document, holding the tag's attributes and, for
+ * script and style elements, its text. The elements are siblings, in document order, with an
+ * element named {@link #GAP} between two of them wherever anything but whitespace and comments
+ * separates their tags. Once visitors have changed the attributes and text of the elements,
+ * removed them or inserted new elements before them, {@link #getRewrittenContent} splices those
+ * changes into the original text, leaving the rest of it as it was.
+ *
+ * Scanning stops at markup that a parser may not read in the same way, such as an unterminated
+ * tag or an attribute with a named character reference that isn't known here; the document must
+ * then be rewritten through its DOM.
+ */
+final class HtmlTagStream {
+  /**
+   * Name of the elements standing for content between tags.
+   */
+  static final String GAP = "shindig-gap";
+
+  // Elements that have no end tag.
+  private static final Set<String> VOID_ELEMENTS = ImmutableSet.of(
+      "area", "base", "basefont", "bgsound", "br", "col", "embed", "frame", "hr", "img", "input",
+      "isindex", "keygen", "link", "meta", "param", "source", "track", "wbr");
+
+  // Elements whose text, up to their end tag, is given to visitors as is.
+  private static final Set<String> SCRIPT_ELEMENTS = ImmutableSet.of("script", "style");
+
+  // Other elements whose content, up to their end tag, is text.
+  private static final Set<String> TEXT_ELEMENTS = ImmutableSet.of("textarea", "title");
+
+  // Elements whose content parsers don't agree on.
+  private static final Set<String> UNSUPPORTED_ELEMENTS = ImmutableSet.of("plaintext", "xmp");
+
+  private static final Map<String, Character> ENTITIES = ImmutableMap.<String, Character>builder()
+      .put("amp", '&')
+      .put("lt", '<')
+      .put("gt", '>')
+      .put("quot", '"')
+      .put("apos", '\'')
+      .put("nbsp", '\u00a0')
+      .build();
+
+  private final String html;
+  private final Document doc;
+  private final Element root;
+  private final List<Element> elements = Lists.newArrayList();
+  // Tags of the elements and gaps, by node and in document order.
+  private final Map<Node, Tag> tags = new IdentityHashMap<Node, Tag>();
+  private final List<Tag> order = Lists.newArrayList();
+
+  private HtmlTagStream(String html, DOMImplementation documentFactory) {
+    this.html = html;
+    doc = documentFactory.createDocument(null, null, null);
+    root = doc.createElement("html");
+    doc.appendChild(root);
+  }
+
+  /**
+   * @param html The document to scan.
+   * @param names The names of the tags to find, in lower case.
+   * @param documentFactory Creates the scratch document holding the tags.
+   * @return The tags found, or null if the document can't be scanned reliably.
+   */
+  static HtmlTagStream scan(String html, Set<String> names, DOMImplementation documentFactory) {
+    HtmlTagStream stream = new HtmlTagStream(html, documentFactory);
+    try {
+      return stream.scan(names) ? stream : null;
+    } catch (DOMException e) {
+      // A tag or attribute name that a DOM doesn't allow.
+      return null;
+    }
+  }
+
+  /**
+   * @return The elements standing for the tags found, in document order, without gaps.
+   */
+  List<Element> getElements() {
+    return Collections.unmodifiableList(elements);
+  }
+
+  private boolean scan(Set<String> names) {
+    int length = html.length();
+    int pos = 0;
+    boolean gap = false;
+    while (pos < length) {
+      int open = html.indexOf('<', pos);
+      if (open < 0) {
+        open = length;
+      }
+      if (!isWhitespace(pos, open)) {
+        gap = true;
+      }
+      if (open + 1 >= length) {
+        break;
+      }
+
+      char next = html.charAt(open + 1);
+      if (html.startsWith("<!--", open)) {
+        int close = html.indexOf("-->", open + 4);
+        if (close < 0) {
+          return false;
+        }
+        if (html.substring(open + 4, close).trim().startsWith("[if")) {
+          // Conditional comments may hold markup.
+          gap = true;
+        }
+        pos = close + 3;
+      } else if (next == '!' || next == '?' || next == '/') {
+        // Doctypes, processing instructions and end tags.
+        int close = html.indexOf('>', open);
+        if (close < 0) {
+          return false;
+        }
+        gap = true;
+        pos = close + 1;
+      } else if (Character.isLetter(next)) {
+        Tag tag = scanStartTag(open);
+        if (tag == null || UNSUPPORTED_ELEMENTS.contains(tag.name)) {
+          return false;
+        }
+        pos = tag.startTagEnd;
+        if (SCRIPT_ELEMENTS.contains(tag.name) || TEXT_ELEMENTS.contains(tag.name)) {
+          int endTag = findEndTag(tag.name, pos);
+          int close = endTag < 0 ? -1 : html.indexOf('>', endTag);
+          if (close < 0) {
+            return false;
+          }
+          if (SCRIPT_ELEMENTS.contains(tag.name)) {
+            tag.textStart = pos;
+            tag.textEnd = endTag;
+          }
+          pos = close + 1;
+          tag.end = pos;
+        } else if (VOID_ELEMENTS.contains(tag.name)) {
+          tag.end = pos;
+        }
+
+        if (names.contains(tag.name) && !isOpenSocialScript(tag)) {
+          if (gap && root.hasChildNodes()) {
+            addNode(doc.createElement(GAP), new Tag(open, GAP));
+          }
+          addElement(tag);
+          // Content of an element with an end tag comes before the next tag.
+          gap = tag.end < 0;
+        } else {
+          gap = true;
+        }
+      } else {
+        // A '<' that doesn't start a tag is text.
+        gap = true;
+        pos = open + 1;
+      }
+    }
+    return true;
+  }
+
+  private Tag scanStartTag(int open) {
+    int length = html.length();
+    int pos = open + 1;
+    while (pos < length && !isTagNameEnd(html.charAt(pos))) {
+      ++pos;
+    }
+    Tag tag = new Tag(open, html.substring(open + 1, pos).toLowerCase());
+
+    while (true) {
+      int attrStart = pos;
+      while (pos < length && (isWhitespace(html.charAt(pos)) || html.charAt(pos) == '/')) {
+        ++pos;
+      }
+      if (pos >= length) {
+        return null;
+      }
+      if (html.charAt(pos) == '>') {
+        // New attributes go after the last one.
+        tag.insertAt = attrStart;
+        tag.startTagEnd = pos + 1;
+        return tag;
+      }
+
+      int nameStart = pos;
+      do {
+        ++pos;
+      } while (pos < length && !isAttributeNameEnd(html.charAt(pos)));
+      String name = html.substring(nameStart, pos).toLowerCase();
+      int nameEnd = pos;
+
+      String value = "";
+      int valueStart = skipWhitespace(pos);
+      if (valueStart < length && html.charAt(valueStart) == '=') {
+        valueStart = skipWhitespace(valueStart + 1);
+        if (valueStart >= length) {
+          return null;
+        }
+        char quote = html.charAt(valueStart);
+        if (quote == '"' || quote == '\'') {
+          int close = html.indexOf(quote, valueStart + 1);
+          if (close < 0) {
+            return null;
+          }
+          value = html.substring(valueStart + 1, close);
+          pos = close + 1;
+        } else {
+          pos = valueStart;
+          while (pos < length && !isWhitespace(html.charAt(pos)) && html.charAt(pos) != '>') {
+            ++pos;
+          }
+          value = html.substring(valueStart, pos);
+        }
+        value = decode(value);
+        if (value == null) {
+          return null;
+        }
+      }
+
+      // Only the first of several attributes with the same name counts.
+      if (!tag.attributes.containsKey(name)) {
+        tag.attributes.put(name, new Attribute(attrStart, nameEnd, pos, value));
+      }
+    }
+  }
+
+  /**
+   * @return The position of the end tag of the named element, from pos, or -1 if there is none.
+   */
+  private int findEndTag(String name, int pos) {
+    int length = html.length();
+    for (int close = html.indexOf("</", pos); close >= 0; close = html.indexOf("</", close + 2)) {
+      int nameEnd = close + 2 + name.length();
+      if (html.regionMatches(true, close + 2, name, 0, name.length()) &&
+          (nameEnd == length || isTagNameEnd(html.charAt(nameEnd)))) {
+        return close;
+      }
+    }
+    return -1;
+  }
+
+  private boolean isOpenSocialScript(Tag tag) {
+    Attribute type = tag.attributes.get("type");
+    return "script".equals(tag.name) && type != null &&
+        SocialDataTags.SCRIPT_TYPE_TO_OSML_TAG.containsKey(type.value);
+  }
+
+  private void addElement(Tag tag) {
+    Element element = doc.createElement(tag.name);
+    for (Map.Entry<String, Attribute> attr : tag.attributes.entrySet()) {
+      element.setAttribute(attr.getKey(), attr.getValue().value);
+    }
+    if (tag.textStart >= 0) {
+      tag.text = html.substring(tag.textStart, tag.textEnd);
+      element.appendChild(doc.createTextNode(tag.text));
+    }
+    addNode(element, tag);
+    elements.add(element);
+  }
+
+  private void addNode(Node node, Tag tag) {
+    tag.index = order.size();
+    root.appendChild(node);
+    tags.put(node, tag);
+    order.add(tag);
+  }
+
+  /**
+   * @return The document with the changes made to the elements, the original document if there
+   *     are none, or null if they can't be spliced into it.
+   */
+  String getRewrittenContent() {
+    List<Edit> edits = Lists.newArrayList();
+    StringBuilder inserted = new StringBuilder();
+    // Index of the tag after the last one walked.
+    int next = 0;
+    for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+      Tag tag = tags.get(node);
+      if (tag == null) {
+        if (!serialize(node, inserted)) {
+          return null;
+        }
+        continue;
+      }
+      if (tag.index < next) {
+        // Tags have been moved.
+        return null;
+      }
+      if (inserted.length() > 0) {
+        // New nodes go where the tag after the last one walked was, even if it's been removed.
+        int start = order.get(next).start;
+        edits.add(new Edit(start, start, inserted.toString()));
+        inserted.setLength(0);
+      }
+      if (!GAP.equals(tag.name) && !addEdits((Element) node, tag, edits)) {
+        return null;
+      }
+      next = tag.index + 1;
+    }
+    if (inserted.length() > 0) {
+      int start;
+      if (next < order.size()) {
+        start = order.get(next).start;
+      } else if (next > 0 && order.get(next - 1).end >= 0) {
+        start = order.get(next - 1).end;
+      } else {
+        return null;
+      }
+      edits.add(new Edit(start, start, inserted.toString()));
+    }
+
+    for (Element element : elements) {
+      if (element.getParentNode() != root) {
+        Tag tag = tags.get(element);
+        if (element.getParentNode() != null || tag.end < 0) {
+          // Moved, or the extent of the element isn't known.
+          return null;
+        }
+        edits.add(new Edit(tag.start, tag.end, ""));
+      }
+    }
+
+    if (edits.isEmpty()) {
+      return html;
+    }
+    // Stable, so that text inserted at a position stays ahead of text removed from it.
+    Collections.sort(edits);
+    StringBuilder rewritten = new StringBuilder(html.length());
+    int pos = 0;
+    for (Edit edit : edits) {
+      rewritten.append(html, pos, edit.start).append(edit.replacement);
+      pos = edit.end;
+    }
+    rewritten.append(html, pos, html.length());
+    return rewritten.toString();
+  }
+
+  /**
+   * Adds edits for the changes made to the attributes and text of element.
+   *
+   * @return false if there are changes that can't be spliced in.
+   */
+  private boolean addEdits(Element element, Tag tag, List<Edit> edits) {
+    for (Map.Entry<String, Attribute> entry : tag.attributes.entrySet()) {
+      Attribute original = entry.getValue();
+      Attr attr = element.getAttributeNode(entry.getKey());
+      if (attr == null) {
+        edits.add(new Edit(original.start, original.end, ""));
+      } else if (!attr.getValue().equals(original.value)) {
+        StringBuilder value = new StringBuilder("=");
+        appendAttributeValue(attr.getValue(), value);
+        edits.add(new Edit(original.nameEnd, original.end, value.toString()));
+      }
+    }
+
+    StringBuilder added = new StringBuilder();
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); ++i) {
+      Attr attr = (Attr) attributes.item(i);
+      if (!tag.attributes.containsKey(attr.getName())) {
+        added.append(' ').append(attr.getName()).append('=');
+        appendAttributeValue(attr.getValue(), added);
+      }
+    }
+    if (added.length() > 0) {
+      edits.add(new Edit(tag.insertAt, tag.insertAt, added.toString()));
+    }
+
+    if (tag.text == null) {
+      return !element.hasChildNodes();
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() != Node.TEXT_NODE) {
+        return false;
+      }
+    }
+    String text = element.getTextContent();
+    if (!text.equals(tag.text)) {
+      edits.add(new Edit(tag.textStart, tag.textEnd, text));
+    }
+    return true;
+  }
+
+  /**
+   * Serializes a node inserted by a visitor.
+   *
+   * @return false if the node can't be serialized.
+   */
+  private static boolean serialize(Node node, StringBuilder output) {
+    try {
+      switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+          Element element = (Element) node;
+          String name = element.getTagName().toLowerCase();
+          HtmlSerialization.printStartElement(element, output, false);
+          for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (SCRIPT_ELEMENTS.contains(name) && child.getNodeType() == Node.TEXT_NODE) {
+              output.append(child.getNodeValue());
+            } else if (!serialize(child, output)) {
+              return false;
+            }
+          }
+          if (!VOID_ELEMENTS.contains(name)) {
+            output.append("</").append(element.getTagName()).append('>');
+          }
+          return true;
+        case Node.TEXT_NODE:
+          HtmlSerialization.printEscapedText(node.getNodeValue(), output);
+          return true;
+        case Node.COMMENT_NODE:
+          output.append("<!--").append(node.getNodeValue()).append("-->");
+          return true;
+        default:
+          return false;
+      }
+    } catch (IOException e) {
+      // Doesn't happen, for a StringBuilder.
+      return false;
+    }
+  }
+
+  private static void appendAttributeValue(String value, StringBuilder output) {
+    output.append('"');
+    try {
+      HtmlSerialization.printEscapedText(value, output);
+    } catch (IOException e) {
+      // Doesn't happen, for a StringBuilder.
+    }
+    output.append('"');
+  }
+
+  /**
+   * Decodes the character references in an attribute value, as a browser would.
+   *
+   * @return The decoded value, or null if it has a reference that can't be decoded here.
+   */
+  private static String decode(String value) {
+    int amp = value.indexOf('&');
+    if (amp < 0) {
+      return value;
+    }
+    int length = value.length();
+    StringBuilder decoded = new StringBuilder(length);
+    int pos = 0;
+    while (amp >= 0) {
+      decoded.append(value, pos, amp);
+      // By default the '&' is just a character.
+      pos = amp;
+      int end = amp + 1;
+      if (end < length && value.charAt(end) == '#') {
+        boolean hex = ++end < length && (value.charAt(end) == 'x' || value.charAt(end) == 'X');
+        if (hex) {
+          ++end;
+        }
+        int digits = end;
+        while (end < length && Character.digit(value.charAt(end), hex ? 16 : 10) >= 0) {
+          ++end;
+        }
+        if (end > digits) {
+          int code = end - digits > 6 ? -1 :
+              Integer.parseInt(value.substring(digits, end), hex ? 16 : 10);
+          if (code <= 0 || (code >= 0x80 && code <= 0x9f) ||
+              (code >= 0xd800 && code <= 0xdfff) || !Character.isValidCodePoint(code)) {
+            // Parsers differ on these.
+            return null;
+          }
+          decoded.appendCodePoint(code);
+          pos = end < length && value.charAt(end) == ';' ? end + 1 : end;
+        }
+      } else {
+        while (end < length && Character.isLetterOrDigit(value.charAt(end))) {
+          ++end;
+        }
+        if (end > amp + 1) {
+          Character c = ENTITIES.get(value.substring(amp + 1, end));
+          if (end < length && value.charAt(end) == ';') {
+            if (c == null) {
+              return null;
+            }
+            decoded.append(c.charValue());
+            pos = end + 1;
+          } else if (c != null && (end == length || value.charAt(end) != '=')) {
+            // An unterminated reference, which isn't followed by '=' as in a query string.
+            decoded.append(c.charValue());
+            pos = end;
+          }
+        }
+      }
+      amp = value.indexOf('&', Math.max(pos, amp + 1));
+    }
+    decoded.append(value, pos, length);
+    return decoded.toString();
+  }
+
+  private boolean isWhitespace(int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (!isWhitespace(html.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int skipWhitespace(int pos) {
+    while (pos < html.length() && isWhitespace(html.charAt(pos))) {
+      ++pos;
+    }
+    return pos;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>';
+  }
+
+  private static boolean isAttributeNameEnd(char c) {
+    return isWhitespace(c) || c == '/' || c == '>' || c == '=';
+  }
+
+  /**
+   * A tag, or a gap between tags, as found in the document.
+   */
+  private static final class Tag {
+    private final int start;
+    private final String name;
+    private final Map<String, Attribute> attributes = Maps.newLinkedHashMap();
+    private int index;
+    private int startTagEnd;
+    // Where new attributes go.
+    private int insertAt;
+    // After the end tag, if the element has one, or else the start tag; -1 if not known.
+    private int end = -1;
+    // Text of a script or style element.
+    private int textStart = -1;
+    private int textEnd = -1;
+    private String text;
+
+    private Tag(int start, String name) {
+      this.start = start;
+      this.name = name;
+    }
+  }
+
+  /**
+   * An attribute of a tag: the whitespace before it, its name, and any value.
+   */
+  private static final class Attribute {
+    private final int start;
+    private final int nameEnd;
+    private final int end;
+    private final String value;
+
+    private Attribute(int start, int nameEnd, int end, String value) {
+      this.start = start;
+      this.nameEnd = nameEnd;
+      this.end = end;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A replacement of the text from start to end.
+   */
+  private static final class Edit implements Comparable<Edit> {
+    private final int start;
+    private final int end;
+    private final String replacement;
+
+    private Edit(int start, int end, String replacement) {
+      this.start = start;
+      this.end = end;
+      this.replacement = replacement;
+    }
+
+    public int compareTo(Edit other) {
+      return start < other.start ? -1 : (start == other.start ? 0 : 1);
+    }
+  }
+}
@@ -18,6 +18,7 @@
 
 package org.apache.shindig.gadgets.rewrite;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -49,6 +50,7 @@ import java.util.concurrent.FutureTask;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.io.IOException;
 
 /**
@@ -68,7 +70,7 @@ public class ImageAttributeRewriter extends DomWalker.Rewriter {
    * Visitor that injects height/width attributes for <img> tags, if needed to
    * reduce the page reflows.
    */
-  public static class ImageAttributeVisitor implements DomWalker.Visitor {
+  public static class ImageAttributeVisitor implements DomWalker.SelectiveVisitor {
     private final RequestPipeline requestPipeline;
     private final ExecutorService executor;
     
@@ -80,6 +82,10 @@ public class ImageAttributeRewriter extends DomWalker.Rewriter {
       this.executor = executor;
     }
 
+    public Set<String> getVisitedNodeNames() {
+      return ImmutableSet.of("img");
+    }
+
     public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
       if (node.getNodeType() == Node.ELEMENT_NODE &&
           node.getNodeName().equalsIgnoreCase("img")) {
@@ -21,6 +21,7 @@ package org.apache.shindig.gadgets.rewrite;
 import com.google.inject.Inject;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 import org.apache.commons.lang.StringUtils;
@@ -35,6 +36,7 @@ import org.w3c.dom.Element;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This rewriter helps in appending the image size parameters (extracted from inline styles, height
@@ -58,7 +60,7 @@ public class ImageResizeRewriter extends DomWalker.Rewriter {
     return Arrays.<DomWalker.Visitor>asList(new ImageResizeVisitor(proxyUriManager, config));
   }
   
-  public static class ImageResizeVisitor implements DomWalker.Visitor {
+  public static class ImageResizeVisitor implements DomWalker.SelectiveVisitor {
     protected final ProxyUriManager proxyUriManager;
     protected final ContentRewriterFeature.Config featureConfig;
 
@@ -67,6 +69,10 @@ public class ImageResizeRewriter extends DomWalker.Rewriter {
       this.proxyUriManager = proxyUriManager;
       this.featureConfig = featureConfig;
     }
+
+    public Set<String> getVisitedNodeNames() {
+      return ImmutableSet.of("img");
+    }
     
     public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
       if (node.getNodeType() == Node.ELEMENT_NODE &&
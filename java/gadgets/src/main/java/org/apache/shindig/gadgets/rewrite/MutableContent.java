@@ -121,6 +121,23 @@ public class MutableContent {
     return content;
   }
 
+  /**
+   * Writes the current content for this object to output. Unlike {@link #getContent}, content
+   * that is only available as a parse tree is serialized directly to output, without building
+   * or retaining a String copy of it. Use this for content that will only be written out.
+   * @param output Destination of the content.
+   */
+  public void writeContent(Appendable output) throws IOException {
+    if (content == null && contentSource == null && document != null) {
+      HtmlSerialization.serialize(document, output);
+    } else {
+      String current = getContent();
+      if (current != null) {
+        output.append(current);
+      }
+    }
+  }
+
   /**
    * Sets the object's content as a raw String. Note, this operation
    * may clear the document if the content has changed
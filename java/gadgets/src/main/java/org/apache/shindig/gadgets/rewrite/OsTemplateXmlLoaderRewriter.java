@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 
 import org.apache.shindig.common.xml.DomUtil;
@@ -39,6 +40,7 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Rewrites the gadget to include template and xml information
@@ -69,12 +71,16 @@ public class OsTemplateXmlLoaderRewriter extends DomWalker.Rewriter {
     return false;
   }
   
-  public static class GadgetHtmlVisitor implements DomWalker.Visitor {
+  public static class GadgetHtmlVisitor implements DomWalker.SelectiveVisitor {
     private final Converter converter;
     
     public GadgetHtmlVisitor(Converter converter) {
       this.converter = converter;
     }
+
+    public Set<String> getVisitedNodeNames() {
+      return ImmutableSet.of("div");
+    }
     
     public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
       if (node.getNodeType() == Node.ELEMENT_NODE &&
@@ -52,7 +52,7 @@ public class ProxyingContentRewriter extends DomWalker.Rewriter {
     // Note that concat is including with proxy in order to prevent 
     // proxying the rewritten concat url
     // Basically Url rewritters should all be in one dom walker.
-    return ImmutableList.of(
+    return ImmutableList.<Visitor>of(
         new ConcatVisitor.Js(config, concatUriManager),
         new ConcatVisitor.Css(config, concatUriManager),
         new ProxyingVisitor(config, proxyUriManager,
@@ -31,6 +31,7 @@ import org.w3c.dom.Node;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Abstract visitor that walks over html tags as specified by
@@ -43,7 +44,7 @@ import java.util.Map;
  *
  * @since 2.0.0
  */
-public abstract class ResourceMutateVisitor implements DomWalker.Visitor {
+public abstract class ResourceMutateVisitor implements DomWalker.StreamableVisitor {
   /**
    * Enum for resource tags and associated attributes that should be mutated.
    */
@@ -91,6 +92,13 @@ public abstract class ResourceMutateVisitor implements DomWalker.Visitor {
     this.resourceTags = ImmutableMap.<String, String>builder().putAll(rTags).build();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public Set<String> getVisitedNodeNames() {
+    return resourceTags.keySet();
+  }
+
   /**
    * {@inheritDoc}
    */
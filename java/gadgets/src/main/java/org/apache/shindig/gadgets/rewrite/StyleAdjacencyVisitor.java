@@ -19,15 +19,17 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
 import org.apache.shindig.common.xml.DomUtil;
 import org.apache.shindig.gadgets.Gadget;
-import org.apache.shindig.gadgets.rewrite.DomWalker.Visitor;
+import org.apache.shindig.gadgets.rewrite.DomWalker.SelectiveVisitor;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Visitor that pulls all stylesheet nodes in a document to head, in
@@ -38,8 +40,13 @@ import java.util.List;
  *
  * @since 2.0.0
  */
-public class StyleAdjacencyVisitor implements Visitor {
-  
+public class StyleAdjacencyVisitor implements SelectiveVisitor {
+  private static final Set<String> VISITED_NODE_NAMES = ImmutableSet.of("style", "link");
+
+  public Set<String> getVisitedNodeNames() {
+    return VISITED_NODE_NAMES;
+  }
+
   public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
     if (node.getNodeType() == Node.ELEMENT_NODE &&
         ("style".equalsIgnoreCase(node.getNodeName()) ||
@@ -19,21 +19,24 @@
 package org.apache.shindig.gadgets.rewrite;
 
 import java.util.List;
+import java.util.Set;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.DomUtil;
 import org.apache.shindig.gadgets.Gadget;
-import org.apache.shindig.gadgets.rewrite.DomWalker.Visitor;
+import org.apache.shindig.gadgets.rewrite.DomWalker.SelectiveVisitor;
 import org.apache.shindig.gadgets.spec.View;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * Visits nodes in the dom extracting style tags.
  * @since 2.0.0
  */
-public class StyleTagExtractorVisitor implements Visitor {
+public class StyleTagExtractorVisitor implements SelectiveVisitor {
   private final ContentRewriterFeature.Config config;
   private final CssResponseRewriter cssRewriter;
   private final ProxyUriManager proxyUriManager;
@@ -45,6 +48,13 @@ public class StyleTagExtractorVisitor implements Visitor {
     this.proxyUriManager = proxyUriManager;
   }
 
+  public Set<String> getVisitedNodeNames() {
+    if (!config.isRewriteEnabled() || !config.getIncludedTags().contains("style")) {
+      return ImmutableSet.of();
+    }
+    return ImmutableSet.of("style");
+  }
+
   public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
     if (!config.isRewriteEnabled() || !config.getIncludedTags().contains("style")) {
       return VisitStatus.BYPASS;
@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
@@ -26,6 +27,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * Visitor that replaces urls (@import + background) in
@@ -33,7 +35,7 @@ import java.util.List;
  *
  * @since 2.0.0
  */
-public class StyleTagProxyEmbeddedUrlsVisitor implements DomWalker.Visitor {
+public class StyleTagProxyEmbeddedUrlsVisitor implements DomWalker.StreamableVisitor {
   protected final ContentRewriterFeature.Config config;
   protected final ProxyUriManager proxyUriManager;
   protected final CssResponseRewriter cssRewriter;
@@ -47,6 +49,10 @@ public class StyleTagProxyEmbeddedUrlsVisitor implements DomWalker.Visitor {
     this.cssRewriter = cssRewriter;
   }
 
+  public Set<String> getVisitedNodeNames() {
+    return ImmutableSet.of("style");
+  }
+
   public VisitStatus visit(Gadget gadget, Node node) throws RewritingException {
     // Only process <style> elements.
     if (node.getNodeType() != Node.ELEMENT_NODE ||
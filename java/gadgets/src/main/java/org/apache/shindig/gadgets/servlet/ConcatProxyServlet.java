@@ -24,6 +24,9 @@ import com.google.inject.name.Named;
 import com.google.common.collect.Lists;
 
 import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.Weighable;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.servlet.InjectedServlet;
@@ -31,9 +34,12 @@ import org.apache.shindig.common.Pair;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.GzipUtil;
+import org.apache.shindig.gadgets.DefaultGuiceModule;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.InvalidationService;
 import org.apache.shindig.gadgets.http.MultipleResourceHttpFetcher;
 import org.apache.shindig.gadgets.http.MultipleResourceHttpFetcher.RequestContext;
 import org.apache.shindig.gadgets.http.RequestPipeline;
@@ -42,9 +48,12 @@ import org.apache.shindig.gadgets.rewrite.RewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.uri.ConcatUriManager;
+import org.apache.shindig.gadgets.uri.UriStatus;
 import org.apache.shindig.gadgets.uri.UriCommon.Param;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -53,6 +62,7 @@ import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -71,6 +81,8 @@ public class ConcatProxyServlet extends InjectedServlet {
   static final Integer LONG_LIVED_REFRESH = (365 * 24 * 60 * 60);  // 1 year
   static final Integer DEFAULT_REFRESH = (60 * 60);                // 1 hour
 
+  public static final String BUNDLE_CACHE_NAME = "concatBundles";
+
   //class name for logging purpose
   private static final String classname = ConcatProxyServlet.class.getName();
   private static final Logger LOG = Logger.getLogger(classname,MessageKeys.MESSAGES);
@@ -78,11 +90,14 @@ public class ConcatProxyServlet extends InjectedServlet {
   private transient RequestPipeline requestPipeline;
   private transient ConcatUriManager concatUriManager;
   private transient ResponseRewriterRegistry contentRewriterRegistry;
+  private transient Cache<String, ConcatBundle> bundleCache;
+  private transient InvalidationService invalidationService;
 
-  // Sequential version of 'execute' by default.
-  private transient Executor executor = Executors.newSingleThreadExecutor();
+  private transient Executor executor =
+      Executors.newCachedThreadPool(DefaultGuiceModule.DAEMON_THREAD_FACTORY);
 
   private Integer longLivedRefreshSec = LONG_LIVED_REFRESH;
+  private int maxParallelFetches = 0;
 
   @Inject(optional = true)
   public void setLongLivedRefresh(
@@ -90,6 +105,16 @@ public class ConcatProxyServlet extends InjectedServlet {
     this.longLivedRefreshSec = longLivedRefreshSec;
   }
 
+  /**
+   * @param maxParallelFetches The most resources of one concat request fetched at once.
+   *     0 fetches all of them at once.
+   */
+  @Inject(optional = true)
+  public void setMaxParallelFetches(
+      @Named("shindig.concat.max-parallel-fetches") int maxParallelFetches) {
+    this.maxParallelFetches = maxParallelFetches;
+  }
+
   @Inject
   public void setRequestPipeline(RequestPipeline requestPipeline) {
     checkInitialized();
@@ -109,6 +134,19 @@ public class ConcatProxyServlet extends InjectedServlet {
     this.contentRewriterRegistry = contentRewriterRegistry;
   }
 
+  /**
+   * Enables caching of whole versioned concat responses. A bundle records the generation of each
+   * of its resources when it is fetched, and is no longer served once invalidationService
+   * reports a different generation for any of them.
+   */
+  @Inject(optional = true)
+  public void setBundleCache(CacheProvider cacheProvider,
+      InvalidationService invalidationService) {
+    checkInitialized();
+    this.bundleCache = cacheProvider.createCache(BUNDLE_CACHE_NAME);
+    this.invalidationService = invalidationService;
+  }
+
   @Inject
   public void setExecutor(@Named("shindig.concat.executor") Executor executor) {
     checkInitialized();
@@ -144,8 +182,15 @@ public class ConcatProxyServlet extends InjectedServlet {
     // As such, we affirmatively state that UTF8 is being returned here.
     response.setHeader("Content-Type", concatType.getMimeType() + "; charset=UTF8");
     response.setHeader("Content-Disposition", "attachment;filename=p.txt");
+    response.addHeader("Vary", "Accept-Encoding");
 
-    if (doFetchConcatResources(response, concatUri, uri)) {
+    boolean gzip = GzipUtil.acceptsGzip(request.getHeader("Accept-Encoding"));
+    String bundleKey = getBundleKey(concatUri, uri);
+    if (bundleKey != null && outputCachedBundle(response, concatUri, bundleKey, gzip)) {
+      response.setStatus(HttpResponse.SC_OK);
+      return;
+    }
+    if (doFetchConcatResources(response, concatUri, uri, gzip, bundleKey)) {
       response.setStatus(HttpResponse.SC_OK);
     } else {
       response.setStatus(HttpResponse.SC_BAD_REQUEST);
@@ -155,11 +200,14 @@ public class ConcatProxyServlet extends InjectedServlet {
   /**
    * @param response HttpservletResponse.
    * @param concatUri URI representing the concatenated list of resources requested.
+   * @param gzip Whether the output may be gzip encoded.
+   * @param bundleKey Key to cache the complete output under, or null to not cache it.
    * @return false for cases where concat resources could not be fetched, true for success cases.
    * @throws IOException
    */
   private boolean doFetchConcatResources(HttpServletResponse response,
-      ConcatUriManager.ConcatUri concatUri, Uri uri) throws IOException {
+      ConcatUriManager.ConcatUri concatUri, Uri uri, boolean gzip, String bundleKey)
+      throws IOException {
     // Check for json concat and set output stream.
     ConcatOutputStream cos = null;
     Long minCacheTtl = Long.MAX_VALUE;
@@ -169,7 +217,7 @@ public class ConcatProxyServlet extends InjectedServlet {
     if (jsonVar != null) {
       // JSON-concat mode.
       if (JSON_PARAM_PATTERN.matcher(jsonVar).matches()) {
-        cos = new JsonConcatOutputStream(response.getOutputStream(), jsonVar);
+        cos = new JsonConcatOutputStream(response, gzip, jsonVar);
       } else {
         response.getOutputStream().println(
             formatHttpError(HttpServletResponse.SC_BAD_REQUEST,
@@ -178,10 +226,23 @@ public class ConcatProxyServlet extends InjectedServlet {
       }
     } else {
       // Standard concat output mode.
-      cos = new VerbatimConcatOutputStream(response.getOutputStream());
+      cos = new VerbatimConcatOutputStream(response, gzip);
+    }
+    if (bundleKey != null) {
+      cos.captureOutput();
+    }
+
+    // When the caching headers don't depend on the resources, they can be sent before any
+    // resource is ready, and each resource is sent as soon as it and those before it are.
+    Integer fixedRefresh = getFixedRefresh(concatUri);
+    if (fixedRefresh != null) {
+      HttpUtil.setCachingHeaders(response, fixedRefresh, false);
+      cos.startStreaming();
     }
 
     List<HttpRequest> requests = Lists.newArrayList();
+    // Taken before fetching, so that invalidations during the fetch prevent caching the bundle.
+    long[] generations = bundleKey == null ? null : getGenerations(concatUri.getBatch());
 
     try {
       for (Uri resourceUri : concatUri.getBatch()) {
@@ -197,7 +258,9 @@ public class ConcatProxyServlet extends InjectedServlet {
 
       MultipleResourceHttpFetcher parallelFetcher =
           new MultipleResourceHttpFetcher(requestPipeline, executor);
-      List<Pair<Uri, FutureTask<RequestContext>>> futureTasks = parallelFetcher.fetchAll(requests);
+      List<Pair<Uri, FutureTask<RequestContext>>> futureTasks =
+          parallelFetcher.fetchAll(requests, maxParallelFetches);
+      cos.flushOutput();
 
       for (Pair<Uri, FutureTask<RequestContext>> futureTask : futureTasks) {
         RequestContext requestCxt = null;
@@ -234,11 +297,13 @@ public class ConcatProxyServlet extends InjectedServlet {
             return false;
           }
         }
+        cos.flushOutput();
+      }
+      if (fixedRefresh == null) {
+        long refresh = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
+        HttpUtil.setCachingHeaders(response,
+            concatUri.translateStatusRefresh(longLivedRefreshSec, (int) refresh), false);
       }
-      // TODO: Investigate Chunked Encoding
-      minCacheTtl = isMinCacheTtlSet ? (minCacheTtl / 1000) : DEFAULT_REFRESH;
-      HttpUtil.setCachingHeaders(response,
-          concatUri.translateStatusRefresh(longLivedRefreshSec, minCacheTtl.intValue()), false);
     } catch (GadgetException gex) {
       cos.outputError(uri, gex);
     } finally {
@@ -251,9 +316,98 @@ public class ConcatProxyServlet extends InjectedServlet {
       }
     }
 
+    if (bundleKey != null && isMinCacheTtlSet) {
+      cacheBundle(bundleKey, cos.getCapturedOutput(), concatUri.getBatch(), generations,
+          minCacheTtl);
+    }
+    return true;
+  }
+
+  /**
+   * @return The key to cache the output for concatUri under, or null if it must not be cached.
+   *     Only versioned URIs are cached, as their content can't change without the URI changing.
+   */
+  private String getBundleKey(ConcatUriManager.ConcatUri concatUri, Uri uri) {
+    if (bundleCache == null || concatUri.getStatus() != UriStatus.VALID_VERSIONED ||
+        concatUri.isNoCache()) {
+      return null;
+    }
+    return uri.toString();
+  }
+
+  /**
+   * Writes the cached output for bundleKey, if there is a usable entry.
+   *
+   * @return true if the response was written from the cache.
+   */
+  private boolean outputCachedBundle(HttpServletResponse response,
+      ConcatUriManager.ConcatUri concatUri, String bundleKey, boolean gzip) throws IOException {
+    ConcatBundle bundle = bundleCache.getElement(bundleKey);
+    if (bundle == null) {
+      return false;
+    }
+    long now = HttpUtil.getTimeSource().currentTimeMillis();
+    if (bundle.expiration <= now ||
+        !Arrays.equals(bundle.generations, getGenerations(bundle.resources))) {
+      bundleCache.removeElement(bundleKey);
+      return false;
+    }
+
+    int refresh;
+    try {
+      refresh = concatUri.translateStatusRefresh(longLivedRefreshSec,
+          (int) ((bundle.expiration - now) / 1000));
+    } catch (GadgetException e) {
+      return false;
+    }
+    HttpUtil.setCachingHeaders(response, refresh, false);
+
+    byte[] body = bundle.body;
+    if (gzip && bundle.gzippedBody != null) {
+      response.setHeader("Content-Encoding", "gzip");
+      body = bundle.gzippedBody;
+    }
+    response.setContentLength(body.length);
+    ServletOutputStream out = response.getOutputStream();
+    out.write(body);
+    out.close();
     return true;
   }
 
+  private void cacheBundle(String bundleKey, byte[] body, List<Uri> resources,
+      long[] generations, long minCacheTtl) {
+    if (body == null || minCacheTtl <= 0) {
+      return;
+    }
+    long expiration = HttpUtil.getTimeSource().currentTimeMillis() + minCacheTtl;
+    bundleCache.addElement(bundleKey, new ConcatBundle(body, GzipUtil.gzipIfSmaller(body),
+        expiration, resources, generations));
+  }
+
+  private long[] getGenerations(List<Uri> resources) {
+    long[] generations = new long[resources.size()];
+    for (int i = 0; i < generations.length; i++) {
+      generations[i] = invalidationService.getResourceGeneration(resources.get(i));
+    }
+    return generations;
+  }
+
+  /**
+   * @return The refresh to send for concatUri if it doesn't vary with the TTLs of the
+   *     resources, otherwise null.
+   */
+  private Integer getFixedRefresh(ConcatUriManager.ConcatUri concatUri) {
+    try {
+      Integer refresh = concatUri.translateStatusRefresh(longLivedRefreshSec, 0);
+      if (refresh.equals(concatUri.translateStatusRefresh(longLivedRefreshSec, 1))) {
+        return refresh;
+      }
+    } catch (GadgetException e) {
+      // Reported after the resources have been output, as before.
+    }
+    return null;
+  }
+
   private static String formatHttpError(int status, String errorMessage, Uri uri) {
     StringBuilder err = new StringBuilder();
     err.append("/* ---- Error ");
@@ -289,19 +443,101 @@ public class ConcatProxyServlet extends InjectedServlet {
     return err.toString();
   }
 
+  /**
+   * The complete output for a versioned concat URI, along with the generations its resources
+   * had when they were fetched.
+   */
+  private static class ConcatBundle implements Weighable {
+    private final byte[] body;
+    private final byte[] gzippedBody;
+    private final long expiration;
+    private final List<Uri> resources;
+    private final long[] generations;
+
+    ConcatBundle(byte[] body, byte[] gzippedBody, long expiration, List<Uri> resources,
+        long[] generations) {
+      this.body = body;
+      this.gzippedBody = gzippedBody;
+      this.expiration = expiration;
+      this.resources = resources;
+      this.generations = generations;
+    }
+
+    public long getWeight() {
+      return body.length + (gzippedBody == null ? 0 : gzippedBody.length);
+    }
+  }
+
   private static abstract class ConcatOutputStream extends ServletOutputStream {
+    private final HttpServletResponse response;
     private final ServletOutputStream wrapped;
+    private final boolean gzip;
     private final StringBuilder stringBuilder;
-
-    protected ConcatOutputStream(ServletOutputStream wrapped) {
-      this.wrapped = wrapped;
+    private boolean streaming;
+    private GZIPOutputStream gzipStream;
+    private ByteArrayOutputStream capture;
+    private boolean failed;
+
+    protected ConcatOutputStream(HttpServletResponse response, boolean gzip) throws IOException {
+      this.response = response;
+      this.wrapped = response.getOutputStream();
+      this.gzip = gzip;
       stringBuilder = new StringBuilder();
     }
 
     protected abstract void outputJs(Uri uri, String data) throws IOException;
 
+    /**
+     * Sends output to the client each time {@link #flushOutput} is called, rather than all at
+     * once when the stream is closed. Must be called before any output is flushed.
+     */
+    public void startStreaming() throws IOException {
+      streaming = true;
+      if (gzip) {
+        response.setHeader("Content-Encoding", "gzip");
+        gzipStream = new GZIPOutputStream(wrapped);
+      }
+    }
+
+    /**
+     * Keeps a copy of the uncompressed output, available from {@link #getCapturedOutput}.
+     */
+    public void captureOutput() {
+      capture = new ByteArrayOutputStream();
+    }
+
+    /**
+     * @return The complete uncompressed output, or null if it wasn't captured or includes an
+     *     error for any resource.
+     */
+    public byte[] getCapturedOutput() {
+      return capture == null || failed ? null : capture.toByteArray();
+    }
+
+    /**
+     * Sends the output so far to the client, if streaming.
+     */
+    public void flushOutput() throws IOException {
+      if (streaming && stringBuilder.length() > 0) {
+        byte[] data = CharsetUtil.getUtf8Bytes(stringBuilder.toString());
+        stringBuilder.setLength(0);
+        if (capture != null) {
+          capture.write(data);
+        }
+        if (gzipStream != null) {
+          // Compressed data is sent as the deflater produces it.
+          gzipStream.write(data);
+          gzipStream.flush();
+        } else {
+          wrapped.write(data);
+          wrapped.flush();
+        }
+      }
+    }
+
     public void output(Uri uri, HttpResponse resp) throws IOException {
       if (resp.getHttpStatusCode() != HttpServletResponse.SC_OK) {
+        failed = true;
         println(formatHttpError(resp.getHttpStatusCode(), resp.getResponseAsString(), uri));
       } else {
         outputJs(uri, resp.getResponseAsString());
@@ -310,6 +546,7 @@ public class ConcatProxyServlet extends InjectedServlet {
 
     public boolean outputError(Uri uri, GadgetException e)
         throws IOException {
+      failed = true;
       println(formatError("outputError", e, uri));
       return e.getHttpStatusCode() == HttpResponse.SC_INTERNAL_SERVER_ERROR;
     }
@@ -331,7 +568,27 @@ public class ConcatProxyServlet extends InjectedServlet {
 
     @Override
     public void close() throws IOException {
-      wrapped.write(CharsetUtil.getUtf8Bytes(stringBuilder.toString()));
+      if (streaming) {
+        flushOutput();
+        if (gzipStream != null) {
+          gzipStream.finish();
+        }
+        wrapped.close();
+        return;
+      }
+      byte[] body = CharsetUtil.getUtf8Bytes(stringBuilder.toString());
+      if (capture != null) {
+        capture.write(body);
+      }
+      if (gzip) {
+        // The whole output is buffered, so it is compressed in one go.
+        byte[] gzipped = GzipUtil.gzipIfSmaller(body);
+        if (gzipped != null) {
+          response.setHeader("Content-Encoding", "gzip");
+          body = gzipped;
+        }
+      }
+      wrapped.write(body);
       wrapped.close();
     }
 
@@ -349,8 +606,9 @@ public class ConcatProxyServlet extends InjectedServlet {
   }
 
   private static class VerbatimConcatOutputStream extends ConcatOutputStream {
-    public VerbatimConcatOutputStream(ServletOutputStream wrapped) {
-      super(wrapped);
+    public VerbatimConcatOutputStream(HttpServletResponse response, boolean gzip)
+        throws IOException {
+      super(response, gzip);
     }
 
     @Override
@@ -364,8 +622,9 @@ public class ConcatProxyServlet extends InjectedServlet {
   private static class JsonConcatOutputStream extends ConcatOutputStream {
     private boolean firstEntry;
 
-    public JsonConcatOutputStream(ServletOutputStream wrapped, String tok) throws IOException {
-      super(wrapped);
+    public JsonConcatOutputStream(HttpServletResponse response, boolean gzip, String tok)
+        throws IOException {
+      super(response, gzip);
       this.println(tok + "={");
       this.firstEntry = true;
     }
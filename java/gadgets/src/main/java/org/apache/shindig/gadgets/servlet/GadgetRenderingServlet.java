@@ -155,7 +155,7 @@ public class GadgetRenderingServlet extends InjectedServlet {
       }
       HttpUtil.setCachingHeaders(resp, ttl, true);
     }
-    resp.getWriter().print(params.getResults().getContent());
+    params.getResults().writeContent(resp.getWriter());
   }
 
   protected void onErrorRenderingResultsStatus(PostGadgetRenderingParams params)
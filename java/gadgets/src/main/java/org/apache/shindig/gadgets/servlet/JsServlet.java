@@ -22,7 +22,7 @@ import com.google.inject.Inject;
 
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.servlet.InjectedServlet;
-import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.GzipUtil;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.js.JsException;
 import org.apache.shindig.gadgets.js.JsRequest;
@@ -109,10 +109,48 @@ public class JsServlet extends InjectedServlet {
     cachingSetter.setCachingHeaders(
         resp, jsResponse.getCacheTtlSecs(), !jsResponse.isProxyCacheable());
 
+    if (jsResponse.getStatusCode() == HttpServletResponse.SC_OK) {
+      String etag = jsResponse.getEtag();
+      resp.setHeader("ETag", etag);
+      if (matchesEtag(req.getHeader("If-None-Match"), etag)) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return;
+      }
+    }
+
     resp.setStatus(jsResponse.getStatusCode());
     resp.setContentType("text/javascript; charset=utf-8");
-    byte[] response = CharsetUtil.getUtf8Bytes(jsResponse.toJsString());
+    byte[] response = jsResponse.toJsBytes();
+    byte[] gzipped = jsResponse.toGzippedJsBytes();
+    if (gzipped != null) {
+      resp.addHeader("Vary", "Accept-Encoding");
+      if (GzipUtil.acceptsGzip(req.getHeader("Accept-Encoding"))) {
+        resp.setHeader("Content-Encoding", "gzip");
+        response = gzipped;
+      }
+    }
     resp.setContentLength(response.length);
     resp.getOutputStream().write(response);
   }
+
+  /**
+   * Compares the tags of an If-None-Match header to etag, ignoring weakness.
+   */
+  private static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaqueTag = stripWeakness(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || stripWeakness(candidate).equals(opaqueTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeakness(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
 }
@@ -26,6 +26,7 @@ import com.google.inject.name.Named;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.shindig.common.Nullable;
+import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.GadgetBlacklist;
 import org.apache.shindig.gadgets.GadgetException;
@@ -33,11 +34,14 @@ import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
 import org.apache.shindig.gadgets.http.RequestPipeline;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
+import org.apache.shindig.gadgets.http.StreamingRequestPipeline;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterList.RewriteFlow;
 import org.apache.shindig.gadgets.rewrite.ResponseRewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.RewriterRegistry;
 import org.apache.shindig.gadgets.rewrite.RewritingException;
 import org.apache.shindig.gadgets.uri.ProxyUriManager;
+import org.apache.shindig.gadgets.uri.UriCommon.Param;
 import org.apache.shindig.gadgets.uri.UriUtils;
 import org.apache.shindig.gadgets.uri.UriUtils.DisallowedHeaders;
 
@@ -45,9 +49,16 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Handles open proxy requests.
+ *
+ * When the request pipeline supports streaming, GET responses larger than the configured
+ * threshold are copied straight from the origin to the servlet response instead of being
+ * buffered. Such responses are not cached or rewritten.
  */
 @Singleton
 public class ProxyHandler {
@@ -57,6 +68,9 @@ public class ProxyHandler {
   private final GadgetBlacklist gadgetBlacklist;
   private final Integer longLivedRefreshSec;
   private static final String POST = "POST";
+  private static final int STREAM_BUFFER_SIZE = 8192;
+
+  private int streamingThresholdBytes = 0;
 
   @Inject
   public ProxyHandler(RequestPipeline requestPipeline,
@@ -71,6 +85,15 @@ public class ProxyHandler {
     this.longLivedRefreshSec = longLivedRefreshSec;
   }
 
+  /**
+   * Responses larger than this many bytes are streamed to the client. 0 disables streaming.
+   */
+  @Inject(optional = true)
+  public void setStreamingThresholdBytes(
+      @Named("shindig.proxy.streaming.threshold-bytes") int streamingThresholdBytes) {
+    this.streamingThresholdBytes = streamingThresholdBytes;
+  }
+
   /**
    * Generate a remote content request based on the parameters sent from the client.
    * @param uriCtx
@@ -91,11 +114,55 @@ public class ProxyHandler {
   }
 
   public HttpResponse fetch(ProxyUriManager.ProxyUri proxyUri) throws IOException, GadgetException {
-    return fetch(proxyUri, null);
+    return fetch(proxyUri, (String) null);
   }
 
   public HttpResponse fetch(ProxyUriManager.ProxyUri proxyUri, @Nullable String postBody)
       throws IOException, GadgetException {
+    HttpRequest rcr = buildValidatedRequest(proxyUri, postBody);
+    return processResults(proxyUri, rcr, requestPipeline.execute(rcr));
+  }
+
+  /**
+   * Fetches the proxied resource, streaming it directly to servletResponse if it is too large
+   * to buffer. A streamed fetch keeps its origin connection, and its place in the fetcher's
+   * per-origin concurrency limit, until the whole body has been written to the client.
+   *
+   * @return The response to send, or null if it has already been written to servletResponse.
+   */
+  public HttpResponse fetch(ProxyUriManager.ProxyUri proxyUri,
+      final HttpServletResponse servletResponse) throws IOException, GadgetException {
+    final HttpRequest rcr = buildValidatedRequest(proxyUri, null);
+    if (!canStream(proxyUri, rcr)) {
+      return processResults(proxyUri, rcr, requestPipeline.execute(rcr));
+    }
+
+    final ProxyUriManager.ProxyUri uriCtx = proxyUri;
+    HttpResponse results = ((StreamingRequestPipeline) requestPipeline).execute(rcr,
+        streamingThresholdBytes, new StreamingHttpFetcher.ResponseSink() {
+          public void stream(HttpResponse head, InputStream body) throws IOException {
+            HttpResponse response;
+            try {
+              response = makeProxyResponseBuilder(uriCtx, rcr, head).create();
+            } catch (GadgetException gex) {
+              // Send the error instead of the content.
+              ServletUtil.copyToServletResponseAndOverrideCacheHeaders(
+                  ServletUtil.errorResponse(gex), servletResponse);
+              return;
+            }
+            ServletUtil.copyHeadersAndStatusToServletResponse(response, servletResponse);
+            HttpUtil.setCachingHeaders(servletResponse, (int) (response.getCacheTtl() / 1000L));
+            copyStream(body, servletResponse.getOutputStream());
+          }
+        });
+    if (results == null) {
+      return null;
+    }
+    return processResults(proxyUri, rcr, results);
+  }
+
+  private HttpRequest buildValidatedRequest(ProxyUriManager.ProxyUri proxyUri,
+      @Nullable String postBody) throws IOException, GadgetException {
     HttpRequest rcr = buildHttpRequest(proxyUri, proxyUri.getResource(), postBody);
     if (rcr == null) {
       throw new GadgetException(GadgetException.Code.INVALID_PARAMETER,
@@ -106,9 +173,35 @@ public class ProxyHandler {
       throw new GadgetException(GadgetException.Code.BLACKLISTED_GADGET,
         "The requested content is unavailable", HttpResponse.SC_FORBIDDEN);
     }
+    return rcr;
+  }
 
-    HttpResponse results = requestPipeline.execute(rcr);
+  /**
+   * Streaming bypasses content rewriting, so only requests that don't ask for any
+   * content transformation are eligible.
+   */
+  private boolean canStream(ProxyUriManager.ProxyUri proxyUri, HttpRequest rcr) {
+    return streamingThresholdBytes > 0 &&
+        requestPipeline instanceof StreamingRequestPipeline &&
+        !proxyUri.sanitizeContent() &&
+        !proxyUri.cajoleContent() &&
+        Strings.isNullOrEmpty(rcr.getRewriteMimeType()) &&
+        rcr.getParam(Param.RESIZE_HEIGHT.getKey()) == null &&
+        rcr.getParam(Param.RESIZE_WIDTH.getKey()) == null &&
+        rcr.getParam(Param.RESIZE_QUALITY.getKey()) == null;
+  }
 
+  private static void copyStream(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    out.flush();
+  }
+
+  private HttpResponse processResults(ProxyUriManager.ProxyUri proxyUri, HttpRequest rcr,
+      HttpResponse results) throws IOException, GadgetException {
     if (results.isError()) {
       // Error: try the fallback. Particularly useful for proxied images.
       Uri fallbackUri = proxyUri.getFallbackUri();
@@ -131,16 +224,31 @@ public class ProxyHandler {
       }
     }
 
-    HttpResponseBuilder response = new HttpResponseBuilder(results);
-    response.clearAllHeaders();
-
+    HttpResponseBuilder response;
     try {
-      ServletUtil.setCachingHeaders(response, proxyUri.translateStatusRefresh(longLivedRefreshSec,
-        (int) (results.getCacheTtl() / 1000)), false);
+      response = makeProxyResponseBuilder(proxyUri, rcr, results);
     } catch (GadgetException gex) {
       return ServletUtil.errorResponse(gex);
     }
 
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    IOUtils.copy(results.getResponse(), baos);
+    response.setResponse(baos.toByteArray());
+    return response.create();
+  }
+
+  /**
+   * Creates the headers and status sent to the client for the given results. The body is left
+   * for the caller to set.
+   */
+  private HttpResponseBuilder makeProxyResponseBuilder(ProxyUriManager.ProxyUri proxyUri,
+      HttpRequest rcr, HttpResponse results) throws GadgetException {
+    HttpResponseBuilder response = new HttpResponseBuilder(results);
+    response.clearAllHeaders();
+
+    ServletUtil.setCachingHeaders(response, proxyUri.translateStatusRefresh(longLivedRefreshSec,
+      (int) (results.getCacheTtl() / 1000)), false);
+
     UriUtils.copyResponseHeadersAndStatusCode(results, response, remapInternalServerError, true,
       DisallowedHeaders.CACHING_DIRECTIVES, // Proxy sets its own caching headers.
       DisallowedHeaders.CLIENT_STATE_DIRECTIVES, // Overridden or irrelevant to proxy.
@@ -151,12 +259,7 @@ public class ProxyHandler {
     setResponseContentHeaders(response, results);
 
     UriUtils.maybeRewriteContentType(rcr, response);
-
-    // TODO: replace this with streaming APIs when ready
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    IOUtils.copy(results.getResponse(), baos);
-    response.setResponse(baos.toByteArray());
-    return response.create();
+    return response;
   }
 
   protected void setResponseContentHeaders(HttpResponseBuilder response, HttpResponse results) {
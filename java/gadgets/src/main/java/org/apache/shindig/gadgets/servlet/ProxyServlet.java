@@ -115,14 +115,24 @@ public class ProxyServlet extends InjectedServlet {
         StringBuffer buffer = getPOSTContent(request);
         response = proxyHandler.fetch(proxyUri, buffer.toString());
       } else {
-        response = proxyHandler.fetch(proxyUri);
+        response = proxyHandler.fetch(proxyUri, servletResponse);
+        if (response == null) {
+          // Streamed directly to the client.
+          return;
+        }
       }
     } catch (GadgetException e) {
+      if (servletResponse.isCommitted()) {
+        // Failed part way through streaming, too late to send an error.
+        LOG.logp(Level.WARNING, classname, "processRequest",
+            "Failed while streaming " + reqUri + ": " + e.getMessage());
+        return;
+      }
       response = ServletUtil.errorResponse(new GadgetException(e.getCode(), e.getMessage(),
           HttpServletResponse.SC_BAD_REQUEST));
     }
 
-    ServletUtil.copyToServletResponseAndOverrideCacheHeaders(response, servletResponse);
+    ServletUtil.copyToServletResponseAndOverrideCacheHeaders(response, request, servletResponse);
   }
 
   private StringBuffer getPOSTContent(HttpServletRequest request) throws IOException {
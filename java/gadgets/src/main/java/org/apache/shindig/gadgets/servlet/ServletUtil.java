@@ -27,6 +27,7 @@ import org.apache.shindig.common.Pair;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
+import org.apache.shindig.common.util.GzipUtil;
 import org.apache.shindig.common.util.Utf8UrlCoder;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.http.HttpRequest;
@@ -103,6 +104,17 @@ public final class ServletUtil {
     copyContentToServletResponse(response, servletResponse);
   }
 
+  /**
+   * As {@link #copyToServletResponseAndOverrideCacheHeaders(HttpResponse, HttpServletResponse)},
+   * sending the gzipped body if the client accepts it.
+   */
+  public static void copyToServletResponseAndOverrideCacheHeaders(HttpResponse response,
+      HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+    copyHeadersAndStatusToServletResponse(response, servletResponse);
+    HttpUtil.setCachingHeaders(servletResponse, (int)(response.getCacheTtl() / 1000L));
+    copyContentToServletResponse(response, servletRequest, servletResponse);
+  }
+
   public static void copyToServletResponse(
       HttpResponse response, HttpServletResponse servletResponse) throws IOException {
     copyHeadersAndStatusToServletResponse(response, servletResponse);
@@ -115,6 +127,24 @@ public final class ServletUtil {
     IOUtils.copy(response.getResponse(), servletResponse.getOutputStream());
 
   }
+  /**
+   * Copies the body of the response, using its gzipped form if the client accepts gzip.
+   */
+  public static void copyContentToServletResponse(HttpResponse response,
+      HttpServletRequest servletRequest, HttpServletResponse servletResponse) throws IOException {
+    int gzippedLength = response.getGzippedContentLength();
+    if (gzippedLength >= 0) {
+      servletResponse.addHeader("Vary", "Accept-Encoding");
+      if (GzipUtil.acceptsGzip(servletRequest.getHeader("Accept-Encoding"))) {
+        servletResponse.setHeader("Content-Encoding", "gzip");
+        servletResponse.setContentLength(gzippedLength);
+        IOUtils.copy(response.getGzippedResponse(), servletResponse.getOutputStream());
+        return;
+      }
+    }
+    copyContentToServletResponse(response, servletResponse);
+  }
+
   public static void copyHeadersAndStatusToServletResponse(
       HttpResponse response, HttpServletResponse servletResponse) {
     servletResponse.setStatus(response.getHttpStatusCode());
@@ -27,6 +27,7 @@ import java.util.logging.Logger;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatsUtil;
 import org.apache.shindig.common.logging.i18n.MessageKeys;
 import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.features.ApiDirective;
@@ -186,6 +187,7 @@ public class ClosureJsCompiler implements JsCompiler {
 
   protected JsResponse doCompile(JsUri jsUri, Iterable<JsContent> content, String externs,
       String cacheKey) {
+    long compileStart = System.nanoTime();
     JsResponseBuilder builder = new JsResponseBuilder();
 
     CompilerOptions options = getCompilerOptions(jsUri);
@@ -238,6 +240,7 @@ public class ClosureJsCompiler implements JsCompiler {
     builder.clearExterns().appendRawExtern(result.externExport);
 
     JsResponse response = builder.build();
+    CacheStatsUtil.recordLoad(cache, compileStart);
     cache.addElement(cacheKey, response);
     return response;
   }
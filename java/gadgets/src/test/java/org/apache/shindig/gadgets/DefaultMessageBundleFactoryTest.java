@@ -23,7 +23,9 @@ import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.verify;
 import static org.easymock.EasyMock.replay;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
@@ -303,6 +305,48 @@ public class DefaultMessageBundleFactoryTest {
     assertEquals(bundle0.getMessages().get(MSG_0_NAME), bundle1.getMessages().get(MSG_0_NAME));
   }
 
+  @Test
+  public void getMergedBundleFromCache() throws Exception {
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+    MessageBundle bundle1 = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+    MessageBundle viewBundle = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, "view1");
+
+    assertEquals(MSG_2_VALUE, bundle0.getMessages().get(MSG_2_NAME));
+    assertSame(bundle0, bundle1);
+    assertNotSame(bundle0, viewBundle);
+  }
+
+  @Test
+  public void mergedBundleKeyedOnSpecContent() throws Exception {
+    GadgetSpec copy = new GadgetSpec(SPEC_URI, BASIC_SPEC);
+    GadgetSpec changed = new GadgetSpec(SPEC_URI, "<Module><ModulePrefs title='foo'/><Content/></Module>");
+
+    MessageBundle bundle = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+
+    assertSame(bundle, bundleFactory.getBundle(copy, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null));
+    assertNotSame(bundle, bundleFactory.getBundle(changed, LANG_LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null));
+  }
+
+  @Test
+  public void missingLocaleIsCached() throws Exception {
+    replay(pipeline);
+    GadgetSpec spec = new GadgetSpec(SPEC_URI, "<Module><ModulePrefs title='foo'/><Content/></Module>");
+
+    MessageBundle bundle0 = bundleFactory.getBundle(spec, LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+    MessageBundle bundle1 = bundleFactory.getBundle(spec, LOCALE, false, ContainerConfig.DEFAULT_CONTAINER, null);
+    verify(pipeline);
+
+    assertEquals(0, bundle0.getMessages().size());
+    assertSame(bundle0, bundle1);
+  }
+
+  @Test
+  public void ignoreCacheDoesNotMerge() throws Exception {
+    MessageBundle bundle0 = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, true, ContainerConfig.DEFAULT_CONTAINER, null);
+    MessageBundle bundle1 = bundleFactory.getBundle(gadgetSpec, LANG_LOCALE, true, ContainerConfig.DEFAULT_CONTAINER, null);
+    assertNotSame(bundle0, bundle1);
+  }
+
   @Test
   public void ignoreCacheDoesNotStore() throws Exception {
     bundleFactory.getBundle(gadgetSpec, new Locale("all", "ALL"), true, ContainerConfig.DEFAULT_CONTAINER, null);
@@ -325,12 +369,14 @@ public class DefaultMessageBundleFactoryTest {
 
     final AtomicLong time = new AtomicLong();
 
-    bundleFactory.cache.setTimeSource(new TimeSource() {
+    TimeSource timeSource = new TimeSource() {
       @Override
       public long currentTimeMillis() {
         return time.get();
       }
-    });
+    };
+    bundleFactory.cache.setTimeSource(timeSource);
+    bundleFactory.mergedCache.setTimeSource(timeSource);
 
     time.set(System.currentTimeMillis());
 
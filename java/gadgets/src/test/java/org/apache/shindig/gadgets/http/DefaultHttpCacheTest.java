@@ -18,6 +18,7 @@
 package org.apache.shindig.gadgets.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
@@ -60,6 +61,23 @@ public class DefaultHttpCacheTest {
     assertEquals(response, cache.getElement(key));
   }
 
+  @Test
+  public void addResponsePrecompresses() {
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      body.append("compressible text ");
+    }
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/plain")
+        .setResponseString(body.toString())
+        .create();
+
+    httpCache.addResponse(request, response);
+
+    assertTrue(cache.getElement(httpCache.createKey(request)).isPrecompressed());
+  }
+
   @Test
   public void removeResponse() {
     HttpRequest request = new HttpRequest(DEFAULT_URI);
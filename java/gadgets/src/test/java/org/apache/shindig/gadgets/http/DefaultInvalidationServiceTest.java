@@ -92,6 +92,13 @@ public class DefaultInvalidationServiceTest extends Assert {
     assertEquals(0, cacheProvider.createCache(DefaultHttpCache.CACHE_NAME).getSize());
   }
 
+  @Test
+  public void testInvalidateUrlChangesGeneration() throws Exception {
+    long generation = service.getResourceGeneration(URI);
+    service.invalidateApplicationResources(ImmutableSet.of(URI), appxToken);
+    assertTrue(generation != service.getResourceGeneration(URI));
+  }
+
   @Test
   public void testInvalidateUsers() throws Exception {
     service.invalidateUserResources(ImmutableSet.of("example.org:1", "example.org:2"),
@@ -18,11 +18,16 @@
 package org.apache.shindig.gadgets.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Provider;
 
+import org.apache.shindig.common.cache.CacheStatsRegistry;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.DateUtil;
 import org.apache.shindig.gadgets.AuthType;
@@ -32,7 +37,15 @@ import org.apache.shindig.gadgets.rewrite.DefaultResponseRewriterRegistry;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultRequestPipelineTest {
   private static final Uri DEFAULT_URI = Uri.parse("http://example.org/gadget.xml");
@@ -262,6 +275,400 @@ public class DefaultRequestPipelineTest {
     assertEquals(0, cache.writeCount);
   }
 
+  @Test
+  public void concurrentIdenticalRequestsCoalesced() throws Exception {
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.org/gadget.xml?v=1"))
+        .setAuthType(AuthType.NONE);
+    BlockingHttpFetcher blockingFetcher = new BlockingHttpFetcher(
+        new HttpResponseBuilder().setResponseString("fetched").setCacheTtl(100).create());
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(blockingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+
+    HttpResponse[] responses = executeConcurrently(pipeline, blockingFetcher, request,
+        new HttpRequest(request));
+
+    assertEquals(1, blockingFetcher.fetchCount.get());
+    assertEquals(1, cache.writeCount);
+    assertEquals(1, pipeline.getCoalescedFetchCount());
+    assertEquals("fetched", responses[0].getResponseAsString());
+    assertSame(responses[0], responses[1]);
+  }
+
+  @Test
+  public void coalescedFetchCountExported() throws Exception {
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.org/gadget.xml?v=1"))
+        .setAuthType(AuthType.NONE);
+    BlockingHttpFetcher blockingFetcher = new BlockingHttpFetcher(
+        new HttpResponseBuilder().setResponseString("fetched").setCacheTtl(100).create());
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(blockingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    CacheStatsRegistry registry = new CacheStatsRegistry();
+    pipeline.setStatsRegistry(registry);
+
+    executeConcurrently(pipeline, blockingFetcher, request, new HttpRequest(request));
+
+    DefaultRequestPipeline.Stats stats = (DefaultRequestPipeline.Stats)
+        registry.getStats().get("requestPipeline").get("coalescing");
+    assertEquals(1, stats.getCoalescedFetchCount());
+    assertEquals(0, stats.getInFlightFetchCount());
+  }
+
+  @Test
+  public void responsesSettingCookiesNotShared() throws Exception {
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.org/gadget.xml?v=1"))
+        .setAuthType(AuthType.NONE);
+    BlockingHttpFetcher blockingFetcher = new BlockingHttpFetcher(new HttpResponseBuilder()
+        .setResponseString("fetched").setCacheTtl(100).addHeader("Set-Cookie", "id=1").create());
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(blockingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+
+    executeConcurrently(pipeline, blockingFetcher, request, new HttpRequest(request));
+
+    assertEquals(2, blockingFetcher.fetchCount.get());
+    assertEquals(0, pipeline.getCoalescedFetchCount());
+  }
+
+  @Test
+  public void requestsWithDifferentHeadersNotCoalesced() throws Exception {
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.org/gadget.xml?v=1"))
+        .setAuthType(AuthType.NONE)
+        .addHeader("Accept-Language", "en");
+    BlockingHttpFetcher blockingFetcher = new BlockingHttpFetcher(
+        new HttpResponseBuilder().setResponseString("fetched").setCacheTtl(100).create());
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(blockingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+
+    executeConcurrently(pipeline, blockingFetcher, request,
+        new HttpRequest(request).setHeader("Accept-Language", "fr"));
+
+    assertEquals(2, blockingFetcher.fetchCount.get());
+    assertEquals(0, pipeline.getCoalescedFetchCount());
+  }
+
+  @Test
+  public void concurrentStreamingRequestsCoalesced() throws Exception {
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.org/image.png?v=1"))
+        .setAuthType(AuthType.NONE);
+    BlockingHttpFetcher blockingFetcher = new BlockingHttpFetcher(
+        new HttpResponseBuilder().setResponseString("fetched").setCacheTtl(100).create());
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(blockingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    StreamingHttpFetcher.ResponseSink sink = new StreamingHttpFetcher.ResponseSink() {
+      public void stream(HttpResponse head, InputStream body) {
+        throw new AssertionError("Should not stream");
+      }
+    };
+
+    HttpResponse[] responses = executeConcurrently(pipeline, blockingFetcher, request,
+        new HttpRequest(request), sink);
+
+    assertEquals(1, blockingFetcher.fetchCount.get());
+    assertEquals(1, pipeline.getCoalescedFetchCount());
+    assertEquals("fetched", responses[0].getResponseAsString());
+    assertSame(responses[0], responses[1]);
+  }
+
+  private static HttpResponse[] executeConcurrently(RequestPipeline pipeline,
+      BlockingHttpFetcher blockingFetcher, HttpRequest first, HttpRequest second)
+      throws Exception {
+    return executeConcurrently(pipeline, blockingFetcher, first, second, null);
+  }
+
+  /**
+   * Executes the second request while the fetch for the first is blocked, passing both the sink
+   * if it is not null.
+   */
+  private static HttpResponse[] executeConcurrently(RequestPipeline pipeline,
+      BlockingHttpFetcher blockingFetcher, HttpRequest first, HttpRequest second,
+      StreamingHttpFetcher.ResponseSink sink) throws Exception {
+    final HttpResponse[] responses = new HttpResponse[2];
+    Thread leader = new ExecuteThread(pipeline, first, sink, responses, 0);
+    Thread follower = new ExecuteThread(pipeline, second, sink, responses, 1);
+
+    leader.start();
+    assertTrue(blockingFetcher.started.await(10, TimeUnit.SECONDS));
+    follower.start();
+    // Either waiting on the leader or blocked in its own fetch.
+    while (follower.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    blockingFetcher.release.countDown();
+    leader.join();
+    follower.join();
+    return responses;
+  }
+
+  private static class ExecuteThread extends Thread {
+    private final RequestPipeline pipeline;
+    private final HttpRequest request;
+    private final StreamingHttpFetcher.ResponseSink sink;
+    private final HttpResponse[] responses;
+    private final int index;
+
+    ExecuteThread(RequestPipeline pipeline, HttpRequest request,
+        StreamingHttpFetcher.ResponseSink sink, HttpResponse[] responses, int index) {
+      this.pipeline = pipeline;
+      this.request = request;
+      this.sink = sink;
+      this.responses = responses;
+      this.index = index;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (sink == null) {
+          responses[index] = pipeline.execute(request);
+        } else {
+          responses[index] = ((StreamingRequestPipeline) pipeline).execute(request, 100, sink);
+        }
+      } catch (GadgetException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  private static class BlockingHttpFetcher implements StreamingHttpFetcher {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    private final HttpResponse response;
+
+    BlockingHttpFetcher(HttpResponse response) {
+      this.response = response;
+    }
+
+    public HttpResponse fetch(HttpRequest request) throws GadgetException {
+      fetchCount.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+      }
+      return response;
+    }
+
+    public HttpResponse fetch(HttpRequest request, int maxBufferedBytes, ResponseSink sink)
+        throws GadgetException {
+      HttpResponse fetched = fetch(request);
+      if (fetched.getContentLength() <= maxBufferedBytes) {
+        return fetched;
+      }
+      try {
+        sink.stream(fetched, fetched.getResponse());
+      } catch (IOException e) {
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+      }
+      return null;
+    }
+  }
+
+  @Test
+  public void staleServedWhileRevalidating() throws Exception {
+    Uri uri = Uri.parse("http://example.org/gadget.xml?v=1");
+    HttpRequest request = new HttpRequest(uri).setAuthType(AuthType.NONE);
+
+    HttpResponse cached = new HttpResponseBuilder().setCacheTtl(-1).create();
+    cache.data.put(uri, cached);
+    HttpResponse fetched = new HttpResponse("fetched");
+    fetcher.response = fetched;
+
+    final AtomicInteger scheduled = new AtomicInteger();
+    DefaultRequestPipeline pipeline = newPipeline();
+    pipeline.setStaleWhileRevalidateMs(60000L);
+    pipeline.setRevalidationExecutor(new Executor() {
+      public void execute(Runnable command) {
+        scheduled.incrementAndGet();
+        command.run();
+      }
+    });
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertSame(cached, response);
+    assertEquals(1, scheduled.get());
+    assertEquals(1, fetcher.fetchCount);
+    assertEquals(fetched, cache.data.get(uri));
+  }
+
+  @Test
+  public void staleBeyondWindowFetchedSynchronously() throws Exception {
+    Uri uri = Uri.parse("http://example.org/gadget.xml?v=1");
+    HttpRequest request = new HttpRequest(uri).setAuthType(AuthType.NONE);
+
+    HttpResponse cached = new HttpResponseBuilder().setCacheTtl(-1000).create();
+    cache.data.put(uri, cached);
+    HttpResponse fetched = new HttpResponse("fetched");
+    fetcher.response = fetched;
+
+    DefaultRequestPipeline pipeline = newPipeline();
+    pipeline.setStaleWhileRevalidateMs(1000L);
+    pipeline.setRevalidationExecutor(new Executor() {
+      public void execute(Runnable command) {
+        throw new AssertionError("Revalidation should not be scheduled");
+      }
+    });
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertEquals(fetched, response);
+    assertEquals(1, fetcher.fetchCount);
+  }
+
+  @Test
+  public void staleInvalidatedNotServedWhileRevalidating() throws Exception {
+    Uri uri = Uri.parse("http://example.org/gadget.xml?v=1");
+    HttpRequest request = new HttpRequest(uri).setAuthType(AuthType.NONE);
+
+    HttpResponse cached = new HttpResponseBuilder().setCacheTtl(-1).create();
+    cache.data.put(uri, cached);
+    HttpResponse fetched = new HttpResponse("fetched");
+    fetcher.response = fetched;
+
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(fetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService() {
+          @Override
+          public boolean isValid(HttpRequest request, HttpResponse response) {
+            return false;
+          }
+        }, helper);
+    pipeline.setStaleWhileRevalidateMs(60000L);
+    pipeline.setRevalidationExecutor(new Executor() {
+      public void execute(Runnable command) {
+        throw new AssertionError("Revalidation should not be scheduled");
+      }
+    });
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertEquals(fetched, response);
+    assertEquals(1, fetcher.fetchCount);
+  }
+
+  @Test
+  public void staleSignedNotServedWhileRevalidating() throws Exception {
+    Uri uri = Uri.parse("http://example.org/gadget.xml?v=1");
+    HttpRequest request = new HttpRequest(uri).setAuthType(AuthType.SIGNED);
+
+    HttpResponse cached = new HttpResponseBuilder().setCacheTtl(-1).create();
+    cache.data.put(uri, cached);
+    oauth.httpResponse = new HttpResponse("fetched");
+
+    DefaultRequestPipeline pipeline = newPipeline();
+    pipeline.setStaleWhileRevalidateMs(60000L);
+    pipeline.setRevalidationExecutor(new Executor() {
+      public void execute(Runnable command) {
+        throw new AssertionError("Revalidation should not be scheduled");
+      }
+    });
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertEquals(oauth.httpResponse, response);
+    assertEquals(1, oauth.fetchCount);
+  }
+
+  @Test
+  public void staleWithValidatorsRevalidatedConditionally() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI).setAuthType(AuthType.NONE);
+
+    HttpResponse cached = new HttpResponseBuilder()
+        .setResponseString("rewritten")
+        .setCacheTtl(-1)
+        .setMetadata(HttpResponseMetadataHelper.ORIGIN_ETAG, "\"v1\"")
+        .create();
+    cache.data.put(DEFAULT_URI, cached);
+    fetcher.response = new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_NOT_MODIFIED)
+        .setCacheTtl(100)
+        .create();
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertEquals("\"v1\"", fetcher.request.getHeader("If-None-Match"));
+    assertNull(request.getHeader("If-None-Match"));
+    assertEquals(HttpResponse.SC_OK, response.getHttpStatusCode());
+    assertEquals("rewritten", response.getResponseAsString());
+    assertFalse(response.isStale());
+    assertSame(response, cache.data.get(DEFAULT_URI));
+    assertEquals(1, cache.writeCount);
+  }
+
+  @Test
+  public void originValidatorsRecorded() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI).setAuthType(AuthType.NONE);
+
+    fetcher.response = new HttpResponseBuilder()
+        .setResponseString("fetched")
+        .addHeader("ETag", "\"v1\"")
+        .addHeader("Last-Modified", "Mon, 01 Jan 2001 00:00:00 GMT")
+        .create();
+
+    HttpResponse response = pipeline.execute(request);
+
+    assertEquals("\"v1\"", response.getMetadata().get(HttpResponseMetadataHelper.ORIGIN_ETAG));
+    assertEquals("Mon, 01 Jan 2001 00:00:00 GMT",
+        response.getMetadata().get(HttpResponseMetadataHelper.ORIGIN_LAST_MODIFIED));
+  }
+
+  @Test
+  public void streamedResponseNotCached() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI).setAuthType(AuthType.NONE);
+    final HttpResponse head = new HttpResponse("");
+    StreamingHttpFetcher streamingFetcher = new StreamingHttpFetcher() {
+      public HttpResponse fetch(HttpRequest request, int maxBufferedBytes, ResponseSink sink)
+          throws GadgetException {
+        assertEquals(10, maxBufferedBytes);
+        try {
+          sink.stream(head, new ByteArrayInputStream("large body".getBytes()));
+        } catch (IOException e) {
+          throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+        }
+        return null;
+      }
+
+      public HttpResponse fetch(HttpRequest request) {
+        throw new AssertionError("Buffered fetch should not be used");
+      }
+    };
+    DefaultRequestPipeline pipeline = new DefaultRequestPipeline(streamingFetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+    final List<HttpResponse> streamed = Lists.newArrayList();
+
+    HttpResponse response = pipeline.execute(request, 10, new StreamingHttpFetcher.ResponseSink() {
+      public void stream(HttpResponse head, InputStream body) {
+        streamed.add(head);
+      }
+    });
+
+    assertNull(response);
+    assertEquals(1, streamed.size());
+    assertSame(head, streamed.get(0));
+    assertEquals(0, cache.writeCount);
+  }
+
+  @Test
+  public void streamingFallsBackToBufferedFetch() throws Exception {
+    HttpRequest request = new HttpRequest(DEFAULT_URI).setAuthType(AuthType.NONE);
+    fetcher.response = new HttpResponse("small");
+
+    HttpResponse response = newPipeline().execute(request, 10,
+        new StreamingHttpFetcher.ResponseSink() {
+          public void stream(HttpResponse head, InputStream body) {
+            throw new AssertionError("Should not stream");
+          }
+        });
+
+    assertEquals("small", response.getResponseAsString());
+    assertEquals(1, cache.writeCount);
+  }
+
+  private DefaultRequestPipeline newPipeline() {
+    return new DefaultRequestPipeline(fetcher, cache, oauth,
+        new DefaultResponseRewriterRegistry(null, null), new NoOpInvalidationService(), helper);
+  }
+
   private static int roundToSeconds(long ts) {
     return (int)(ts / 1000);
   }
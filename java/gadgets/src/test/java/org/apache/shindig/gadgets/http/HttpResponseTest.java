@@ -30,6 +30,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
 
 public class HttpResponseTest extends Assert {
   private static final byte[] UTF8_DATA = {
@@ -614,4 +616,104 @@ public class HttpResponseTest extends Assert {
   public void testCacheExpirationForStrictNoCacheResponseWithoutOverride() throws Exception {
     assertEquals(-1, new HttpResponseBuilder().setStrictNoCache().create().getCacheExpiration());
   }
+
+  @Test
+  public void testWeightIncludesBodyAndHeaders() throws Exception {
+    HttpResponse small = new HttpResponseBuilder().setResponse(new byte[10]).create();
+    HttpResponse large = new HttpResponseBuilder().setResponse(new byte[10000]).create();
+    assertTrue(large.getWeight() - small.getWeight() >= 9990);
+
+    HttpResponse withHeader = new HttpResponseBuilder().setResponse(new byte[10])
+        .addHeader("X-Extra", "some header value").create();
+    assertTrue(withHeader.getWeight() > small.getWeight());
+  }
+
+  private static String repeat(String s, int count) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testGzippedResponse() throws Exception {
+    String body = repeat("compressible text ", 100);
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/plain")
+        .setResponseString(body)
+        .create();
+    assertTrue(response.getGzippedContentLength() > 0);
+    assertTrue(response.getGzippedContentLength() < response.getContentLength());
+    assertEquals(body, IOUtils.toString(new GZIPInputStream(response.getGzippedResponse()), "UTF-8"));
+  }
+
+  @Test
+  public void testShortResponseNotGzipped() throws Exception {
+    HttpResponse response = new HttpResponse("short");
+    assertEquals(-1, response.getGzippedContentLength());
+    assertNull(response.getGzippedResponse());
+  }
+
+  @Test
+  public void testCompressedContentTypeNotGzipped() throws Exception {
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "image/png")
+        .setResponse(new byte[1000])
+        .create();
+    assertEquals(-1, response.getGzippedContentLength());
+  }
+
+  @Test
+  public void testEncodedResponseNotGzipped() throws Exception {
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Encoding", "deflate")
+        .setResponse(new byte[1000])
+        .create();
+    assertEquals(-1, response.getGzippedContentLength());
+  }
+
+  @Test
+  public void testGzippedBodyKeptWhenBodyUnchanged() throws Exception {
+    // Compresses to roughly half its size.
+    StringBuilder body = new StringBuilder();
+    Random random = new Random(0);
+    for (int i = 0; i < 2000; ++i) {
+      body.append((char) ('a' + random.nextInt(8)));
+    }
+    HttpResponse response = new HttpResponseBuilder()
+        .setResponseString(body.toString())
+        .create();
+    response.precompress();
+    int gzippedLength = response.getGzippedContentLength();
+    assertTrue(gzippedLength > 500);
+
+    HttpResponse copy = new HttpResponseBuilder(response)
+        .setHeader("X-Extra", "value")
+        .setResponseString(body.toString())
+        .create();
+    assertNotSame(response, copy);
+    assertTrue(copy.isPrecompressed());
+    assertEquals(gzippedLength, copy.getGzippedContentLength());
+
+    HttpResponse changed = new HttpResponseBuilder(response)
+        .setResponseString(body.toString() + "changed")
+        .create();
+    assertFalse(changed.isPrecompressed());
+  }
+
+  @Test
+  public void testWeightDoesNotGrowWhenLazyFormsAreComputed() throws Exception {
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/plain")
+        .setResponse(repeat("compressible text ", 100).getBytes("UTF-8"))
+        .create();
+    long weight = response.getWeight();
+
+    response.getResponseAsString();
+    response.precompress();
+
+    assertTrue(response.getGzippedContentLength() > 0);
+    assertTrue(response.getWeight() <= weight);
+  }
 }
@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.http;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.eq;
@@ -82,6 +83,38 @@ public class MultipleResourceHttpFetcherTest extends EasyMockTestCase {
     verify();
   }
 
+  @Test
+  public void testFetchAllWithParallelLimit() throws Exception {
+    List<HttpRequest> requests = createRequestArray();
+
+    expect(requestPipeline.execute(eq(reqCxt1.getHttpReq()))).andReturn(reqCxt1.getHttpResp())
+        .times(2);
+    expect(requestPipeline.execute(eq(reqCxt2.getHttpReq()))).andReturn(reqCxt2.getHttpResp());
+
+    replay();
+    final List<Runnable> queued = Lists.newArrayList();
+    fetcher = new MultipleResourceHttpFetcher(requestPipeline, new Executor() {
+      public void execute(Runnable command) {
+        queued.add(command);
+      }
+    });
+    List<Pair<Uri, FutureTask<RequestContext>>> futureTasks = fetcher.fetchAll(requests, 2);
+    assertEquals(3, futureTasks.size());
+    assertEquals(2, queued.size());
+
+    // Completing a fetch starts the next one.
+    queued.get(1).run();
+    assertEquals(3, queued.size());
+    assertSame(futureTasks.get(2).two, queued.get(2));
+    queued.get(0).run();
+    queued.get(2).run();
+
+    assertEquals(reqCxt1, futureTasks.get(0).two.get());
+    assertEquals(reqCxt2, futureTasks.get(1).two.get());
+    assertEquals(reqCxt3, futureTasks.get(2).two.get());
+    verify();
+  }
+
   @Test
   public void testFetchUnique() throws Exception {
     List<HttpRequest> requests = createRequestArray();
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.shindig.common.uri.Uri;
+
+import org.junit.Test;
+
+/**
+ * Tests for the off-heap content cache
+ */
+public class OffHeapHttpCacheTest {
+  private static final Uri DEFAULT_URI = Uri.parse("http://example.org/file.txt");
+  private final OffHeapHttpCache httpCache = new OffHeapHttpCache(4096, 1024);
+
+  private static HttpRequest request(int i) {
+    return new HttpRequest(Uri.parse("http://example.org/file" + i + ".txt"));
+  }
+
+  @Test
+  public void addAndGetResponse() {
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+    HttpResponse response = new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_OK)
+        .addHeader("Content-Type", "text/plain; charset=UTF-8")
+        .addHeader("X-Multi", "one")
+        .addHeader("X-Multi", "two")
+        .setMetadata("foo", "bar")
+        .setResponseString("response")
+        .create();
+
+    httpCache.addResponse(request, response);
+    HttpResponse cached = httpCache.getResponse(request);
+
+    assertEquals(response, cached);
+    assertEquals("response", cached.getResponseAsString());
+    assertEquals("bar", cached.getMetadata().get("foo"));
+    assertEquals(2, cached.getHeaders("X-Multi").size());
+    assertEquals(1, httpCache.getSize());
+  }
+
+  @Test
+  public void binaryBodyPreserved() {
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+    byte[] body = new byte[256];
+    for (int i = 0; i < body.length; ++i) {
+      body[i] = (byte) i;
+    }
+    httpCache.addResponse(request, new HttpResponseBuilder().setResponse(body).create());
+    assertArrayEquals(body, httpCache.getResponse(request).getResponseAsBytes());
+  }
+
+  @Test
+  public void removeResponse() {
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+    HttpResponse response = new HttpResponse("response");
+    httpCache.addResponse(request, response);
+
+    assertEquals(response, httpCache.removeResponse(request));
+    assertNull(httpCache.getResponse(request));
+    assertEquals(0, httpCache.getSize());
+  }
+
+  @Test
+  public void oversizedResponseNotCached() {
+    HttpRequest request = new HttpRequest(DEFAULT_URI);
+    httpCache.addResponse(request, new HttpResponseBuilder().setResponse(new byte[2048]).create());
+    assertNull(httpCache.getResponse(request));
+  }
+
+  @Test
+  public void oldestSlabRecycledWhenFull() {
+    // Each response takes a bit more than half a slab, so every add starts a new slab.
+    for (int i = 0; i < 5; ++i) {
+      httpCache.addResponse(request(i),
+          new HttpResponseBuilder().setResponse(new byte[600]).create());
+    }
+    assertNull(httpCache.getResponse(request(0)));
+    for (int i = 1; i < 5; ++i) {
+      assertEquals(600, httpCache.getResponse(request(i)).getContentLength());
+    }
+    assertEquals(4, httpCache.getSize());
+    assertEquals(4096, httpCache.getAllocatedBytes());
+  }
+}
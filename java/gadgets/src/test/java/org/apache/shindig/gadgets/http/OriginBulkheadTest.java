@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.apache.shindig.common.servlet.HttpUtil;
+import org.apache.shindig.common.util.FakeTimeSource;
+import org.apache.shindig.common.util.TimeSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OriginBulkheadTest {
+  private static final String ORIGIN = "http://slow.example.org";
+
+  private final FakeTimeSource timeSource = new FakeTimeSource(1000L);
+  private TimeSource originalTimeSource;
+
+  @Before
+  public void setUp() {
+    originalTimeSource = HttpUtil.getTimeSource();
+    HttpUtil.setTimeSource(timeSource);
+  }
+
+  @After
+  public void tearDown() {
+    HttpUtil.setTimeSource(originalTimeSource);
+  }
+
+  @Test
+  public void concurrencyLimitedPerOrigin() {
+    OriginBulkhead bulkhead = new OriginBulkhead(2, 0, 0);
+
+    OriginBulkhead.Origin first = bulkhead.enter(ORIGIN);
+    OriginBulkhead.Origin second = bulkhead.enter(ORIGIN);
+    assertNotNull(first);
+    assertNotNull(second);
+    assertNull(bulkhead.enter(ORIGIN));
+    // Other origins are unaffected.
+    assertNotNull(bulkhead.enter("http://fast.example.org"));
+
+    bulkhead.exit(first, false);
+    assertNotNull(bulkhead.enter(ORIGIN));
+
+    OriginBulkhead.Stats stats = bulkhead.getStats().get(ORIGIN);
+    assertEquals(3, stats.getFetchCount());
+    assertEquals(1, stats.getRejectedCount());
+    assertEquals(0, stats.getAvailablePermits());
+  }
+
+  @Test
+  public void circuitOpensAfterConsecutiveTimeouts() {
+    OriginBulkhead bulkhead = new OriginBulkhead(0, 3, 5000L);
+
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    // A success resets the count.
+    bulkhead.exit(bulkhead.enter(ORIGIN), false);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    assertEquals(OriginBulkhead.State.CLOSED, bulkhead.getStats().get(ORIGIN).getState());
+
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    assertEquals(OriginBulkhead.State.OPEN, bulkhead.getStats().get(ORIGIN).getState());
+    assertNull(bulkhead.enter(ORIGIN));
+    assertEquals(1, bulkhead.getStats().get(ORIGIN).getShortCircuitedCount());
+    assertEquals(5, bulkhead.getStats().get(ORIGIN).getTimeoutCount());
+  }
+
+  @Test
+  public void halfOpenAllowsSingleProbe() {
+    OriginBulkhead bulkhead = new OriginBulkhead(0, 1, 5000L);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+    assertNull(bulkhead.enter(ORIGIN));
+
+    timeSource.incrementSeconds(5);
+    OriginBulkhead.Origin probe = bulkhead.enter(ORIGIN);
+    assertNotNull(probe);
+    assertEquals(OriginBulkhead.State.HALF_OPEN, bulkhead.getStats().get(ORIGIN).getState());
+    assertNull(bulkhead.enter(ORIGIN));
+
+    bulkhead.exit(probe, false);
+    assertEquals(OriginBulkhead.State.CLOSED, bulkhead.getStats().get(ORIGIN).getState());
+    assertNotNull(bulkhead.enter(ORIGIN));
+  }
+
+  @Test
+  public void failedProbeReopensCircuit() {
+    OriginBulkhead bulkhead = new OriginBulkhead(0, 1, 5000L);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+
+    timeSource.incrementSeconds(5);
+    bulkhead.exit(bulkhead.enter(ORIGIN), true);
+
+    assertEquals(OriginBulkhead.State.OPEN, bulkhead.getStats().get(ORIGIN).getState());
+    assertNull(bulkhead.enter(ORIGIN));
+    timeSource.incrementSeconds(5);
+    assertNotNull(bulkhead.enter(ORIGIN));
+  }
+}
@@ -18,10 +18,23 @@
 
 package org.apache.shindig.gadgets.js;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.uri.JsUriManager.JsUri;
+import org.apache.shindig.gadgets.uri.UriStatus;
 import org.easymock.EasyMock;
 import org.easymock.IMocksControl;
 import org.junit.Test;
 
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.common.collect.ImmutableList;
 
 /**
  * Tests for {@link DefaultJsServingPipeline}.
@@ -41,4 +54,76 @@ public class DefaultJsServingPipelineTest {
 
     control.verify();
   }
+
+  @Test
+  public void testResponseIsCachedPerRequest() throws Exception {
+    CountingRegistry registry = new CountingRegistry();
+    DefaultJsServingPipeline pipeline = new DefaultJsServingPipeline(registry);
+    pipeline.setResponseCache(new LruCacheProvider(10), true);
+
+    JsResponse first = pipeline.execute(createRequest("http://a.com/js/core.js?c=1", "core"));
+    JsResponse second = pipeline.execute(createRequest("http://a.com/js/core.js?c=1", "core"));
+    assertSame(first, second);
+    assertEquals(1, registry.calls);
+
+    pipeline.execute(createRequest("http://a.com/js/core.js?c=1", "core", "rpc"));
+    assertEquals(2, registry.calls);
+  }
+
+  @Test
+  public void testConfigChangeInvalidatesCache() throws Exception {
+    CountingRegistry registry = new CountingRegistry();
+    DefaultJsServingPipeline pipeline = new DefaultJsServingPipeline(registry);
+    pipeline.setResponseCache(new LruCacheProvider(10), true);
+
+    JsResponse first = pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+    pipeline.containersChanged(null, ImmutableList.of("default"),
+        Collections.<String>emptyList());
+    JsResponse second = pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+
+    assertNotSame(first, second);
+    assertEquals(2, registry.calls);
+  }
+
+  @Test
+  public void testErrorsAreNotCached() throws Exception {
+    CountingRegistry registry = new CountingRegistry();
+    registry.statusCode = HttpServletResponse.SC_NOT_FOUND;
+    DefaultJsServingPipeline pipeline = new DefaultJsServingPipeline(registry);
+    pipeline.setResponseCache(new LruCacheProvider(10), true);
+
+    pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+    pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+
+    assertEquals(2, registry.calls);
+  }
+
+  @Test
+  public void testDisabledCache() throws Exception {
+    CountingRegistry registry = new CountingRegistry();
+    DefaultJsServingPipeline pipeline = new DefaultJsServingPipeline(registry);
+    pipeline.setResponseCache(new LruCacheProvider(10), false);
+
+    pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+    pipeline.execute(createRequest("http://a.com/js/core.js", "core"));
+
+    assertEquals(2, registry.calls);
+  }
+
+  private static JsRequest createRequest(String uri, String... libs) {
+    JsUri jsUri = new JsUri(UriStatus.VALID_UNVERSIONED, Uri.parse(uri),
+        ImmutableList.copyOf(libs), null);
+    return new JsRequest(jsUri, "a.com", false, null);
+  }
+
+  private static class CountingRegistry implements JsProcessorRegistry {
+    private int calls;
+    private int statusCode = HttpServletResponse.SC_OK;
+
+    public void process(JsRequest jsRequest, JsResponseBuilder response) {
+      calls++;
+      response.setStatusCode(statusCode);
+      response.appendJs("var calls = " + calls + ";", "test");
+    }
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+
+public class CompactDomTest {
+  private final DOMImplementation documentFactory =
+      new ParseModule.DOMImplementationProvider().get();
+
+  @Test
+  public void documentRoundTrip() throws Exception {
+    Document doc = documentFactory.createDocument(null, null, null);
+    doc.appendChild(documentFactory.createDocumentType("html", "-//W3C//DTD HTML 4.01//EN", null));
+    doc.appendChild(doc.createComment("first"));
+    Element html = doc.createElement("html");
+    doc.appendChild(html);
+    Element body = doc.createElement("body");
+    body.setAttribute("class", "main");
+    html.appendChild(body);
+    Element os = doc.createElementNS("http://ns.opensocial.org/2008/markup", "os:Name");
+    os.setAttribute("person", "${Viewer}");
+    body.appendChild(os);
+    body.appendChild(doc.createTextNode("text & more"));
+
+    Document copy = CompactDom.copyOf(doc).toDocument(documentFactory);
+    assertTrue(doc.isEqualNode(copy));
+    Element osCopy = (Element) copy.getElementsByTagName("os:Name").item(0);
+    assertEquals("http://ns.opensocial.org/2008/markup", osCopy.getNamespaceURI());
+    assertEquals("Name", osCopy.getLocalName());
+  }
+
+  @Test
+  public void fragmentAppendedToNode() throws Exception {
+    Document source = documentFactory.createDocument(null, null, null);
+    DocumentFragment fragment = source.createDocumentFragment();
+    Element b = source.createElement("b");
+    b.appendChild(source.createTextNode("bold"));
+    fragment.appendChild(b);
+    fragment.appendChild(source.createElement("br"));
+
+    Document dest = documentFactory.createDocument(null, null, null);
+    Element div = dest.createElement("div");
+    dest.appendChild(div);
+    CompactDom.copyOf(fragment).appendTo(div);
+
+    assertEquals(2, div.getChildNodes().getLength());
+    assertEquals("b", div.getFirstChild().getNodeName());
+    assertEquals("bold", div.getFirstChild().getTextContent());
+    assertEquals("br", div.getLastChild().getNodeName());
+    assertTrue(dest == div.getFirstChild().getOwnerDocument());
+  }
+
+  @Test
+  public void entityReferencesNotCopied() throws Exception {
+    Document doc = documentFactory.createDocument(null, null, null);
+    Element div = doc.createElement("div");
+    div.appendChild(doc.createEntityReference("nbsp"));
+    assertNull(CompactDom.copyOf(div));
+  }
+}
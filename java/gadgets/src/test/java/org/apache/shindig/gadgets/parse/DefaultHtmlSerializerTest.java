@@ -48,6 +48,10 @@ public class DefaultHtmlSerializerTest {
     Document doc = parser.parseDom(txt);
     DefaultHtmlSerializer serializer = new DefaultHtmlSerializer();
     assertEquals("Serialized full document", txt, serializer.serialize(doc));
+
+    StringBuilder output = new StringBuilder();
+    serializer.serialize(doc, output);
+    assertEquals("Streamed full document", txt, output.toString());
   }
 
   @Test
@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.parse;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.gadgets.parse.nekohtml.NekoSimplifiedHtmlParser;
 import org.apache.shindig.gadgets.rewrite.XPathWrapper;
 
@@ -80,6 +81,24 @@ public class HtmlParserTest extends Assert {
     assertEquals(1, wrapper.getNodeList("/html/body/div/hr").getLength());
   }
 
+  @Test
+  public void testCachedParsesAreIndependentCopies() throws Exception {
+    GadgetHtmlParser parser = new NekoSimplifiedHtmlParser(
+        new ParseModule.DOMImplementationProvider().get());
+    parser.setCacheProvider(new LruCacheProvider(10));
+    String html = "<html><head><title>t</title></head><body><div id=\"foo\">content</div>" +
+        "<script type=\"text/os-data\" xmlns:os=\"http://ns.opensocial.org/2008/markup\">" +
+        "<os:ViewerRequest key=\"viewer\"/></script></body></html>";
+
+    Document first = parser.parseDom(html);
+    String serialized = HtmlSerialization.serialize(first);
+    first.getElementsByTagName("div").item(0).setTextContent("changed");
+
+    Document second = parser.parseDom(html);
+    assertNotSame(first, second);
+    assertEquals(serialized, HtmlSerialization.serialize(second));
+  }
+
   // TODO: figure out to what extent it makes sense to test "invalid"
   // HTML, semi-structured HTML, and comment parsing
 }
@@ -19,17 +19,29 @@ package org.apache.shindig.gadgets.preload;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.apache.shindig.common.testing.ImmediateExecutorService;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.config.ContainerConfig;
+import org.apache.shindig.config.JsonContainerConfig;
+import org.apache.shindig.expressions.Expressions;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 
 import com.google.common.collect.ImmutableList;
@@ -48,6 +60,9 @@ public class ConcurrentPreloaderServiceTest {
   private static final Map<String, String> PRELOAD_MAP_VALUE
       = ImmutableMap.of("foo", "bar", "baz", "blah");
 
+  private static final Uri SPEC_URL = Uri.parse("http://example.org/gadget.xml");
+  private static final String SPEC_XML = "<Module><ModulePrefs title=''/><Content/></Module>";
+
   private final TestPreloader preloader = new TestPreloader();
 
   @Test
@@ -146,6 +161,97 @@ public class ConcurrentPreloaderServiceTest {
         Thread.currentThread(), callable.executedThread);
   }
 
+  @Test
+  public void preloadsMissingDeadlineTimeOut() throws Exception {
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    TestPreloadCallable fast =
+        new TestPreloadCallable(new DataPreload(PRELOAD_STRING_KEY, PRELOAD_STRING_VALUE));
+    preloader.tasks.add(fast);
+    preloader.tasks.add(new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        try {
+          new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+        }
+        return new DataPreload(PRELOAD_NUMERIC_KEY, PRELOAD_NUMERIC_VALUE);
+      }
+    });
+
+    ConcurrentPreloaderService service = new ConcurrentPreloaderService(
+        Executors.newCachedThreadPool(), preloader);
+    service.setContainerConfig(createConfig(50));
+
+    Iterator<PreloadedData> preloads = service.preload(createGadget()).iterator();
+    assertEquals(ImmutableList.of(ImmutableMap.of(PRELOAD_STRING_KEY, PRELOAD_STRING_VALUE)),
+        preloads.next().toJson());
+    try {
+      preloads.next().toJson();
+      fail("Preload that missed the deadline should fail");
+    } catch (PreloadException e) {
+      // Expected.
+    }
+
+    interrupted.await();
+    assertNotSame(Thread.currentThread(), fast.executedThread);
+
+    ConcurrentPreloaderService.Stats stats = service.getStats().get(SPEC_URL.toString());
+    assertEquals(1, stats.getRenderCount());
+    assertEquals(1, stats.getTimeoutCount());
+    assertTrue(stats.getMaxTime() > 0);
+  }
+
+  @Test
+  public void preloadLatencyRecordedPerGadget() throws Exception {
+    preloader.tasks.add(new TestPreloadCallable(
+        new DataPreload(PRELOAD_STRING_KEY, PRELOAD_STRING_VALUE)));
+    preloader.tasks.add(new TestPreloadCallable(
+        new DataPreload(PRELOAD_NUMERIC_KEY, PRELOAD_NUMERIC_VALUE)));
+
+    ConcurrentPreloaderService service = new ConcurrentPreloaderService(
+        new ImmediateExecutorService(), preloader);
+    service.setContainerConfig(createConfig(0));
+
+    Gadget gadget = createGadget();
+    assertEquals(2, getAll(service.preload(gadget)).size());
+    getAll(service.preload(gadget));
+
+    Map<String, ConcurrentPreloaderService.Stats> stats = service.getStats();
+    assertEquals(1, stats.size());
+    assertEquals(2, stats.get(SPEC_URL.toString()).getRenderCount());
+    assertEquals(0, stats.get(SPEC_URL.toString()).getTimeoutCount());
+  }
+
+  @Test
+  public void preloadWithoutDeadlineExecutesLastInCurrentThread() throws Exception {
+    TestPreloadCallable callable =
+        new TestPreloadCallable(new DataPreload(PRELOAD_STRING_KEY, PRELOAD_STRING_VALUE));
+    preloader.tasks.add(callable);
+
+    ConcurrentPreloaderService service = new ConcurrentPreloaderService(
+        Executors.newCachedThreadPool(), preloader);
+    service.setContainerConfig(createConfig(0));
+
+    service.preload(createGadget());
+
+    assertSame(Thread.currentThread(), callable.executedThread);
+  }
+
+  private static ContainerConfig createConfig(int deadline) throws Exception {
+    JSONObject container = new JSONObject();
+    container.put(ContainerConfig.CONTAINER_KEY, new JSONArray("['default']"));
+    container.put(ConcurrentPreloaderService.DEADLINE_KEY, deadline);
+    JSONObject config = new JSONObject();
+    config.put(ContainerConfig.DEFAULT_CONTAINER, container);
+    return new JsonContainerConfig(config, Expressions.forTesting());
+  }
+
+  private static Gadget createGadget() throws Exception {
+    return new Gadget()
+        .setContext(new GadgetContext())
+        .setSpec(new GadgetSpec(SPEC_URL, SPEC_XML));
+  }
+
   private static class TestPreloader implements Preloader {
     protected final Collection<Callable<PreloadedData>> tasks = Lists.newArrayList();
 
@@ -22,14 +22,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableList;
@@ -110,6 +113,38 @@ public class ConcurrentPreloadsTest {
     iterator.next();
   }
 
+  @Test
+  public void getDataPastDeadline() throws Exception {
+    final int[] timedOut = {-1};
+    ConcurrentPreloads preloads = new ConcurrentPreloads(2, TimeUnit.MILLISECONDS.toNanos(10),
+        new ConcurrentPreloads.Listener() {
+          public void preloadsResolved(int timedOutCount) {
+            timedOut[0] = timedOutCount;
+          }
+        });
+    FutureTask<PreloadedData> neverRun = new FutureTask<PreloadedData>(
+        new Callable<PreloadedData>() {
+          public PreloadedData call() {
+            return null;
+          }
+        });
+    preloads.add(neverRun);
+    preloads.add(TestFuture.returnsNormal("foo"));
+
+    assertEquals(2, preloads.size());
+    assertEquals(1, timedOut[0]);
+    assertTrue(neverRun.isCancelled());
+
+    Iterator<PreloadedData> iterator = preloads.iterator();
+    try {
+      iterator.next().toJson();
+      fail();
+    } catch (PreloadException pe) {
+      assertNull(pe.getCause());
+    }
+    assertEquals(TestFuture.expectedResult("foo"), iterator.next().toJson());
+  }
+
   private static class TestFuture implements Future<PreloadedData> {
     private boolean throwsInterrupted;
     private boolean throwsExecution;
@@ -49,7 +49,9 @@ import org.w3c.dom.Element;
 
 import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -83,6 +85,14 @@ public class PipelineExecutorTest {
     + "  <os:PeopleRequest key=\"me\" userId=\"${json.user}\"/>"
     + "</Content>";
 
+  // Two independent requests, and a third that depends on only one of them
+  private static final String FAST_AND_SLOW_CONTENT =
+    "<Content xmlns:os=\"http://ns.opensocial.org/2008/markup\">"
+    + "  <os:PeopleRequest key=\"me\" userId=\"${json.user}\"/>"
+    + "  <os:HttpRequest key=\"json\" href=\"test.json\"/>"
+    + "  <os:HttpRequest key=\"slow\" href=\"slow.json\"/>"
+    + "</Content>";
+
   @Before
   public void setUp() throws Exception {
     control = EasyMock.createStrictControl();
@@ -283,6 +293,89 @@ public class PipelineExecutorTest {
     control.verify();
   }
 
+  @Test
+  public void executeScheduledWithTwoBatches() throws Exception {
+    executor.setExecutor(Executors.newCachedThreadPool());
+    executeWithTwoBatches();
+  }
+
+  @Test
+  public void executeScheduledWithBlockedBatch() throws Exception {
+    executor.setExecutor(Executors.newCachedThreadPool());
+    executeWithBlockedBatch();
+  }
+
+  @Test
+  public void scheduledItemsDoNotWaitForUnrelatedItems() throws Exception {
+    executor.setExecutor(Executors.newCachedThreadPool());
+    PipelinedData pipeline = getPipelinedData(FAST_AND_SLOW_CONTENT);
+
+    final CountDownLatch meLoaded = new CountDownLatch(1);
+    final Callable<PreloadedData> meTask = createPreloadTask("me", "{result: {id: 'canonical'}}");
+    Callable<PreloadedData> slowTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        // Only finishes once the request that depends on "json" has been made.
+        assertTrue(meLoaded.await(10, TimeUnit.SECONDS));
+        return createPreloadTask("slow", "{result: {}}").call();
+      }
+    };
+    Callable<PreloadedData> countingMeTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        meLoaded.countDown();
+        return meTask.call();
+      }
+    };
+
+    expect(preloader.createPreloadTasks(same(context), eqBatch(0, 2)))
+        .andReturn(ImmutableList.of(createPreloadTask("json", "{result: {user: 'canonical'}}"),
+            slowTask));
+    expect(preloader.createPreloadTasks(same(context), eqBatch(1, 0)))
+        .andReturn(ImmutableList.of(countingMeTask));
+
+    control.replay();
+
+    PipelineExecutor.Results results = executor.execute(context,
+        ImmutableList.of(pipeline));
+
+    assertEquals(ImmutableSet.of("json", "me", "slow"), results.keyedResults.keySet());
+    assertTrue(results.remainingPipelines.isEmpty());
+
+    control.verify();
+  }
+
+  @Test
+  public void scheduledItemsMissingDeadlineAreLeftToClient() throws Exception {
+    executor.setExecutor(Executors.newCachedThreadPool());
+    executor.setDeadline(50);
+    PipelinedData pipeline = getPipelinedData(CONTENT);
+
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<PreloadedData> stuckTask = new Callable<PreloadedData>() {
+      public PreloadedData call() throws Exception {
+        release.await();
+        return createPreloadTask("json", "{result: {}}").call();
+      }
+    };
+
+    expect(preloader.createPreloadTasks(same(context), eqBatch(1, 1)))
+        .andReturn(ImmutableList.of(stuckTask));
+
+    control.replay();
+
+    try {
+      PipelineExecutor.Results results = executor.execute(context,
+          ImmutableList.of(pipeline));
+
+      assertEquals(0, results.results.size());
+      assertEquals(1, results.remainingPipelines.size());
+      assertSame(pipeline, results.remainingPipelines.iterator().next());
+    } finally {
+      release.countDown();
+    }
+
+    control.verify();
+  }
+
   /** Match a batch with the specified count of social and HTTP data items */
   private PipelinedData.Batch eqBatch(int socialCount, int httpCount) {
     reportMatcher(new BatchMatcher(socialCount, httpCount));
@@ -36,6 +36,9 @@ import org.apache.shindig.gadgets.http.RequestPipeline;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.PipelinedData;
 import org.apache.shindig.gadgets.spec.PipelinedData.Batch;
+import org.apache.shindig.protocol.HandlerRegistry;
+import org.apache.shindig.protocol.TestHandler;
+import org.apache.shindig.protocol.conversion.BeanJsonConverter;
 import org.easymock.EasyMock;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -46,8 +49,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
 
 /**
  * Test for PipelinedDataPreloader.
@@ -109,6 +115,12 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     + "  <os:PeopleRequest key=\"p\" userIds=\"you\"/>"
     + "  <os:PersonAppDataRequest key=\"a\" userId=\"she\"/>" + "</Content></Module>";
 
+  private static final String XML_WITH_DATA_REQUESTS = "<Module xmlns:os=\""
+    + PipelinedData.OPENSOCIAL_NAMESPACE + "\">" + "<ModulePrefs title=\"Title\"/>"
+    + "<Content href=\"http://example.org/proxied.php\" view=\"profile\">"
+    + "  <os:DataRequest key=\"p\" method=\"test.get\"/>"
+    + "  <os:DataRequest key=\"a\" method=\"missing.get\"/>" + "</Content></Module>";
+
   @Before
   public void createContainerConfig() {
     containerConfig = EasyMock.createMock(ContainerConfig.class);
@@ -256,6 +268,78 @@ public class PipelinedDataPreloaderTest extends PreloaderTestFixture {
     JsonAssert.assertJsonEquals(resultWithKeyP.toString(), resultsById.get("p"));
   }
 
+  @Test
+  public void testInProcessSocialPreload() throws Exception {
+    GadgetSpec spec = new GadgetSpec(GADGET_URL, XML_WITH_DATA_REQUESTS);
+
+    RecordingRequestPipeline pipeline = new RecordingRequestPipeline("");
+    PipelinedDataPreloader preloader = newInProcessPreloader(pipeline, containerConfig);
+
+    view = "profile";
+    contextParams.put("st", "token");
+
+    Gadget gadget = new Gadget()
+        .setContext(context)
+        .setSpec(spec)
+        .setCurrentView(spec.getView("profile"));
+
+    PipelinedData.Batch batch = getBatch(gadget);
+    Collection<Callable<PreloadedData>> tasks = preloader.createPreloadTasks(
+        context, batch);
+    assertEquals(1, tasks.size());
+
+    Collection<Object> result = tasks.iterator().next().call().toJson();
+    assertEquals(2, result.size());
+    // Nothing fetched over HTTP
+    assertEquals(0, pipeline.requests.size());
+
+    Map<String, String> resultsById = getResultsById(result);
+    JsonAssert.assertJsonEquals("{id: 'p', result: '" + TestHandler.GET_RESPONSE + "'}",
+        resultsById.get("p"));
+    JsonAssert.assertJsonEquals("{id: 'a', error: {code: 501, "
+        + "message: 'notImplemented: The method missing.get is not implemented'}}",
+        resultsById.get("a"));
+  }
+
+  @Test
+  public void testInProcessSocialPreloadWithRemoteSocialUri() throws Exception {
+    GadgetSpec spec = new GadgetSpec(GADGET_URL, XML);
+
+    ContainerConfig remoteConfig = EasyMock.createMock(ContainerConfig.class);
+    EasyMock.expect(remoteConfig.getString(CONTAINER, "gadgets.osDataUri")).andStubReturn(
+        "http://social.example.com/rpc");
+    EasyMock.replay(remoteConfig);
+
+    String socialResult = "[{id:'p', result:1}, {id:'a', result:2}]";
+    RecordingRequestPipeline pipeline = new RecordingRequestPipeline(socialResult);
+    PipelinedDataPreloader preloader = newInProcessPreloader(pipeline, remoteConfig);
+
+    view = "profile";
+    contextParams.put("st", "token");
+
+    Gadget gadget = new Gadget()
+        .setContext(context)
+        .setSpec(spec)
+        .setCurrentView(spec.getView("profile"));
+
+    PipelinedData.Batch batch = getBatch(gadget);
+    preloader.createPreloadTasks(context, batch).iterator().next().call();
+
+    // Social requests are still fetched from the JSON-RPC servlet
+    assertEquals(1, pipeline.requests.size());
+    assertEquals("social.example.com", pipeline.requests.get(0).getUri().getAuthority());
+  }
+
+  private static PipelinedDataPreloader newInProcessPreloader(RequestPipeline pipeline,
+      ContainerConfig config) {
+    PipelinedDataPreloader preloader = new PipelinedDataPreloader(pipeline, config);
+    Injector injector = Guice.createInjector();
+    preloader.setInProcessSocialRequests(injector.getInstance(HandlerRegistry.class),
+        ImmutableSet.<Object>of(TestHandler.class), injector.getInstance(BeanJsonConverter.class),
+        true, "result");
+    return preloader;
+  }
+
   private Map<String, String> getResultsById(Collection<Object> result) {
     Map<String, String> resultsById = Maps.newHashMap();
     for (Object o : result) {
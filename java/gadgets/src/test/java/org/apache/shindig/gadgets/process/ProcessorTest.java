@@ -19,9 +19,11 @@ package org.apache.shindig.gadgets.process;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.config.ContainerConfig;
 import org.apache.shindig.config.JsonContainerConfig;
@@ -40,11 +42,14 @@ import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Locale;
+
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.collect.Lists;
 
 import org.apache.shindig.gadgets.variables.Substituter;
+import org.apache.shindig.gadgets.variables.Substitutions;
 
 public class ProcessorTest {
   private static final Uri SPEC_URL = Uri.parse("http://example.org/gadget.xml");
@@ -183,6 +188,79 @@ public class ProcessorTest {
     }
   }
 
+  private GadgetContext makeContext(final Locale locale, final boolean ignoreCache) {
+    return new GadgetContext() {
+      @Override
+      public Uri getUrl() {
+        return SPEC_URL;
+      }
+
+      @Override
+      public String getView() {
+        return "html";
+      }
+
+      @Override
+      public Locale getLocale() {
+        return locale;
+      }
+
+      @Override
+      public boolean getIgnoreCache() {
+        return ignoreCache;
+      }
+    };
+  }
+
+  @Test
+  public void substitutedSpecsAreCached() throws Exception {
+    processor.setSubstitutedSpecCache(new LruCacheProvider(10), true);
+    gadgetSpecFactory.spec = new GadgetSpec(SPEC_URL, GADGET);
+
+    Gadget first = processor.process(makeContext(Locale.US, false));
+    Gadget second = processor.process(makeContext(Locale.US, false));
+    assertEquals(1, substituter.substitutions);
+    assertSame(first.getSpec(), second.getSpec());
+
+    processor.process(makeContext(Locale.FRANCE, false));
+    assertEquals(2, substituter.substitutions);
+  }
+
+  @Test
+  public void substitutedSpecsAreKeyedBySpecContent() throws Exception {
+    processor.setSubstitutedSpecCache(new LruCacheProvider(10), true);
+
+    // Each process call parses a new spec instance with the same content.
+    processor.process(makeContext(Locale.US, false));
+    processor.process(makeContext(Locale.US, false));
+    assertEquals(1, substituter.substitutions);
+
+    gadgetSpecFactory.spec = new GadgetSpec(SPEC_URL, GADGET.replace("foo", "bar"));
+    processor.process(makeContext(Locale.US, false));
+    assertEquals(2, substituter.substitutions);
+  }
+
+  @Test
+  public void substitutedSpecCacheBypassedWhenIgnoringCache() throws Exception {
+    processor.setSubstitutedSpecCache(new LruCacheProvider(10), true);
+    gadgetSpecFactory.spec = new GadgetSpec(SPEC_URL, GADGET);
+
+    processor.process(makeContext(Locale.US, true));
+    processor.process(makeContext(Locale.US, true));
+    assertEquals(2, substituter.substitutions);
+  }
+
+  @Test
+  public void substitutedSpecsExpire() throws Exception {
+    processor.setSubstitutedSpecCache(new LruCacheProvider(10), true);
+    processor.setSubstitutedSpecMaxAge(-1);
+    gadgetSpecFactory.spec = new GadgetSpec(SPEC_URL, GADGET);
+
+    processor.process(makeContext(Locale.US, false));
+    processor.process(makeContext(Locale.US, false));
+    assertEquals(2, substituter.substitutions);
+  }
+
   @Test
   public void typeUrlViewsAreSkippedForSanitizedGadget() throws Exception {
     Gadget gadget = processor.process(makeContext("url", SPEC_URL, true));
@@ -206,6 +284,7 @@ public class ProcessorTest {
 
   private static class FakeGadgetSpecFactory implements GadgetSpecFactory {
     protected GadgetException exception;
+    protected GadgetSpec spec;
 
     protected FakeGadgetSpecFactory() {
     }
@@ -214,12 +293,16 @@ public class ProcessorTest {
       if (exception != null) {
         throw exception;
       }
+      if (spec != null) {
+        return spec;
+      }
       return new GadgetSpec(context.getUrl(), GADGET);
     }
   }
 
   private static class FakeVariableSubstituter extends VariableSubstituter {
     protected boolean wasSubstituted;
+    protected int substitutions;
 
     protected FakeVariableSubstituter() {
       super(Lists.<Substituter>newArrayList());
@@ -228,7 +311,8 @@ public class ProcessorTest {
     @Override
     public GadgetSpec substitute(GadgetContext context, GadgetSpec spec) {
       wasSubstituted = true;
-      return spec;
+      substitutions++;
+      return spec.substitute(new Substitutions());
     }
   }
 }
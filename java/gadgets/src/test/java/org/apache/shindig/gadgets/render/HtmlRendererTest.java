@@ -19,10 +19,13 @@
 package org.apache.shindig.gadgets.render;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.auth.AnonymousSecurityToken;
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.testing.FakeGadgetToken;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.xml.XmlUtil;
 import org.apache.shindig.gadgets.Gadget;
@@ -113,6 +116,90 @@ public class HtmlRendererTest {
     assertTrue("Rewriting not performed.", captureRewriter.viewWasRewritten());
   }
 
+  @Test
+  public void cachedOutputSkipsPreloadingAndRewriting() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), true);
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+
+    preloaderService.wasPreloaded = false;
+    String content = renderer.render(makeGadget(BASIC_HTML_CONTENT));
+    assertEquals(BASIC_HTML_CONTENT, content);
+    assertFalse("Cached output was preloaded.", preloaderService.wasPreloaded);
+  }
+
+  @Test
+  public void personalizedOutputNotCached() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), true);
+    GadgetContext context = new GadgetContext() {
+      @Override
+      public SecurityToken getToken() {
+        return new FakeGadgetToken();
+      }
+    };
+    renderer.render(makeGadget(BASIC_HTML_CONTENT).setContext(context));
+
+    preloaderService.wasPreloaded = false;
+    renderer.render(makeGadget(BASIC_HTML_CONTENT).setContext(context));
+    assertTrue("Preloading not performed.", preloaderService.wasPreloaded);
+  }
+
+  @Test
+  public void outputNotCachedWhenDisabled() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), false);
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+
+    preloaderService.wasPreloaded = false;
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+    assertTrue("Preloading not performed.", preloaderService.wasPreloaded);
+  }
+
+  @Test
+  public void outputCachedPerModuleId() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), true);
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+
+    preloaderService.wasPreloaded = false;
+    renderer.render(makeGadget(BASIC_HTML_CONTENT).setContext(new GadgetContext() {
+      @Override
+      public SecurityToken getToken() {
+        return new AnonymousSecurityToken();
+      }
+
+      @Override
+      public int getModuleId() {
+        return 7;
+      }
+    }));
+    assertTrue("Output for another module id was served.", preloaderService.wasPreloaded);
+  }
+
+  @Test
+  public void outputWithPreloadsNotCached() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), true);
+    GadgetSpec spec = new GadgetSpec(SPEC_URL, "<Module><ModulePrefs title=''>"
+        + "<Preload href='http://example.org/data'/></ModulePrefs>"
+        + "<Content>" + BASIC_HTML_CONTENT + "</Content></Module>");
+    renderer.render(new Gadget().setSpec(spec).setContext(CONTEXT)
+        .setCurrentView(spec.getView("default")));
+
+    preloaderService.wasPreloaded = false;
+    renderer.render(new Gadget().setSpec(spec).setContext(CONTEXT)
+        .setCurrentView(spec.getView("default")));
+    assertTrue("Preloading not performed.", preloaderService.wasPreloaded);
+  }
+
+  @Test
+  public void containerConfigChangeInvalidatesOutput() throws Exception {
+    renderer.setOutputCache(new LruCacheProvider(10), true);
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+
+    renderer.containersChanged(null, ImmutableList.of("default"),
+        ImmutableList.<String>of());
+    preloaderService.wasPreloaded = false;
+    renderer.render(makeGadget(BASIC_HTML_CONTENT));
+    assertTrue("Output cached before the change was served.", preloaderService.wasPreloaded);
+  }
+
   private static class FakeProxyRenderer extends ProxyRenderer {
     public FakeProxyRenderer() {
       super(null, null, null);
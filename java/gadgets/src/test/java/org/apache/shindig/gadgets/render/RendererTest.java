@@ -30,6 +30,7 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.process.ProcessingException;
 import org.apache.shindig.gadgets.process.Processor;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.View;
 
@@ -201,6 +202,18 @@ public class RendererTest {
     assertTrue("Locked domain not verified", lockedDomainService.wasChecked);
   }
 
+  @Test
+  public void renderStreamedOutput() throws Exception {
+    renderer.setStreamOutput(true);
+    RenderingResults results = renderer.render(makeContext("html"));
+    assertEquals(RenderingResults.Status.OK, results.getStatus());
+
+    StringBuilder output = new StringBuilder();
+    results.writeContent(output);
+    assertEquals(BASIC_HTML_CONTENT, output.toString());
+    assertEquals(BASIC_HTML_CONTENT, results.getContent());
+  }
+
   @Test
   public void wrongDomainFails() throws Exception {
     lockedDomainService.canRender = false;
@@ -235,6 +248,11 @@ public class RendererTest {
       }
       return gadget.getCurrentView().getContent();
     }
+
+    @Override
+    public MutableContent renderContent(Gadget gadget) throws RenderingException {
+      return new MutableContent(null, render(gadget));
+    }
   }
 
   private static class FakeProcessor extends Processor {
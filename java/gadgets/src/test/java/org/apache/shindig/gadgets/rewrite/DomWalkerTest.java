@@ -18,9 +18,15 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
+import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.parse.ParseModule;
+import org.easymock.IMocksControl;
 import org.junit.Before;
 import org.junit.Test;
 import org.w3c.dom.Node;
@@ -30,6 +36,8 @@ import java.util.List;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class DomWalkerTest extends DomWalkerTestBase {
@@ -266,6 +274,137 @@ public class DomWalkerTest extends DomWalkerTestBase {
     assertTrue(exceptionCaught);
   }
 
+  @Test
+  public void selectiveVisitorOnlyVisitsNamedNodes() throws Exception {
+    Gadget gadget = gadget();
+
+    // The selective visitor sees only the nodes it names; other visitors still see every node.
+    IMocksControl control = createStrictControl();
+    DomWalker.SelectiveVisitor visitor1 = control.createMock(DomWalker.SelectiveVisitor.class);
+    DomWalker.Visitor visitor2 = control.createMock(DomWalker.Visitor.class);
+    expect(visitor1.getVisitedNodeNames()).andReturn(ImmutableSet.of("child1", "#text"));
+    expect(visitor2.visit(gadget, root)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor1.visit(gadget, child1)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor2.visit(gadget, child1)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor1.visit(gadget, text1)).andReturn(DomWalker.Visitor.VisitStatus.MODIFY);
+    expect(visitor2.visit(gadget, text1)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor2.visit(gadget, child2)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor2.visit(gadget, subchild1)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor1.visit(gadget, text2)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor2.visit(gadget, text2)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    control.replay();
+
+    MutableContent mc = getContent(1);
+    getRewriter(visitor1, visitor2).rewrite(gadget, mc);
+
+    control.verify();
+    verify(mc);
+  }
+
+  @Test
+  public void selectiveVisitorWithNoNamesVisitsNothing() throws Exception {
+    Gadget gadget = gadget();
+
+    DomWalker.SelectiveVisitor visitor = createMock(DomWalker.SelectiveVisitor.class);
+    expect(visitor.getVisitedNodeNames()).andReturn(ImmutableSet.<String>of());
+    replay(visitor);
+
+    MutableContent mc = getContent(0);
+    getRewriter(visitor).rewrite(gadget, mc);
+
+    verify(visitor);
+    verify(mc);
+  }
+
+  @Test
+  public void streamableVisitorsRewriteHtmlWithoutParsing() throws Exception {
+    String html = "<html><head><base href=\"http://base.com/dir/\">\n</head>"
+        + "<body><P>text<IMG src='a.png' alt=x></body></html>";
+    HttpRequest request = new HttpRequest(Uri.parse("http://example.com/page.html"));
+    // No parser, so any attempt to build the DOM fails.
+    HttpResponseBuilder builder = new HttpResponseBuilder()
+        .setHeader("Content-Type", "text/html")
+        .setResponseString(html);
+
+    DomWalker.Rewriter rewriter = getRewriter(
+        new AbsolutePathReferenceVisitor(AbsolutePathReferenceVisitor.Tags.RESOURCES));
+    rewriter.setStreamHtml(true, new ParseModule.DOMImplementationProvider().get());
+    rewriter.rewrite(request, builder);
+
+    assertFalse(builder.hasDocument());
+    assertEquals("<html><head><base href=\"http://base.com/dir/\">\n</head>"
+        + "<body><P>text<IMG src=\"http://base.com/dir/a.png\" alt=x></body></html>",
+        builder.getContent());
+  }
+
+  @Test
+  public void fusedRewriterVisitsEachNodeWithAllRewriters() throws Exception {
+    Gadget gadget = gadget();
+
+    // Without reservations, both rewriters see each node in a single walk.
+    IMocksControl control = createStrictControl();
+    DomWalker.Visitor visitor1 = control.createMock(DomWalker.Visitor.class);
+    DomWalker.Visitor visitor2 = control.createMock(DomWalker.Visitor.class);
+    for (Node node : Lists.newArrayList(root, child1, text1, child2, subchild1, text2)) {
+      expect(visitor1.visit(gadget, node)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+      expect(visitor2.visit(gadget, node)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    }
+    control.replay();
+
+    MutableContent mc = getContent(0);
+    new DomWalker.FusedRewriter(Lists.newArrayList(getRewriter(visitor1), getRewriter(visitor2)))
+        .rewrite(gadget, mc);
+
+    control.verify();
+    verify(mc);
+  }
+
+  @Test
+  public void fusedRewriterRevisitsBeforeLaterRewritersContinue() throws Exception {
+    Gadget gadget = gadget();
+
+    IMocksControl control = createStrictControl();
+    DomWalker.Visitor visitor1 = control.createMock(DomWalker.Visitor.class);
+    DomWalker.Visitor visitor2 = control.createMock(DomWalker.Visitor.class);
+    expect(visitor1.visit(gadget, root)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor2.visit(gadget, root)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    expect(visitor1.visit(gadget, child1)).andReturn(DomWalker.Visitor.VisitStatus.RESERVE_NODE);
+    // Visitor2 waits for visitor1 to revisit child1.
+    for (Node node : Lists.newArrayList(text1, child2, subchild1, text2)) {
+      expect(visitor1.visit(gadget, node)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    }
+    List<Node> reserved1 = Lists.newArrayList(child1);
+    expect(visitor1.revisit(gadget, reserved1)).andReturn(true);
+    // Then continues where it left off, without revisiting root.
+    for (Node node : Lists.newArrayList(child1, text1, child2, subchild1, text2)) {
+      expect(visitor2.visit(gadget, node)).andReturn(DomWalker.Visitor.VisitStatus.BYPASS);
+    }
+    control.replay();
+
+    MutableContent mc = getContent(1);
+    new DomWalker.FusedRewriter(Lists.newArrayList(getRewriter(visitor1), getRewriter(visitor2)))
+        .rewrite(gadget, mc);
+
+    control.verify();
+    verify(mc);
+  }
+
+  @Test
+  public void fuseCombinesConsecutiveRewriters() throws Exception {
+    DomWalker.Rewriter rewriter1 = getRewriter();
+    DomWalker.Rewriter rewriter2 = getRewriter();
+    DomWalker.Rewriter rewriter3 = getRewriter();
+    GadgetRewriter other = new CaptureRewriter();
+
+    List<GadgetRewriter> fused = DomWalker.fuse(
+        Lists.<GadgetRewriter>newArrayList(rewriter1, other, rewriter2, rewriter3));
+    assertEquals(3, fused.size());
+    assertSame(rewriter1, fused.get(0));
+    assertSame(other, fused.get(1));
+    assertEquals(Lists.newArrayList(rewriter2, rewriter3),
+        ((DomWalker.FusedRewriter) fused.get(2)).getRewriters());
+  }
+
   private DomWalker.Rewriter getRewriter(DomWalker.Visitor... visitors) {
     return new DomWalker.Rewriter(Lists.newArrayList(visitors));
   }
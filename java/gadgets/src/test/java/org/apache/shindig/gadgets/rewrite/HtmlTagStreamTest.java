@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.shindig.gadgets.parse.ParseModule;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for HtmlTagStream.
+ */
+public class HtmlTagStreamTest {
+  private static final Set<String> NAMES = ImmutableSet.of("base", "img", "link", "script", "style");
+
+  private DOMImplementation documentFactory;
+
+  @Before
+  public void setUp() throws Exception {
+    documentFactory = new ParseModule.DOMImplementationProvider().get();
+  }
+
+  private HtmlTagStream scan(String html) {
+    return HtmlTagStream.scan(html, NAMES, documentFactory);
+  }
+
+  private String siblingNames(HtmlTagStream stream) {
+    StringBuilder names = new StringBuilder();
+    Node first = stream.getElements().get(0).getParentNode().getFirstChild();
+    for (Node node = first; node != null; node = node.getNextSibling()) {
+      names.append(names.length() > 0 ? " " : "").append(node.getNodeName());
+    }
+    return names.toString();
+  }
+
+  @Test
+  public void findsNamedTagsWithGapsBetweenThem() throws Exception {
+    String html = "<html><head><base href=\"http://base.com/\">\n"
+        + "<script src=a.js></script> <!-- c --> <script src='b.js'></script>"
+        + "<link rel=stylesheet href=\"x.css\"/><style>p{}</style></head>"
+        + "<body><p>text<img SRC=\"i.png?a=1&amp;b=2&c=3\" alt=x></p>"
+        + "<script type=\"text/os-data\"><img src=no></script></body></html>";
+    HtmlTagStream stream = scan(html);
+
+    List<Element> elements = stream.getElements();
+    assertEquals(6, elements.size());
+    assertEquals("base script script link style " + HtmlTagStream.GAP + " img",
+        siblingNames(stream));
+    assertEquals("b.js", elements.get(2).getAttribute("src"));
+    assertEquals("p{}", elements.get(4).getTextContent());
+    assertEquals("i.png?a=1&b=2&c=3", elements.get(5).getAttribute("src"));
+    assertEquals(1, elements.get(0).getOwnerDocument().getElementsByTagName("base").getLength());
+    assertSame(html, stream.getRewrittenContent());
+  }
+
+  @Test
+  public void splicesChangesIntoOriginalContent() throws Exception {
+    HtmlTagStream stream = scan("<head><script src=a.js></script>\n<script src=b.js></script>"
+        + "<link rel=stylesheet href=x.css><style>p{}</style></head>"
+        + "<body><p>t<img src=\"i.png\" alt=x /></p></body>");
+    List<Element> elements = stream.getElements();
+
+    Element script = elements.get(0);
+    Element concat = (Element) script.cloneNode(true);
+    concat.setAttribute("src", "concat.js");
+    script.getParentNode().insertBefore(concat, script);
+    script.getParentNode().removeChild(script);
+    elements.get(1).getParentNode().removeChild(elements.get(1));
+    elements.get(2).getParentNode().removeChild(elements.get(2));
+    elements.get(3).setTextContent("q{}");
+    Element img = elements.get(4);
+    img.setAttribute("src", "proxy?u=\"i\"&x");
+    img.setAttribute("width", "10");
+    img.removeAttribute("alt");
+
+    assertEquals("<head><script src=\"concat.js\"></script>\n<style>q{}</style></head>"
+        + "<body><p>t<img src=\"proxy?u=&quot;i&quot;&amp;x\" width=\"10\" /></p></body>",
+        stream.getRewrittenContent());
+  }
+
+  @Test
+  public void appendsNewNodesAfterLastTag() throws Exception {
+    HtmlTagStream stream = scan("<b><img src=a/>x</b><img src='y'>");
+    Element img = stream.getElements().get(1);
+    Element script = img.getOwnerDocument().createElement("script");
+    script.setTextContent("f(a<b)");
+    img.getParentNode().appendChild(script);
+
+    assertEquals("a/", stream.getElements().get(0).getAttribute("src"));
+    assertEquals("<b><img src=a/>x</b><img src='y'><script>f(a<b)</script>",
+        stream.getRewrittenContent());
+  }
+
+  @Test
+  public void decodesCharacterReferencesInAttributes() throws Exception {
+    HtmlTagStream stream = scan("<img src='&#65;&#x42;&lang=1&amp=2&lt'>");
+    assertEquals("AB&lang=1&amp=2<", stream.getElements().get(0).getAttribute("src"));
+  }
+
+  @Test
+  public void cannotRemoveElementOfUnknownExtent() throws Exception {
+    HtmlTagStream stream = HtmlTagStream.scan("<body><script src=a></script><p>x</p>",
+        ImmutableSet.of("body", "script"), documentFactory);
+    assertEquals("body " + HtmlTagStream.GAP + " script", siblingNames(stream));
+
+    Element body = stream.getElements().get(0);
+    body.getParentNode().removeChild(body);
+    assertNull(stream.getRewrittenContent());
+  }
+
+  @Test
+  public void cannotScanUncertainMarkup() throws Exception {
+    assertNull(scan("<img src=\"&copy;\">"));
+    assertNull(scan("<img src=\"x"));
+    assertNull(scan("<script>x"));
+    assertNull(scan("<img a\"b=1>"));
+    assertNull(scan("<xmp><img src=x></xmp>"));
+  }
+}
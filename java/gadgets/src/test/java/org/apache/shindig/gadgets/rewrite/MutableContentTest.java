@@ -128,4 +128,24 @@ public class MutableContentTest {
     // GadgetHtmlNode hasn't changed because string hasn't changed
     assertSame(document, mhc.getDocument());
   }
+
+  @Test
+  public void writeContentSerializesModifiedTree() throws Exception {
+    Document document = mhc.getDocument();
+    document.getFirstChild().getFirstChild().setTextContent("FOO CONTENT");
+    MutableContent.notifyEdit(document);
+
+    StringBuilder output = new StringBuilder();
+    mhc.writeContent(output);
+    assertTrue(output.toString().contains("FOO CONTENT"));
+    assertEquals(mhc.getContent(), output.toString());
+  }
+
+  @Test
+  public void writeContentWritesContentString() throws Exception {
+    mhc.setContent("NEW CONTENT");
+    StringBuilder output = new StringBuilder();
+    mhc.writeContent(output);
+    assertEquals("NEW CONTENT", output.toString());
+  }
 }
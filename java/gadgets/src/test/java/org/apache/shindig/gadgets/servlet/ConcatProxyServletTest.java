@@ -20,12 +20,18 @@ package org.apache.shindig.gadgets.servlet;
 
 import static org.easymock.EasyMock.expect;
 
+import java.io.ByteArrayInputStream;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.servlet.HttpServletResponseRecorder;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.DefaultHttpCache;
+import org.apache.shindig.gadgets.http.DefaultInvalidationService;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
@@ -34,10 +40,12 @@ import org.apache.shindig.gadgets.uri.UriStatus;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -123,10 +131,15 @@ public class ConcatProxyServletTest extends ServletTestFixture {
    * @param uris - list of uris to concat
    * @throws Exception
    */
-  private void runConcat(ExecutorService exec, String result, String tok, Uri... uris)
+  private void runConcat(Executor exec, String result, String tok, Uri... uris)
       throws Exception {
-    expectRequestWithUris(Lists.newArrayList(uris), tok);
-    
+    runConcat(exec, result, tok, UriStatus.VALID_UNVERSIONED, uris);
+  }
+
+  private void runConcat(Executor exec, String result, String tok, UriStatus status,
+      Uri... uris) throws Exception {
+    expectRequestWithUris(Lists.newArrayList(uris), tok, status);
+
     // Run the servlet
     servlet.setExecutor(exec);
     servlet.doGet(request, recorder);
@@ -161,6 +174,54 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     runConcat(threadedExecutor, results, null, URL1, URL2, URL3);
   }
   
+  @Test
+  public void testConcatCompletedOutOfOrder() throws Exception {
+    String results = addComment(SCRT1, URL1.toString()) + addComment(SCRT2, URL2.toString())
+        + addComment(SCRT3, URL3.toString());
+    runConcat(new ReverseOrderExecutor(3), results, null, UriStatus.VALID_VERSIONED,
+        URL1, URL2, URL3);
+  }
+
+  @Test
+  public void testAsJsonConcatCompletedOutOfOrder() throws Exception {
+    String results = "_js={\r\n"
+        + addVar(URL1.toString(), SCRT1_ESCAPED)
+        + addVar(URL2.toString(), SCRT2_ESCAPED)
+        + addLastVar(URL3.toString(), SCRT3_ESCAPED)
+        + "};\r\n";
+    runConcat(new ReverseOrderExecutor(3), results, "_js", UriStatus.VALID_VERSIONED,
+        URL1, URL2, URL3);
+  }
+
+  @Test
+  public void testConcatErrorCompletedOutOfOrder() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    HttpResponse resp = new HttpResponseBuilder().setHttpStatusCode(404).create();
+    expect(pipeline.execute(new HttpRequest(URL4))).andReturn(resp).anyTimes();
+
+    String results = addComment(SCRT1, URL1.toString()) + addErrComment(URL4.toString(), 404)
+        + addComment(SCRT2, URL2.toString());
+    runConcat(new ReverseOrderExecutor(3), results, null, UriStatus.VALID_VERSIONED,
+        URL1, URL4, URL2);
+  }
+
+  @Test
+  public void testGzipConcatCompletedOutOfOrder() throws Exception {
+    expect(request.getHeader("Accept-Encoding")).andReturn("gzip").anyTimes();
+    expectRequestWithUris(Lists.newArrayList(URL1, URL2, URL3), null, UriStatus.VALID_VERSIONED);
+    servlet.setExecutor(new ReverseOrderExecutor(3));
+
+    servlet.doGet(request, recorder);
+    verify();
+
+    String results = addComment(SCRT1, URL1.toString()) + addComment(SCRT2, URL2.toString())
+        + addComment(SCRT3, URL3.toString());
+    assertEquals("gzip", recorder.getHeader("Content-Encoding"));
+    assertEquals(results, IOUtils.toString(
+        new GZIPInputStream(new ByteArrayInputStream(recorder.getResponseAsBytes())), "UTF-8"));
+    assertEquals(200, recorder.getHttpStatusCode());
+  }
+
   @Test
   public void testConcatBadException() throws Exception {
     final Uri URL4 = Uri.parse("http://example.org/4.js");
@@ -321,6 +382,42 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     assertEquals((int) (HttpResponse.defaultTtl / 1000), cacheValue, 10);
   }
 
+  @Test
+  public void testVersionedBundleServedFromCache() throws Exception {
+    final Uri URL4 = Uri.parse("http://example.org/4.js");
+    final Uri URL5 = Uri.parse("http://example.org/5.js");
+    HttpRequest req4 = new HttpRequest(URL4);
+    HttpRequest req5 = new HttpRequest(URL5);
+    HttpResponse resp4 = new HttpResponseBuilder().setResponseString(SCRT1)
+        .setCacheTtl(1000).create();
+    HttpResponse resp5 = new HttpResponseBuilder().setResponseString(SCRT2)
+        .setCacheTtl(1000).create();
+    // Once to fill the bundle cache, once more after a resource is invalidated.
+    expect(pipeline.execute(req4)).andReturn(resp4).times(2);
+    expect(pipeline.execute(req5)).andReturn(resp5).times(2);
+
+    DefaultInvalidationService invalidationService = new DefaultInvalidationService(
+        new DefaultHttpCache(new LruCacheProvider(10)), new LruCacheProvider(10));
+    servlet.setBundleCache(new LruCacheProvider(10), invalidationService);
+    servlet.setExecutor(sequentialExecutor);
+    expectRequestWithUris(Lists.newArrayList(URL4, URL5), null, UriStatus.VALID_VERSIONED);
+
+    String results = addComment(SCRT1, URL4.toString()) + addComment(SCRT2, URL5.toString());
+    servlet.doGet(request, recorder);
+    assertEquals(results, recorder.getResponseAsString());
+
+    HttpServletResponseRecorder cachedRecorder = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, cachedRecorder);
+    assertEquals(results, cachedRecorder.getResponseAsString());
+    assertEquals(200, cachedRecorder.getHttpStatusCode());
+
+    invalidationService.invalidateApplicationResources(ImmutableSet.of(URL5), null);
+    HttpServletResponseRecorder refetchedRecorder = new HttpServletResponseRecorder(response);
+    servlet.doGet(request, refetchedRecorder);
+    assertEquals(results, refetchedRecorder.getResponseAsString());
+    verify();
+  }
+
   private void expectGetAndSetCacheTtl(Uri url, Integer cacheTtl) throws Exception {
     HttpRequest req = new HttpRequest(url);
     HttpResponse resp = new HttpResponseBuilder().setCacheTtl(cacheTtl).create();
@@ -342,6 +439,10 @@ public class ConcatProxyServletTest extends ServletTestFixture {
   }
   
   private void expectRequestWithUris(List<Uri> uris, String tok) {
+    expectRequestWithUris(uris, tok, UriStatus.VALID_UNVERSIONED);
+  }
+
+  private void expectRequestWithUris(List<Uri> uris, String tok, UriStatus status) {
     expect(request.getScheme()).andReturn("http").anyTimes();
     expect(request.getServerPort()).andReturn(80).anyTimes();
     expect(request.getServerName()).andReturn("example.com").anyTimes();
@@ -350,7 +451,29 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     replay();
 
     Uri uri = new UriBuilder(request).toUri();
-    uriManager.expect(uri, uris, tok);
+    uriManager.expect(uri, status, ConcatUriManager.Type.JS, uris, tok);
+  }
+
+  /**
+   * Holds fetches until all of them have been submitted, then runs them last first, so that
+   * resources complete in the reverse of the order they were requested in.
+   */
+  private static class ReverseOrderExecutor implements Executor {
+    private final int expected;
+    private final List<Runnable> pending = Lists.newArrayList();
+
+    private ReverseOrderExecutor(int expected) {
+      this.expected = expected;
+    }
+
+    public void execute(Runnable command) {
+      pending.add(command);
+      if (pending.size() == expected) {
+        for (Runnable task : Lists.reverse(pending)) {
+          task.run();
+        }
+      }
+    }
   }
 
   private static class TestConcatUriManager implements ConcatUriManager {
@@ -372,9 +495,5 @@ public class ConcatProxyServletTest extends ServletTestFixture {
     private void expect(Uri orig, UriStatus status, Type type, List<Uri> uris, String json) {
       uriMap.put(orig, new ConcatUri(status, uris, json, type, null));
     }
-    
-    private void expect(Uri orig, List<Uri> uris, String tok) {
-      expect(orig, UriStatus.VALID_UNVERSIONED, Type.JS, uris, tok);
-    }
   }
 }
@@ -161,6 +161,31 @@ public class JsServletTest extends ServletTestFixture {
     verify();
   }
 
+  @Test
+  public void testWithMatchingIfNoneMatchReturnsNotModified() throws Exception {
+    setUp(0);
+    JsUri jsUri = mockJsUri(CONTAINER_PARAM, RenderingContext.CONTAINER, false, false, false,
+        null, REFRESH_INTERVAL_SEC, UriStatus.VALID_UNVERSIONED);
+    expect(jsUriManagerMock.processExternJsUri(isA(Uri.class))).andReturn(jsUri);
+    final JsResponse response = new JsResponseBuilder().appendJs(EXAMPLE_JS_CODE, "js").build();
+    expect(request.getHeader("If-None-Match")).andReturn("\"other\", " + response.getEtag());
+    expect(getJsProcessorMock.process(isA(JsRequest.class), isA(JsResponseBuilder.class))).andAnswer(
+        new IAnswer<Boolean>() {
+          public Boolean answer() throws Throwable {
+            JsResponseBuilder builder = (JsResponseBuilder)getCurrentArguments()[1];
+            builder.appendAllJs(response.getAllJsContent());
+            return true;
+          }
+        });
+    replay();
+
+    servlet.doGet(request, recorder);
+    assertEquals(HttpServletResponse.SC_NOT_MODIFIED, recorder.getHttpStatusCode());
+    assertEquals(response.getEtag(), recorder.getHeader("ETag"));
+    assertEquals("", recorder.getResponseAsString());
+    verify();
+  }
+
   @Test
   public void testDoJsloadNormal() throws Exception {
     setUp(0);
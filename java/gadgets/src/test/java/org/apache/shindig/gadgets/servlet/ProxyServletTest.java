@@ -114,7 +114,7 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetNormal() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andReturn(new HttpResponse(RESPONSE_BODY));
+    expect(proxyHandler.fetch(proxyUri, recorder)).andReturn(new HttpResponse(RESPONSE_BODY));
 
     replay();
     servlet.doGet(request, recorder);
@@ -126,7 +126,7 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetHttpError() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andReturn(HttpResponse.notFound());
+    expect(proxyHandler.fetch(proxyUri, recorder)).andReturn(HttpResponse.notFound());
 
     replay();
     servlet.doGet(request, recorder);
@@ -138,8 +138,9 @@ public class ProxyServletTest extends ServletTestFixture {
   @Test
   public void testDoGetException() throws Exception {
     setupRequest(BASIC_SYNTAX_URL);
-    expect(proxyHandler.fetch(proxyUri)).andThrow(
+    expect(proxyHandler.fetch(proxyUri, recorder)).andThrow(
             new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, ERROR_MESSAGE));
+    expect(response.isCommitted()).andReturn(false);
 
     replay();
     servlet.doGet(request, recorder);
@@ -149,6 +150,33 @@ public class ProxyServletTest extends ServletTestFixture {
     assertContains(ERROR_MESSAGE, recorder.getResponseAsString());
   }
 
+  @Test
+  public void testDoGetStreamed() throws Exception {
+    setupRequest(BASIC_SYNTAX_URL);
+    expect(proxyHandler.fetch(proxyUri, recorder)).andReturn(null);
+
+    replay();
+    servlet.doGet(request, recorder);
+    verify();
+
+    assertResponseOk(HttpResponse.SC_OK, "");
+  }
+
+  @Test
+  public void testDoGetExceptionAfterCommit() throws Exception {
+    setupRequest(BASIC_SYNTAX_URL);
+    expect(proxyHandler.fetch(proxyUri, recorder)).andThrow(
+            new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, ERROR_MESSAGE));
+    expect(response.isCommitted()).andReturn(true);
+
+    replay();
+    servlet.doGet(request, recorder);
+    verify();
+
+    assertEquals(HttpServletResponse.SC_OK, recorder.getHttpStatusCode());
+    assertEquals("", recorder.getResponseAsString());
+  }
+
   @Test
   public void testDoGetNormalWithLockedDomainUnsafe() throws Exception {
     setupRequest(BASIC_SYNTAX_URL, false);
@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.servlet;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.apache.shindig.common.servlet.HttpServletResponseRecorder;
 import org.apache.shindig.common.servlet.HttpUtil;
 import org.apache.shindig.common.uri.Uri;
@@ -40,6 +41,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import static junitx.framework.ComparableAssert.assertGreater;
 import static junitx.framework.ComparableAssert.assertLesser;
@@ -253,6 +255,51 @@ public class ServletUtilTest {
     assertEquals("123", recorder.getHeader("Expires"));
   }
 
+  @Test
+  public void testCopyContentToServletResponseGzipped() throws Exception {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      body.append("response string ");
+    }
+    HttpResponse response = new HttpResponseBuilder()
+        .setResponseString(body.toString()).setHttpStatusCode(200).create();
+
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getHeader("Accept-Encoding")).andReturn("gzip, deflate");
+    EasyMock.replay(request);
+    HttpServletResponse servletResponse = EasyMock.createMock(HttpServletResponse.class);
+    HttpServletResponseRecorder recorder = new HttpServletResponseRecorder(servletResponse);
+
+    ServletUtil.copyContentToServletResponse(response, request, recorder);
+
+    assertEquals("gzip", recorder.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", recorder.getHeader("Vary"));
+    assertEquals(body.toString(), IOUtils.toString(
+        new GZIPInputStream(new ByteArrayInputStream(recorder.getResponseAsBytes())), "UTF-8"));
+  }
+
+  @Test
+  public void testCopyContentToServletResponseGzipNotAccepted() throws Exception {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      body.append("response string ");
+    }
+    HttpResponse response = new HttpResponseBuilder()
+        .setResponseString(body.toString()).setHttpStatusCode(200).create();
+
+    HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+    EasyMock.expect(request.getHeader("Accept-Encoding")).andReturn(null);
+    EasyMock.replay(request);
+    HttpServletResponse servletResponse = EasyMock.createMock(HttpServletResponse.class);
+    HttpServletResponseRecorder recorder = new HttpServletResponseRecorder(servletResponse);
+
+    ServletUtil.copyContentToServletResponse(response, request, recorder);
+
+    assertNull(recorder.getHeader("Content-Encoding"));
+    assertEquals("Accept-Encoding", recorder.getHeader("Vary"));
+    assertEquals(body.toString(), recorder.getResponseAsString());
+  }
+
   @Test
   public void testCopyToServletResponseAndOverrideCacheHeadersForPrivate()
       throws Exception {